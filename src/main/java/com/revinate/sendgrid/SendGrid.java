@@ -1,14 +1,23 @@
 package com.revinate.sendgrid;
 
+import com.revinate.sendgrid.net.CircuitBreaker;
+import com.revinate.sendgrid.net.CompressionPolicy;
+import com.revinate.sendgrid.net.HttpTransport;
+import com.revinate.sendgrid.net.RateLimiter;
+import com.revinate.sendgrid.net.RequestHedger;
+import com.revinate.sendgrid.net.RetryPolicy;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.auth.ApiKeyCredential;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.net.auth.OnBehalfOfCredential;
 import com.revinate.sendgrid.net.auth.UsernamePasswordCredential;
 import com.revinate.sendgrid.resource.RootResource;
+import com.revinate.sendgrid.util.LruCache;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 
 import java.io.Closeable;
+import java.util.Map;
 
 public final class SendGrid extends RootResource implements Closeable {
 
@@ -16,9 +25,17 @@ public final class SendGrid extends RootResource implements Closeable {
     public static final String USER_AGENT = "revinate-sendgrid/" + VERSION + ";java";
     public static final String LIVE_URL = "https://api.sendgrid.com";
     public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_ON_BEHALF_OF_CACHE_SIZE = 100;
+
+    private final Map<String, RootResource> onBehalfOfCache;
 
     public SendGrid(String baseUrl, SendGridHttpClient client, Credential credential) {
+        this(baseUrl, client, credential, DEFAULT_ON_BEHALF_OF_CACHE_SIZE);
+    }
+
+    public SendGrid(String baseUrl, SendGridHttpClient client, Credential credential, int onBehalfOfCacheSize) {
         super(baseUrl, client, credential);
+        this.onBehalfOfCache = new LruCache<String, RootResource>(onBehalfOfCacheSize);
     }
 
     @Override
@@ -27,8 +44,15 @@ public final class SendGrid extends RootResource implements Closeable {
     }
 
     public RootResource onBehalfOf(String username) {
-        OnBehalfOfCredential onBehalfOfCredential = new OnBehalfOfCredential(credential, username);
-        return new RootResource(baseUrl, client, onBehalfOfCredential);
+        synchronized (onBehalfOfCache) {
+            RootResource resource = onBehalfOfCache.get(username);
+            if (resource == null) {
+                OnBehalfOfCredential onBehalfOfCredential = new OnBehalfOfCredential(credential, username);
+                resource = new RootResource(baseUrl, client, onBehalfOfCredential);
+                onBehalfOfCache.put(username, resource);
+            }
+            return resource;
+        }
     }
 
     public RootResource onBehalfOf(Credential credentialOverride) {
@@ -51,7 +75,15 @@ public final class SendGrid extends RootResource implements Closeable {
 
         private String baseUrl = LIVE_URL;
         private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private int onBehalfOfCacheSize = DEFAULT_ON_BEHALF_OF_CACHE_SIZE;
         private CloseableHttpClient httpClient;
+        private HttpTransport transport;
+        private CloseableHttpAsyncClient asyncHttpClient;
+        private RetryPolicy retryPolicy;
+        private RateLimiter rateLimiter;
+        private CircuitBreaker circuitBreaker;
+        private RequestHedger requestHedger;
+        private CompressionPolicy compressionPolicy;
         private SendGridHttpClient client;
         private final Credential credential;
 
@@ -82,21 +114,71 @@ public final class SendGrid extends RootResource implements Closeable {
             return this;
         }
 
+        /**
+         * Number of subusers whose {@link SendGrid#onBehalfOf(String)} resources are kept, 0 for none.
+         */
+        public Builder setOnBehalfOfCacheSize(int onBehalfOfCacheSize) {
+            this.onBehalfOfCacheSize = onBehalfOfCacheSize;
+            return this;
+        }
+
         public Builder setHttpClient(CloseableHttpClient httpClient) {
             this.httpClient = httpClient;
             return this;
         }
 
+        public Builder setTransport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder setAsyncHttpClient(CloseableHttpAsyncClient asyncHttpClient) {
+            this.asyncHttpClient = asyncHttpClient;
+            return this;
+        }
+
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        public Builder setCircuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public Builder setRequestHedger(RequestHedger requestHedger) {
+            this.requestHedger = requestHedger;
+            return this;
+        }
+
+        public Builder setCompressionPolicy(CompressionPolicy compressionPolicy) {
+            this.compressionPolicy = compressionPolicy;
+            return this;
+        }
+
         public SendGrid build() {
             SendGridHttpClient finalClient = client;
             if (finalClient == null) {
-                if (httpClient != null) {
-                    finalClient = new SendGridHttpClient(httpClient);
-                } else {
-                    finalClient = new SendGridHttpClient(USER_AGENT, maxConnections);
-                }
+                finalClient = SendGridHttpClient.create()
+                        .setUserAgent(USER_AGENT)
+                        .setMaxConnections(maxConnections)
+                        .setHttpClient(httpClient)
+                        .setTransport(transport)
+                        .setAsyncHttpClient(asyncHttpClient)
+                        .setRetryPolicy(retryPolicy)
+                        .setRateLimiter(rateLimiter)
+                        .setCircuitBreaker(circuitBreaker)
+                        .setRequestHedger(requestHedger)
+                        .setCompressionPolicy(compressionPolicy)
+                        .build();
             }
-            return new SendGrid(baseUrl, finalClient, credential);
+            return new SendGrid(baseUrl, finalClient, credential, onBehalfOfCacheSize);
         }
     }
 }
@@ -0,0 +1,15 @@
+package com.revinate.sendgrid.exception;
+
+public class CircuitBreakerOpenException extends ApiConnectionException {
+
+    private final String endpoint;
+
+    public CircuitBreakerOpenException(String endpoint) {
+        super("Circuit breaker is open for " + endpoint);
+        this.endpoint = endpoint;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+}
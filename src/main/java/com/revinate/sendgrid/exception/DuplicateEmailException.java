@@ -0,0 +1,15 @@
+package com.revinate.sendgrid.exception;
+
+public class DuplicateEmailException extends InvalidRequestException {
+
+    private final String idempotencyKey;
+
+    public DuplicateEmailException(String idempotencyKey) {
+        super("Email with idempotency key " + idempotencyKey + " was already sent");
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,21 @@
+package com.revinate.sendgrid.exception;
+
+import com.revinate.sendgrid.model.ApiError;
+
+import java.util.Collections;
+
+public class RateLimitExceededException extends ApiException {
+
+    public static final int STATUS_CODE = 429;
+
+    private final long retryAfterMillis;
+
+    public RateLimitExceededException(String message, long retryAfterMillis) {
+        super(message, Collections.<ApiError>emptyList(), STATUS_CODE);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
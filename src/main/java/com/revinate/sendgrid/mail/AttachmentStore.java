@@ -0,0 +1,345 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.model.Attachment;
+import com.revinate.sendgrid.util.LruCache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded store of attachment content shared across emails, keyed by the SHA-256 hash of the
+ * content. Content that is added more than once is kept once, and the returned
+ * {@link StoredAttachment} handles all write from the same buffer, on the heap or, with
+ * {@link Builder#setDirect}, off-heap.
+ * <p>
+ * When the content held exceeds {@code maxBytes}, the least recently used entries are evicted.
+ * Handles to evicted content stay valid, since they reference the buffer directly; the memory is
+ * reclaimed once they are gone. Content larger than {@code maxBytes} is never kept.
+ * <p>
+ * Files are additionally indexed by path, so that a file whose length and modification time have
+ * not changed is not read again while its content is in the store. Streams and files are hashed
+ * as they are read, and the array they are read into is kept as is on the heap.
+ */
+public class AttachmentStore {
+
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long maxBytes;
+    private final boolean direct;
+    private final LinkedHashMap<String, StoredAttachment> entries =
+            new LinkedHashMap<String, StoredAttachment>(16, 0.75f, true);
+    private final Map<String, FileKey> files;
+
+    private long residentBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private AttachmentStore(Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        this.direct = builder.direct;
+        this.files = new LruCache<String, FileKey>(builder.maxFiles);
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns a handle to the given content, storing a copy of it unless the same content is
+     * already stored.
+     */
+    public StoredAttachment put(byte[] content) {
+        MessageDigest digest = newDigest();
+        digest.update(content);
+        return put(toHex(digest.digest()), content, false);
+    }
+
+    /**
+     * Reads the stream to its end and closes it, then behaves as {@link #put(byte[])}.
+     */
+    public StoredAttachment put(InputStream content) throws IOException {
+        return put(content, -1);
+    }
+
+    /**
+     * Returns a handle to the content of the file, reading it only if it is not in the store or
+     * has changed since it was last read.
+     */
+    public StoredAttachment put(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        synchronized (this) {
+            FileKey fileKey = files.get(path);
+            if (fileKey != null && fileKey.length == length && fileKey.lastModified == lastModified) {
+                StoredAttachment attachment = entries.get(fileKey.key);
+                if (attachment != null) {
+                    hitCount++;
+                    return attachment;
+                }
+            }
+        }
+
+        StoredAttachment attachment = put(new FileInputStream(file), length);
+        synchronized (this) {
+            files.put(path, new FileKey(attachment.getKey(), length, lastModified));
+        }
+        return attachment;
+    }
+
+    /**
+     * Returns the handle to the content with the given key, or null if it is not in the store.
+     */
+    public synchronized StoredAttachment get(String key) {
+        StoredAttachment attachment = entries.get(key);
+        if (attachment == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return attachment;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        files.clear();
+        residentBytes = 0;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private StoredAttachment put(InputStream content, long length) throws IOException {
+        try {
+            DigestInputStream in = new DigestInputStream(content, newDigest());
+            byte[] bytes = toByteArray(in, length);
+            return put(toHex(in.getMessageDigest().digest()), bytes, true);
+        } finally {
+            content.close();
+        }
+    }
+
+    private StoredAttachment put(String key, byte[] content, boolean owned) {
+        synchronized (this) {
+            StoredAttachment attachment = entries.get(key);
+            if (attachment != null) {
+                hitCount++;
+                return attachment;
+            }
+            missCount++;
+        }
+
+        StoredAttachment attachment = new StoredAttachment(key, toBuffer(content, owned));
+        if (content.length > maxBytes) {
+            return attachment;
+        }
+
+        synchronized (this) {
+            StoredAttachment existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            entries.put(key, attachment);
+            residentBytes += content.length;
+            evict();
+        }
+        return attachment;
+    }
+
+    private void evict() {
+        Iterator<StoredAttachment> iterator = entries.values().iterator();
+        while (residentBytes > maxBytes && iterator.hasNext()) {
+            residentBytes -= iterator.next().getContentLength();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private ByteBuffer toBuffer(byte[] content, boolean owned) {
+        if (!direct) {
+            return ByteBuffer.wrap(owned ? content : content.clone());
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Reads the stream into an array of the expected length, if known, without copying it again
+     * unless the stream turns out shorter or longer.
+     */
+    private static byte[] toByteArray(InputStream in, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (length >= 0 && length < Integer.MAX_VALUE) {
+            byte[] content = new byte[(int) length];
+            int offset = 0;
+            int count;
+            while (offset < content.length && (count = in.read(content, offset, content.length - offset)) != -1) {
+                offset += count;
+            }
+            if (offset < content.length) {
+                return Arrays.copyOf(content, offset);
+            }
+            int next = in.read();
+            if (next == -1) {
+                return content;
+            }
+            // the file grew since its length was read
+            out.write(content);
+            out.write(next);
+        }
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Handle to content held by an {@link AttachmentStore}. It can be attached to any number of
+     * emails and written any number of times.
+     */
+    public static class StoredAttachment extends Attachment {
+
+        private final String key;
+        private final Attachment content;
+        private final long length;
+
+        StoredAttachment(String key, ByteBuffer buffer) {
+            this.key = key;
+            this.content = Attachment.fromBuffer(buffer);
+            this.length = buffer.remaining();
+        }
+
+        /**
+         * Returns the hex-encoded SHA-256 hash of the content.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return content.openStream();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            content.writeTo(out);
+        }
+    }
+
+    public static class Builder {
+
+        private long maxBytes = DEFAULT_MAX_BYTES;
+        private int maxFiles = DEFAULT_MAX_FILES;
+        private boolean direct;
+
+        public Builder setMaxBytes(long maxBytes) {
+            if (maxBytes < 0) {
+                throw new IllegalArgumentException("maxBytes must not be negative");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Number of file paths remembered by {@link AttachmentStore#put(File)}.
+         */
+        public Builder setMaxFiles(int maxFiles) {
+            this.maxFiles = maxFiles;
+            return this;
+        }
+
+        /**
+         * Keeps content in direct buffers, outside of the Java heap.
+         */
+        public Builder setDirect(boolean direct) {
+            this.direct = direct;
+            return this;
+        }
+
+        public AttachmentStore build() {
+            return new AttachmentStore(this);
+        }
+    }
+
+    private static class FileKey {
+
+        final String key;
+        final long length;
+        final long lastModified;
+
+        FileKey(String key, long length, long lastModified) {
+            this.key = key;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.CircuitBreakerOpenException;
+import com.revinate.sendgrid.exception.DuplicateEmailException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.exception.RateLimitExceededException;
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+
+/**
+ * Sends each email at most once per idempotency key within the time a {@link DeduplicationStore}
+ * remembers keys.
+ * <p>
+ * The key is read from the {@code idempotency_key} unique argument of the email, set with
+ * {@link #setIdempotencyKey}, so that it also shows up in the events SendGrid reports for the
+ * email. An email whose key was already sent fails with {@link DuplicateEmailException} without
+ * reaching the underlying sender; emails without a key are always sent. The key is recorded before
+ * the email is sent, so that concurrent duplicates are caught.
+ * <p>
+ * The key is forgotten, so that the email can be sent again, only when the send fails in a way that
+ * shows SendGrid did not accept it: an {@link InvalidRequestException}, a request held back by the
+ * circuit breaker or rate limiter, or a connection that could not be made. Any other failure, such as
+ * a read timeout or a server error, may come after SendGrid queued the email, so the key is kept and
+ * a retry with the same key fails with {@link DuplicateEmailException}.
+ */
+public class DeduplicatingSender implements MailSender {
+
+    public static final String DEFAULT_KEY_ARG = "idempotency_key";
+
+    private final MailSender sender;
+    private final DeduplicationStore store;
+    private final String keyArg;
+
+    private DeduplicatingSender(Builder builder) {
+        this.sender = builder.sender;
+        this.store = builder.store;
+        this.keyArg = builder.keyArg;
+    }
+
+    public static Builder create(MailSender sender, DeduplicationStore store) {
+        return new Builder(sender, store);
+    }
+
+    /**
+     * Sets the idempotency key of the email under the default unique argument.
+     */
+    public static Email setIdempotencyKey(Email email, String key) {
+        return email.setUniqueArg(DEFAULT_KEY_ARG, key);
+    }
+
+    public DeduplicationStore getStore() {
+        return store;
+    }
+
+    public String getKeyArg() {
+        return keyArg;
+    }
+
+    @Override
+    public Response send(Email email) throws SendGridException {
+        String key = email.getUniqueArg(keyArg);
+        if (key == null) {
+            return sender.send(email);
+        }
+
+        try {
+            if (!store.add(key)) {
+                throw new DuplicateEmailException(key);
+            }
+        } catch (IOException e) {
+            throw new ApiConnectionException("Unable to record idempotency key " + key, e);
+        }
+
+        try {
+            return sender.send(email);
+        } catch (SendGridException e) {
+            if (isRejected(e)) {
+                store.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isRejected(SendGridException e) {
+        if (e instanceof InvalidRequestException || e instanceof CircuitBreakerOpenException
+                || e instanceof RateLimitExceededException) {
+            return true;
+        }
+        if (!(e instanceof ApiConnectionException)) {
+            return false;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException
+                    || cause instanceof NoRouteToHostException || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class Builder {
+
+        private final MailSender sender;
+        private final DeduplicationStore store;
+        private String keyArg = DEFAULT_KEY_ARG;
+
+        Builder(MailSender sender, DeduplicationStore store) {
+            if (sender == null) {
+                throw new IllegalArgumentException("Sender may not be null");
+            }
+            if (store == null) {
+                throw new IllegalArgumentException("Store may not be null");
+            }
+            this.sender = sender;
+            this.store = store;
+        }
+
+        /**
+         * Unique argument the idempotency key is read from.
+         */
+        public Builder setKeyArg(String keyArg) {
+            this.keyArg = keyArg;
+            return this;
+        }
+
+        public DeduplicatingSender build() {
+            return new DeduplicatingSender(this);
+        }
+    }
+}
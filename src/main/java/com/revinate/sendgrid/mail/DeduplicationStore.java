@@ -0,0 +1,431 @@
+package com.revinate.sendgrid.mail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Time-bounded set of idempotency keys, remembering each key for at least {@code ttlMillis} after
+ * it was added.
+ * <p>
+ * Keys are kept as 64-bit hashes in generations of open-addressed {@code long} tables, so each key
+ * costs about 11 to 16 bytes whatever its length, and memory is bounded by {@code generations}
+ * tables of {@code keysPerGeneration} keys. A new generation is started every
+ * {@code ttlMillis / (generations - 1)}, or earlier when the current one is full, and generations
+ * are dropped once all their keys are older than {@code ttlMillis}. A new key shares the hash of
+ * one of ten million keys held, and is taken for a duplicate, with a probability of about one in
+ * two trillion.
+ * <p>
+ * When more keys arrive within {@code ttlMillis} than the generations can hold, the oldest
+ * generation is dropped early and its keys are forgotten, unless a spill directory is set: the
+ * generation is then written to a sorted file and searched through a memory mapping until it
+ * expires. Spill files are deleted when they expire or the store is cleared; the store is not
+ * kept across restarts.
+ */
+public class DeduplicationStore {
+
+    public static final long DEFAULT_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+    public static final int DEFAULT_GENERATIONS = 4;
+    public static final int DEFAULT_KEYS_PER_GENERATION = 1 << 20;
+
+    private final long ttlMillis;
+    private final long generationMillis;
+    private final int generations;
+    private final int keysPerGeneration;
+    private final File spillDirectory;
+
+    // newest first
+    private final LinkedList<Generation> tables = new LinkedList<Generation>();
+    private final LinkedList<SpilledGeneration> spills = new LinkedList<SpilledGeneration>();
+    private long spillSequence;
+
+    private long duplicateCount;
+    private long evictedCount;
+
+    private DeduplicationStore(Builder builder) {
+        this.ttlMillis = builder.ttlMillis;
+        this.generations = builder.generations;
+        // one generation more than needed to cover the ttl would be dropped while still live
+        this.generationMillis = Math.max(1, ttlMillis / (generations - 1));
+        this.keysPerGeneration = builder.keysPerGeneration;
+        this.spillDirectory = builder.spillDirectory;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Adds the key, returning false if it was already added within {@code ttlMillis}.
+     */
+    public boolean add(String key) throws IOException {
+        return add(hash(key), System.currentTimeMillis());
+    }
+
+    public boolean contains(String key) {
+        return contains(hash(key), System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets the key, so that it can be added again. Keys that were spilled are not forgotten.
+     */
+    public synchronized boolean remove(String key) {
+        long hash = hash(key);
+        for (Generation generation : tables) {
+            if (generation.remove(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of keys held in memory.
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        for (Generation generation : tables) {
+            size += generation.size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of keys held in spill files.
+     */
+    public synchronized long getSpilledSize() {
+        long size = 0;
+        for (SpilledGeneration spill : spills) {
+            size += spill.size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the heap taken by the key tables.
+     */
+    public synchronized long getMemoryBytes() {
+        long bytes = 0;
+        for (Generation generation : tables) {
+            bytes += generation.slots.length * 8L;
+        }
+        return bytes;
+    }
+
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Returns the number of keys forgotten before {@code ttlMillis} because the generations were
+     * full and no spill directory is set.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Forgets all keys and deletes the spill files.
+     */
+    public synchronized void clear() {
+        tables.clear();
+        for (SpilledGeneration spill : spills) {
+            spill.delete();
+        }
+        spills.clear();
+    }
+
+    synchronized boolean add(long hash, long now) throws IOException {
+        expire(now);
+        if (containsHash(hash)) {
+            duplicateCount++;
+            return false;
+        }
+        Generation current = tables.isEmpty() ? null : tables.getFirst();
+        if (current == null || current.isFull() || now - current.start >= generationMillis) {
+            current = rotate(now);
+        }
+        current.add(hash);
+        current.end = now;
+        return true;
+    }
+
+    synchronized boolean contains(long hash, long now) {
+        expire(now);
+        return containsHash(hash);
+    }
+
+    private boolean containsHash(long hash) {
+        for (Generation generation : tables) {
+            if (generation.contains(hash)) {
+                return true;
+            }
+        }
+        for (SpilledGeneration spill : spills) {
+            if (spill.contains(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Generation rotate(long now) throws IOException {
+        Generation generation = new Generation(keysPerGeneration, now);
+        tables.addFirst(generation);
+        if (tables.size() > generations) {
+            Generation oldest = tables.removeLast();
+            if (spillDirectory != null) {
+                spills.addFirst(spill(oldest));
+            } else {
+                evictedCount += oldest.size;
+            }
+        }
+        return generation;
+    }
+
+    private void expire(long now) {
+        while (!tables.isEmpty() && now - tables.getLast().end >= ttlMillis) {
+            tables.removeLast();
+        }
+        while (!spills.isEmpty() && now - spills.getLast().end >= ttlMillis) {
+            spills.removeLast().delete();
+        }
+    }
+
+    private SpilledGeneration spill(Generation generation) throws IOException {
+        long[] keys = generation.toSortedArray();
+        if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            throw new IOException("Unable to create spill directory " + spillDirectory);
+        }
+        File file = new File(spillDirectory, String.format("dedup-%d-%020d.idx",
+                System.identityHashCode(this), spillSequence++));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(8, Math.min(keys.length, 8192) * 8));
+            int index = 0;
+            while (index < keys.length) {
+                buffer.clear();
+                while (index < keys.length && buffer.remaining() >= 8) {
+                    buffer.putLong(keys[index++]);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            LongBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, keys.length * 8L).asLongBuffer();
+            return new SpilledGeneration(file, mapped, keys.length, generation.end);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns a well-mixed 64-bit hash of the key, never 0.
+     */
+    static long hash(String key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key may not be null");
+        }
+        // FNV-1a over the characters, finished with the MurmurHash3 mixer
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private static class Generation {
+
+        final long[] slots;
+        final int mask;
+        final int maxSize;
+        final long start;
+        long end;
+        int size;
+
+        Generation(int keys, long start) {
+            int capacity = Integer.highestOneBit(Math.max(2, (int) Math.min(1 << 30, keys * 4L / 3)) - 1) << 1;
+            this.slots = new long[capacity];
+            this.mask = capacity - 1;
+            this.maxSize = Math.max(1, (int) (capacity * 3L / 4));
+            this.start = start;
+            this.end = start;
+        }
+
+        boolean isFull() {
+            return size >= maxSize;
+        }
+
+        boolean contains(long hash) {
+            int i = (int) hash & mask;
+            long slot;
+            while ((slot = slots[i]) != 0) {
+                if (slot == hash) {
+                    return true;
+                }
+                i = (i + 1) & mask;
+            }
+            return false;
+        }
+
+        void add(long hash) {
+            int i = (int) hash & mask;
+            while (slots[i] != 0) {
+                if (slots[i] == hash) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            slots[i] = hash;
+            size++;
+        }
+
+        boolean remove(long hash) {
+            int i = (int) hash & mask;
+            while (slots[i] != hash) {
+                if (slots[i] == 0) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift the following entries back, so that no lookup stops at the hole
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                long slot = slots[j];
+                if (slot == 0) {
+                    break;
+                }
+                int home = (int) slot & mask;
+                if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                    slots[i] = slot;
+                    i = j;
+                }
+            }
+            slots[i] = 0;
+            size--;
+            return true;
+        }
+
+        long[] toSortedArray() {
+            long[] keys = new long[size];
+            int index = 0;
+            for (long slot : slots) {
+                if (slot != 0) {
+                    keys[index++] = slot;
+                }
+            }
+            Arrays.sort(keys);
+            return keys;
+        }
+    }
+
+    private static class SpilledGeneration {
+
+        final File file;
+        final LongBuffer keys;
+        final int size;
+        final long end;
+
+        SpilledGeneration(File file, LongBuffer keys, int size, long end) {
+            this.file = file;
+            this.keys = keys;
+            this.size = size;
+            this.end = end;
+        }
+
+        boolean contains(long hash) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long key = keys.get(middle);
+                if (key < hash) {
+                    low = middle + 1;
+                } else if (key > hash) {
+                    high = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // the mapping itself is released when the buffer is collected
+        void delete() {
+            file.delete();
+        }
+    }
+
+    public static class Builder {
+
+        private long ttlMillis = DEFAULT_TTL_MILLIS;
+        private int generations = DEFAULT_GENERATIONS;
+        private int keysPerGeneration = DEFAULT_KEYS_PER_GENERATION;
+        private File spillDirectory;
+
+        /**
+         * Time keys are remembered for, 24 hours by default.
+         */
+        public Builder setTtlMillis(long ttlMillis) {
+            if (ttlMillis < 1) {
+                throw new IllegalArgumentException("ttlMillis must be at least 1");
+            }
+            this.ttlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Number of generations held in memory. More generations expire keys closer to
+         * {@code ttlMillis}, at the cost of more tables to search.
+         */
+        public Builder setGenerations(int generations) {
+            if (generations < 2) {
+                throw new IllegalArgumentException("generations must be at least 2");
+            }
+            this.generations = generations;
+            return this;
+        }
+
+        /**
+         * Number of keys a generation holds. The table of a generation takes 8 bytes per slot,
+         * with a quarter to a half of the slots left empty.
+         */
+        public Builder setKeysPerGeneration(int keysPerGeneration) {
+            if (keysPerGeneration < 1) {
+                throw new IllegalArgumentException("keysPerGeneration must be at least 1");
+            }
+            this.keysPerGeneration = keysPerGeneration;
+            return this;
+        }
+
+        /**
+         * Directory generations are spilled to when they are dropped early.
+         */
+        public Builder setSpillDirectory(File spillDirectory) {
+            this.spillDirectory = spillDirectory;
+            return this;
+        }
+
+        public DeduplicationStore build() {
+            return new DeduplicationStore(this);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.model.Attachment;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.util.JsonUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Binary form of an {@link Email} as kept in an {@link Outbox} journal.
+ * <p>
+ * The encoding starts with the key of every blob attachment of the email, so that they can be
+ * listed without decoding the email, followed by the fields of the email. Attachments are
+ * referenced by blob key or by file path when possible, and inlined otherwise. Filters, whose
+ * values can be of any type, are kept as JSON.
+ */
+final class EmailCodec {
+
+    static final byte VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte INLINE = 0;
+    private static final byte FILE = 1;
+    private static final byte BLOB = 2;
+
+    /**
+     * Keeps attachment content outside of the journal.
+     */
+    interface Blobs {
+
+        /**
+         * Returns the key the content is kept under, or null if it should be inlined.
+         */
+        String keyOf(Attachment attachment) throws IOException;
+
+        Attachment resolve(String key) throws IOException;
+    }
+
+    private EmailCodec() {}
+
+    static byte[] encode(Email email, Blobs blobs) throws IOException {
+        Map<String, Attachment> attachments = email.getAttachmentSourcesView();
+        Map<String, String> keys = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, Attachment> entry : attachments.entrySet()) {
+            Attachment attachment = entry.getValue();
+            if (attachment == null) {
+                throw new IllegalArgumentException("Attachment " + entry.getKey() + " has no content");
+            }
+            if (!attachment.isRepeatable()) {
+                throw new IllegalArgumentException("Attachment " + entry.getKey()
+                        + " is read from a stream and cannot be journaled");
+            }
+            if (attachment.getFile() == null) {
+                String key = blobs.keyOf(attachment);
+                if (key != null) {
+                    keys.put(entry.getKey(), key);
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeStrings(out, new ArrayList<String>(keys.values()));
+        out.writeByte(VERSION);
+
+        writeString(out, email.getFrom());
+        writeString(out, email.getFromName());
+        writeString(out, email.getReplyTo());
+        writeString(out, email.getSubject());
+        writeString(out, email.getText());
+        writeString(out, email.getHtml());
+        writeStrings(out, email.getTosView());
+        writeStrings(out, email.getToNamesView());
+        writeStrings(out, email.getCcsView());
+        writeStrings(out, email.getCcNamesView());
+        writeStrings(out, email.getBccsView());
+        writeStrings(out, email.getBccNamesView());
+        writeMap(out, email.getContentIdsView());
+        writeMap(out, email.getHeadersView());
+
+        out.writeInt(attachments.size());
+        for (Map.Entry<String, Attachment> entry : attachments.entrySet()) {
+            Attachment attachment = entry.getValue();
+            writeString(out, entry.getKey());
+            String key = keys.get(entry.getKey());
+            if (key != null) {
+                out.writeByte(BLOB);
+                writeString(out, key);
+            } else if (attachment.getFile() != null) {
+                out.writeByte(FILE);
+                writeString(out, attachment.getFile().getPath());
+            } else {
+                out.writeByte(INLINE);
+                ByteArrayOutputStream content = new ByteArrayOutputStream(
+                        (int) Math.max(32, Math.min(Integer.MAX_VALUE, attachment.getContentLength())));
+                attachment.writeTo(content);
+                out.writeInt(content.size());
+                content.writeTo(out);
+            }
+        }
+
+        writeInteger(out, email.getAsmGroupId());
+        writeInteger(out, email.getSendAt());
+        writeString(out, email.getIpPool());
+        writeStrings(out, email.getSmtpApiTosView());
+        writeStrings(out, email.getCategories());
+        writeMap(out, email.getUniqueArgs());
+        writeMap(out, email.getSections());
+        Map<String, List<String>> substitutions = email.getSubstitutions();
+        if (substitutions == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(substitutions.size());
+            for (Map.Entry<String, List<String>> entry : substitutions.entrySet()) {
+                writeString(out, entry.getKey());
+                writeStrings(out, entry.getValue());
+            }
+        }
+        Map<String, Map<String, Object>> filters = email.getFilters();
+        writeString(out, filters == null || filters.isEmpty() ? null : JsonUtils.toJson(filters));
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the keys of the blobs referenced by the encoded email.
+     */
+    static List<String> readBlobKeys(ByteBuffer buffer) throws IOException {
+        List<String> keys = readStrings(buffer.duplicate());
+        return keys == null ? Collections.<String>emptyList() : keys;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Email decode(ByteBuffer buffer, Blobs blobs) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            readStrings(in);
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported email encoding version " + version);
+            }
+
+            Email email = new Email()
+                    .setFrom(readString(in))
+                    .setFromName(readString(in))
+                    .setReplyTo(readString(in))
+                    .setSubject(readString(in))
+                    .setText(readString(in))
+                    .setHtml(readString(in));
+            List<String> strings;
+            if ((strings = readStrings(in)) != null) {
+                email.setTos(strings);
+            }
+            if ((strings = readStrings(in)) != null) {
+                email.setToNames(strings);
+            }
+            if ((strings = readStrings(in)) != null) {
+                email.setCcs(strings);
+            }
+            if ((strings = readStrings(in)) != null) {
+                email.setCcNames(strings);
+            }
+            if ((strings = readStrings(in)) != null) {
+                email.setBccs(strings);
+            }
+            if ((strings = readStrings(in)) != null) {
+                email.setBccNames(strings);
+            }
+            Map<String, String> map;
+            if ((map = readMap(in)) != null) {
+                email.setContentIds(map);
+            }
+            if ((map = readMap(in)) != null) {
+                email.setHeaders(map);
+            }
+
+            int attachmentCount = in.getInt();
+            for (int i = 0; i < attachmentCount; i++) {
+                String name = readString(in);
+                byte kind = in.get();
+                if (kind == BLOB) {
+                    email.setAttachment(name, blobs.resolve(readString(in)));
+                } else if (kind == FILE) {
+                    email.setAttachment(name, Attachment.fromFile(new File(readString(in))));
+                } else if (kind == INLINE) {
+                    byte[] content = new byte[in.getInt()];
+                    in.get(content);
+                    email.setAttachment(name, content);
+                } else {
+                    throw new IOException("Unknown attachment kind " + kind);
+                }
+            }
+
+            email.setAsmGroupId(readInteger(in));
+            email.setSendAt(readInteger(in));
+            email.setIpPool(readString(in));
+            if ((strings = readStrings(in)) != null && !strings.isEmpty()) {
+                email.setSmtpApiTos(strings);
+            }
+            if ((strings = readStrings(in)) != null && !strings.isEmpty()) {
+                email.setCategories(strings);
+            }
+            if ((map = readMap(in)) != null && !map.isEmpty()) {
+                email.setUniqueArgs(map);
+            }
+            if ((map = readMap(in)) != null && !map.isEmpty()) {
+                email.setSections(map);
+            }
+            int substitutionCount = in.getInt();
+            for (int i = 0; i < substitutionCount; i++) {
+                String tag = readString(in);
+                List<String> values = readStrings(in);
+                email.setSubstitution(tag, values == null ? new ArrayList<String>() : values);
+            }
+            String filters = readString(in);
+            if (filters != null) {
+                email.setFilters(JsonUtils.fromJson(filters, Map.class));
+            }
+            return email;
+        } catch (RuntimeException e) {
+            // buffer underflows and bad lengths from a damaged entry
+            throw new IOException("Unable to decode email: " + e, e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, UTF_8);
+        }
+        return value;
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int size = in.getInt();
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<String>(Math.min(size, in.remaining() / 4));
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static Map<String, String> readMap(ByteBuffer in) {
+        int size = in.getInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            values.put(readString(in), readString(in));
+        }
+        return values;
+    }
+
+    private static Integer readInteger(ByteBuffer in) {
+        return in.get() != 0 ? Integer.valueOf(in.getInt()) : null;
+    }
+}
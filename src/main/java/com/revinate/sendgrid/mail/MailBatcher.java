@@ -0,0 +1,435 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.model.Attachment;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.model.SubstitutionTable;
+import com.revinate.sendgrid.util.DaemonThreadFactory;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Folds compatible emails submitted within a short window into a single send, addressing every
+ * recipient through the SMTP API {@code to} list and merging their substitution values.
+ * <p>
+ * Emails are compatible when they are identical except for their recipients and substitution
+ * values: same sender, subject, bodies, headers, categories, unique arguments, sections, filters,
+ * scheduling and IP pool, same substitution tags, and the same attachment instances (attachments
+ * from an {@link AttachmentStore} are shared, and therefore batch). An email takes part in
+ * batching if it either has SMTP API recipients, or a single {@code to} recipient, no
+ * {@code cc}/{@code bcc} recipients, and exactly one substitution value per recipient for every
+ * tag. Other emails are sent on their own.
+ * <p>
+ * A batch is sent when it reaches {@code maxRecipients} or {@code maxDelayMillis} after its first
+ * email was submitted. Every email of a batch receives the response, or the failure, of the
+ * request that carried it, since the API does not report results per recipient.
+ */
+public class MailBatcher implements MailSender, Closeable {
+
+    public static final int DEFAULT_MAX_RECIPIENTS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 50;
+
+    private final MailSender sender;
+    private final int maxRecipients;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    private final Map<BatchKey, Batch> batches = new HashMap<BatchKey, Batch>();
+    private boolean closed;
+
+    private final AtomicLong emailCount = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private MailBatcher(Builder builder) {
+        this.sender = builder.sender;
+        this.maxRecipients = builder.maxRecipients;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("sendgrid-batcher-timer-"));
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownsExecutor = false;
+        } else {
+            this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory("sendgrid-batcher-"));
+            this.ownsExecutor = true;
+        }
+    }
+
+    public static Builder create(MailSender sender) {
+        return new Builder(sender);
+    }
+
+    public int getMaxRecipients() {
+        return maxRecipients;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Returns the number of emails submitted.
+     */
+    public long getEmailCount() {
+        return emailCount.get();
+    }
+
+    /**
+     * Returns the number of sends made to the underlying sender.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Submits the email and waits for the send that carries it.
+     */
+    @Override
+    public Response send(Email email) throws SendGridException {
+        return MailFutures.get(submit(email));
+    }
+
+    public Future<Response> submit(Email email) {
+        return submit(email, null);
+    }
+
+    public Future<Response> submit(Email email, FutureCallback<Response> callback) {
+        BasicFuture<Response> future = new BasicFuture<Response>(callback);
+        emailCount.incrementAndGet();
+
+        List<String[]> recipients = recipientsOf(email);
+        if (recipients == null || recipients.size() >= maxRecipients) {
+            synchronized (this) {
+                if (closed) {
+                    future.failed(new ApiConnectionException("Mail batcher is closed"));
+                    return future;
+                }
+            }
+            Batch batch = new Batch(null);
+            batch.add(email, Collections.<String[]>emptyList(), future);
+            dispatch(batch);
+            return future;
+        }
+
+        BatchKey key = new BatchKey(email);
+        List<Batch> ready = new ArrayList<Batch>(2);
+        synchronized (this) {
+            if (closed) {
+                future.failed(new ApiConnectionException("Mail batcher is closed"));
+                return future;
+            }
+
+            Batch batch = batches.get(key);
+            if (batch != null && batch.recipientCount + recipients.size() > maxRecipients) {
+                ready.add(remove(batch));
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(key);
+                batches.put(key, batch);
+                final Batch scheduled = batch;
+                batch.timer = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(scheduled);
+                    }
+                }, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+            batch.add(email, recipients, future);
+            if (batch.recipientCount >= maxRecipients) {
+                ready.add(remove(batch));
+            }
+        }
+
+        for (Batch batch : ready) {
+            dispatch(batch);
+        }
+        return future;
+    }
+
+    /**
+     * Sends all pending batches now.
+     */
+    public void flush() {
+        List<Batch> ready;
+        synchronized (this) {
+            ready = new ArrayList<Batch>(batches.values());
+            for (Batch batch : ready) {
+                remove(batch);
+            }
+        }
+        for (Batch batch : ready) {
+            dispatch(batch);
+        }
+    }
+
+    /**
+     * Sends all pending batches and stops accepting emails. Sends in progress are completed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        scheduler.shutdownNow();
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (batches.get(batch.key) != batch) {
+                return;
+            }
+            remove(batch);
+        }
+        dispatch(batch);
+    }
+
+    // must hold the lock
+    private Batch remove(Batch batch) {
+        batches.remove(batch.key);
+        if (batch.timer != null) {
+            batch.timer.cancel(false);
+        }
+        return batch;
+    }
+
+    private void dispatch(final Batch batch) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(batch);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            batch.failed(new ApiConnectionException("Mail batcher is closed", e));
+        }
+    }
+
+    private void send(Batch batch) {
+        requestCount.incrementAndGet();
+        try {
+            Email email = batch.emails.size() == 1 ? batch.emails.get(0) : batch.fold();
+            batch.completed(sender.send(email));
+        } catch (Exception e) {
+            batch.failed(e);
+        }
+    }
+
+    /**
+     * Returns the recipients of the email as address and name pairs, or null if it cannot be
+     * batched.
+     */
+    static List<String[]> recipientsOf(Email email) {
+        if (!email.getCcsView().isEmpty() || !email.getBccsView().isEmpty()) {
+            return null;
+        }
+
+        List<String[]> recipients = new ArrayList<String[]>();
+        List<String> smtpApiTos = email.getSmtpApiTosView();
+        if (!smtpApiTos.isEmpty()) {
+            for (String to : smtpApiTos) {
+                recipients.add(new String[] {to, null});
+            }
+        } else {
+            List<String> tos = email.getTosView();
+            List<String> toNames = email.getToNamesView();
+            if (tos.size() != 1 || toNames.size() > 1) {
+                return null;
+            }
+            recipients.add(new String[] {tos.get(0), toNames.isEmpty() ? null : toNames.get(0)});
+        }
+
+        SubstitutionTable table = email.getSubstitutionTable();
+        if (table != null) {
+            if (!table.getTags().isEmpty() && table.getRowCount() != recipients.size()) {
+                return null;
+            }
+        } else {
+            for (List<String> values : email.getSubstitutions().values()) {
+                if (values == null || values.size() != recipients.size()) {
+                    return null;
+                }
+            }
+        }
+        return recipients;
+    }
+
+    private static Set<String> substitutionTags(Email email) {
+        SubstitutionTable table = email.getSubstitutionTable();
+        if (table != null) {
+            return new HashSet<String>(table.getTags());
+        }
+        return email.getSubstitutions().keySet();
+    }
+
+    private static class BatchKey {
+
+        private final List<Object> values;
+        private final int hashCode;
+
+        BatchKey(Email email) {
+            values = Arrays.<Object>asList(email.getFrom(), email.getFromName(), email.getReplyTo(),
+                    email.getSubject(), email.getText(), email.getHtml(), email.getAttachmentSources(),
+                    email.getContentIds(), email.getHeaders(), email.getCategories(), email.getUniqueArgs(),
+                    email.getSections(), email.getFilters(), email.getAsmGroupId(), email.getSendAt(),
+                    email.getIpPool(), substitutionTags(email));
+            hashCode = values.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof BatchKey && values.equals(((BatchKey) o).values));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Batch {
+
+        final BatchKey key;
+        final List<Email> emails = new ArrayList<Email>();
+        final List<List<String[]>> recipients = new ArrayList<List<String[]>>();
+        final List<BasicFuture<Response>> futures = new ArrayList<BasicFuture<Response>>();
+        int recipientCount;
+        ScheduledFuture<?> timer;
+
+        Batch(BatchKey key) {
+            this.key = key;
+        }
+
+        void add(Email email, List<String[]> emailRecipients, BasicFuture<Response> future) {
+            emails.add(email);
+            recipients.add(emailRecipients);
+            futures.add(future);
+            recipientCount += emailRecipients.size();
+        }
+
+        Email fold() {
+            Email first = emails.get(0);
+            Email email = new Email(first.getRecipientStorage())
+                    .setFrom(first.getFrom())
+                    .setFromName(first.getFromName())
+                    .setReplyTo(first.getReplyTo())
+                    .setSubject(first.getSubject())
+                    .setText(first.getText())
+                    .setHtml(first.getHtml())
+                    .setContentIds(first.getContentIds())
+                    .setHeaders(first.getHeaders())
+                    .setCategories(first.getCategories())
+                    .setUniqueArgs(first.getUniqueArgs())
+                    .setSections(first.getSections())
+                    .setAsmGroupId(first.getAsmGroupId())
+                    .setSendAt(first.getSendAt())
+                    .setIpPool(first.getIpPool());
+            if (first.getFilters() != null) {
+                email.setFilters(new HashMap<String, Map<String, Object>>(first.getFilters()));
+            }
+            for (Map.Entry<String, Attachment> entry : first.getAttachmentSourcesView().entrySet()) {
+                email.setAttachment(entry.getKey(), entry.getValue());
+            }
+
+            // one row per recipient keeps the values aligned with the to list
+            List<String> tags = new ArrayList<String>(substitutionTags(first));
+            SubstitutionTable table = new SubstitutionTable(tags);
+            List<List<String>> columns = new ArrayList<List<String>>(tags.size());
+            String[] row = new String[tags.size()];
+            for (int i = 0; i < emails.size(); i++) {
+                for (String[] recipient : recipients.get(i)) {
+                    if (recipient[1] == null) {
+                        email.addSmtpApiTo(recipient[0]);
+                    } else {
+                        email.addSmtpApiTo(recipient[0], recipient[1]);
+                    }
+                }
+                columns.clear();
+                for (String tag : tags) {
+                    columns.add(emails.get(i).getSubstitution(tag));
+                }
+                for (int j = 0; j < recipients.get(i).size(); j++) {
+                    for (int k = 0; k < row.length; k++) {
+                        row[k] = columns.get(k).get(j);
+                    }
+                    table.addRow(row);
+                }
+            }
+            if (!tags.isEmpty()) {
+                email.setSubstitutionTable(table);
+            }
+            return email;
+        }
+
+        void completed(Response response) {
+            for (BasicFuture<Response> future : futures) {
+                future.completed(response);
+            }
+        }
+
+        void failed(Exception e) {
+            for (BasicFuture<Response> future : futures) {
+                future.failed(e);
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final MailSender sender;
+        private int maxRecipients = DEFAULT_MAX_RECIPIENTS;
+        private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+        private ExecutorService executor;
+
+        Builder(MailSender sender) {
+            if (sender == null) {
+                throw new IllegalArgumentException("Sender may not be null");
+            }
+            this.sender = sender;
+        }
+
+        /**
+         * Maximum number of recipients in one send, 1000 by default as recommended for the SMTP
+         * API {@code to} list.
+         */
+        public Builder setMaxRecipients(int maxRecipients) {
+            if (maxRecipients < 1) {
+                throw new IllegalArgumentException("maxRecipients must be at least 1");
+            }
+            this.maxRecipients = maxRecipients;
+            return this;
+        }
+
+        public Builder setMaxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Executor the sends are made on. By default, a cached pool of daemon threads that is shut
+         * down with the batcher.
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public MailBatcher build() {
+            return new MailBatcher(this);
+        }
+    }
+}
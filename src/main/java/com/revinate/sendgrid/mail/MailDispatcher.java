@@ -0,0 +1,302 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.SendGrid;
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.net.SendGridHttpClient;
+import com.revinate.sendgrid.resource.MailResource;
+import com.revinate.sendgrid.util.DaemonThreadFactory;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.io.Closeable;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends emails on a fixed pool of worker threads fed by a bounded queue.
+ * <p>
+ * At most {@code concurrency} emails are sent at once and at most {@code queueCapacity} more wait
+ * for a worker. When the dispatcher is full, {@link #submit(Email)} blocks until there is room,
+ * {@link #submit(Email, long, TimeUnit)} blocks for at most the given time, and
+ * {@link #trySubmit(Email)} returns immediately; the latter two return {@code null} if the email
+ * was not accepted. Dispatchers created for a {@link MailResource} use as many workers as its
+ * client has connections, so that workers do not wait for connections.
+ * <p>
+ * The queue depth, the time emails wait for a worker and the number of emails sent can be read at
+ * any time; sampling the completed count gives the throughput.
+ */
+public class MailDispatcher implements MailSender, Closeable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private final MailSender sender;
+    private final int concurrency;
+    private final int queueCapacity;
+    private final Semaphore permits;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong startedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private MailDispatcher(Builder builder) {
+        this.sender = builder.sender;
+        this.concurrency = builder.concurrency;
+        this.queueCapacity = builder.queueCapacity;
+        this.permits = new Semaphore(concurrency + queueCapacity);
+        // the permits bound the queue, so that submissions never see a rejection from the executor
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("sendgrid-dispatcher-"));
+    }
+
+    public static Builder create(MailSender sender) {
+        return new Builder(sender);
+    }
+
+    /**
+     * Creates a dispatcher sending through the resource, with one worker per connection of its
+     * client.
+     */
+    public static Builder create(MailResource resource) {
+        Builder builder = new Builder(resource);
+        SendGridHttpClient client = resource.getClient();
+        if (client != null) {
+            builder.setConcurrency(client.getMaxConnections());
+        }
+        return builder;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the number of emails waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of emails being sent.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of emails accepted.
+     */
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    /**
+     * Returns the number of emails not accepted because the dispatcher was full or closed.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of emails sent successfully.
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * Returns the number of emails whose send failed.
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the mean time emails waited for a worker.
+     */
+    public double getMeanWaitMillis() {
+        long started = startedCount.get();
+        return started == 0 ? 0 : totalWaitNanos.get() / (started * 1e6);
+    }
+
+    /**
+     * Returns the longest time an email waited for a worker.
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * Submits the email, waiting for room if needed, and waits for it to be sent.
+     */
+    @Override
+    public Response send(Email email) throws SendGridException {
+        try {
+            return MailFutures.get(submit(email));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting to submit email", e);
+        }
+    }
+
+    /**
+     * Submits the email, waiting for room if the dispatcher is full.
+     */
+    public Future<Response> submit(Email email) throws InterruptedException {
+        return submit(email, (FutureCallback<Response>) null);
+    }
+
+    public Future<Response> submit(Email email, FutureCallback<Response> callback)
+            throws InterruptedException {
+        permits.acquire();
+        return dispatch(email, callback);
+    }
+
+    /**
+     * Submits the email, waiting at most the given time for room. Returns {@code null} if the
+     * dispatcher stayed full.
+     */
+    public Future<Response> submit(Email email, long timeout, TimeUnit unit) throws InterruptedException {
+        return submit(email, timeout, unit, null);
+    }
+
+    public Future<Response> submit(Email email, long timeout, TimeUnit unit,
+                                   FutureCallback<Response> callback) throws InterruptedException {
+        if (!permits.tryAcquire(timeout, unit)) {
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        return dispatch(email, callback);
+    }
+
+    /**
+     * Submits the email if there is room. Returns {@code null} if the dispatcher is full.
+     */
+    public Future<Response> trySubmit(Email email) {
+        return trySubmit(email, null);
+    }
+
+    public Future<Response> trySubmit(Email email, FutureCallback<Response> callback) {
+        if (!permits.tryAcquire()) {
+            rejectedCount.incrementAndGet();
+            return null;
+        }
+        return dispatch(email, callback);
+    }
+
+    /**
+     * Stops accepting emails. Emails already accepted are still sent.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the emails accepted before {@link #close()} to be sent.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private Future<Response> dispatch(final Email email, FutureCallback<Response> callback) {
+        final BasicFuture<Response> future = new BasicFuture<Response>(callback);
+        final long submittedAt = System.nanoTime();
+        submittedCount.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    recordWait(System.nanoTime() - submittedAt);
+                    send(email, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            submittedCount.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            future.failed(new ApiConnectionException("Mail dispatcher is closed", e));
+        }
+        return future;
+    }
+
+    // the permit is released before the future completes, so that a caller woken by it finds room
+    private void send(Email email, BasicFuture<Response> future) {
+        Response response;
+        try {
+            response = sender.send(email);
+        } catch (Throwable e) {
+            permits.release();
+            failedCount.incrementAndGet();
+            future.failed(e instanceof Exception ? (Exception) e : new ExecutionException(e));
+            return;
+        }
+        permits.release();
+        completedCount.incrementAndGet();
+        future.completed(response);
+    }
+
+    private void recordWait(long nanos) {
+        startedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final MailSender sender;
+        private int concurrency = SendGrid.DEFAULT_MAX_CONNECTIONS;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+        Builder(MailSender sender) {
+            if (sender == null) {
+                throw new IllegalArgumentException("Sender may not be null");
+            }
+            this.sender = sender;
+        }
+
+        /**
+         * Number of worker threads. Defaults to the client connection pool size, as more workers
+         * would only wait for a connection.
+         */
+        public Builder setConcurrency(int concurrency) {
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("concurrency must be at least 1");
+            }
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Number of emails that may wait for a worker.
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            if (queueCapacity < 0) {
+                throw new IllegalArgumentException("queueCapacity must not be negative");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public MailDispatcher build() {
+            return new MailDispatcher(this);
+        }
+    }
+}
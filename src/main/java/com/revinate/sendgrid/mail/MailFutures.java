@@ -0,0 +1,34 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.SendGridException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+final class MailFutures {
+
+    private MailFutures() {}
+
+    /**
+     * Waits for the future and rethrows its failure as it was raised by the sender.
+     */
+    static <T> T get(Future<T> future) throws SendGridException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for email to be sent", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SendGridException) {
+                throw (SendGridException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ApiConnectionException("Error while sending email", cause);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.util.DaemonThreadFactory;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Holds emails until shortly before their send time, then releases them to a sender in batches
+ * with {@code send_at} set, so that SendGrid delivers them on time while they can still be
+ * cancelled or changed locally until they are released.
+ * <p>
+ * Pending emails are kept in a hierarchical timing wheel: {@code levels} wheels of
+ * {@code wheelSize} slots, each slot of a wheel spanning a full turn of the wheel below, the
+ * lowest one turning every {@code tickMillis}. An email goes into the lowest wheel whose turn
+ * covers its release time and moves down as the wheels turn, so scheduling and cancelling take
+ * constant time, and each pending email costs a single small handle linked into its slot.
+ * <p>
+ * An email is released {@code leadMillis} before its send time, to within one tick. The emails
+ * released on a tick are sent in batches of at most {@code maxBatchSize}, each batch sent in turn
+ * on the executor. Emails whose send time has passed are released on the next tick and sent
+ * without {@code send_at}.
+ */
+public class MailScheduler implements Closeable {
+
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    public static final int DEFAULT_LEVELS = 4;
+    public static final long DEFAULT_LEAD_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    /**
+     * Longest time ahead SendGrid accepts a {@code send_at}.
+     */
+    public static final long MAX_LEAD_MILLIS = 72 * 60 * 60 * 1000L;
+
+    private static final byte PENDING = 0;
+    private static final byte RELEASED = 1;
+    private static final byte CANCELLED = 2;
+
+    private final MailSender sender;
+    private final long tickMillis;
+    private final int wheelSize;
+    private final int levels;
+    private final long leadMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    // one sentinel per slot, heading a circular list of the emails in the slot
+    private final ScheduledEmail[][] wheels;
+    private final long[] slotMillis;
+    private final ScheduledEmail due;
+    private long currentTime;
+    private int pendingCount;
+    private boolean closed;
+
+    private long releasedCount;
+    private long cancelledCount;
+
+    private MailScheduler(Builder builder) {
+        this.sender = builder.sender;
+        this.tickMillis = builder.tickMillis;
+        this.wheelSize = builder.wheelSize;
+        this.levels = builder.levels;
+        this.leadMillis = builder.leadMillis;
+        this.maxBatchSize = builder.maxBatchSize;
+
+        this.wheels = new ScheduledEmail[levels][wheelSize];
+        this.slotMillis = new long[levels];
+        for (int level = 0; level < levels; level++) {
+            slotMillis[level] = level == 0 ? tickMillis : saturatedMultiply(slotMillis[level - 1], wheelSize);
+            for (int slot = 0; slot < wheelSize; slot++) {
+                wheels[level][slot] = new ScheduledEmail();
+            }
+        }
+        this.due = new ScheduledEmail();
+        this.currentTime = builder.startTime - builder.startTime % tickMillis;
+
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownsExecutor = false;
+        } else {
+            this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory("sendgrid-scheduler-"));
+            this.ownsExecutor = true;
+        }
+        if (builder.ticking) {
+            this.timer = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("sendgrid-scheduler-timer-"));
+            timer.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    advance(System.currentTimeMillis());
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    public static Builder create(MailSender sender) {
+        return new Builder(sender);
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public long getLeadMillis() {
+        return leadMillis;
+    }
+
+    /**
+     * Schedules the email to be delivered at the given time, in milliseconds since the epoch.
+     */
+    public ScheduledEmail schedule(Email email, long sendAtMillis) {
+        return schedule(email, sendAtMillis, null);
+    }
+
+    /**
+     * Schedules the email, completing the callback with the response to its send, or cancelling
+     * it if the email is cancelled.
+     */
+    public ScheduledEmail schedule(Email email, long sendAtMillis, FutureCallback<Response> callback) {
+        if (email == null) {
+            throw new IllegalArgumentException("Email may not be null");
+        }
+        ScheduledEmail scheduled = new ScheduledEmail(email, sendAtMillis, callback);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Mail scheduler is closed");
+            }
+            insert(scheduled);
+            pendingCount++;
+        }
+        return scheduled;
+    }
+
+    /**
+     * Returns the number of emails scheduled and not yet released or cancelled.
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    public synchronized long getReleasedCount() {
+        return releasedCount;
+    }
+
+    public synchronized long getCancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * Stops releasing emails. Emails still pending are not sent; batches already released are.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Turns the wheels up to the given time and sends the emails that are due.
+     */
+    void advance(long now) {
+        List<ScheduledEmail> released = new ArrayList<ScheduledEmail>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            drain(due, released);
+            while (currentTime + tickMillis <= now) {
+                currentTime += tickMillis;
+                for (int level = levels - 1; level > 0; level--) {
+                    if (currentTime % slotMillis[level] == 0) {
+                        cascade(wheels[level][slotIndex(currentTime, level)]);
+                    }
+                }
+                drain(wheels[0][slotIndex(currentTime, 0)], released);
+                // emails cascaded into the current tick
+                drain(due, released);
+            }
+            pendingCount -= released.size();
+            releasedCount += released.size();
+        }
+
+        for (int start = 0; start < released.size(); start += maxBatchSize) {
+            dispatch(released.subList(start, Math.min(released.size(), start + maxBatchSize)), now);
+        }
+    }
+
+    // must hold the lock
+    private void insert(ScheduledEmail scheduled) {
+        long releaseAt = scheduled.sendAtMillis - leadMillis;
+        if (releaseAt < currentTime + tickMillis) {
+            scheduled.linkBefore(due);
+            return;
+        }
+        long delta = releaseAt - currentTime;
+        int level = 0;
+        while (level < levels - 1 && delta >= slotMillis[level + 1]) {
+            level++;
+        }
+        scheduled.linkBefore(wheels[level][slotIndex(releaseAt, level)]);
+    }
+
+    // must hold the lock
+    private void cascade(ScheduledEmail sentinel) {
+        ScheduledEmail scheduled = sentinel.next;
+        sentinel.next = sentinel;
+        sentinel.prev = sentinel;
+        while (scheduled != sentinel) {
+            ScheduledEmail next = scheduled.next;
+            insert(scheduled);
+            scheduled = next;
+        }
+    }
+
+    // must hold the lock
+    private void drain(ScheduledEmail sentinel, List<ScheduledEmail> released) {
+        ScheduledEmail scheduled = sentinel.next;
+        sentinel.next = sentinel;
+        sentinel.prev = sentinel;
+        while (scheduled != sentinel) {
+            ScheduledEmail next = scheduled.next;
+            scheduled.prev = null;
+            scheduled.next = null;
+            scheduled.state = RELEASED;
+            released.add(scheduled);
+            scheduled = next;
+        }
+    }
+
+    private int slotIndex(long time, int level) {
+        return (int) ((time / slotMillis[level]) % wheelSize);
+    }
+
+    private void dispatch(List<ScheduledEmail> batch, final long now) {
+        final ScheduledEmail[] emails = batch.toArray(new ScheduledEmail[batch.size()]);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (ScheduledEmail scheduled : emails) {
+                        send(scheduled, now);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (ScheduledEmail scheduled : emails) {
+                scheduled.failed(e);
+            }
+        }
+    }
+
+    private void send(ScheduledEmail scheduled, long now) {
+        Email email = scheduled.email;
+        long sendAtSeconds = scheduled.sendAtMillis / 1000;
+        if (sendAtSeconds > now / 1000) {
+            email.setSendAt((int) sendAtSeconds);
+        }
+        try {
+            scheduled.completed(sender.send(email));
+        } catch (Exception e) {
+            scheduled.failed(e);
+        }
+    }
+
+    private static long saturatedMultiply(long a, int b) {
+        return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+
+    /**
+     * Handle to a scheduled email.
+     */
+    public class ScheduledEmail {
+
+        private final Email email;
+        private long sendAtMillis;
+        private final FutureCallback<Response> callback;
+        private ScheduledEmail prev;
+        private ScheduledEmail next;
+        private byte state;
+
+        // sentinel
+        ScheduledEmail() {
+            this.email = null;
+            this.callback = null;
+            this.prev = this;
+            this.next = this;
+        }
+
+        ScheduledEmail(Email email, long sendAtMillis, FutureCallback<Response> callback) {
+            this.email = email;
+            this.sendAtMillis = sendAtMillis;
+            this.callback = callback;
+        }
+
+        /**
+         * Returns the email. It can be changed until it is released.
+         */
+        public Email getEmail() {
+            return email;
+        }
+
+        public long getSendAtMillis() {
+            synchronized (MailScheduler.this) {
+                return sendAtMillis;
+            }
+        }
+
+        public boolean isPending() {
+            synchronized (MailScheduler.this) {
+                return state == PENDING;
+            }
+        }
+
+        public boolean isCancelled() {
+            synchronized (MailScheduler.this) {
+                return state == CANCELLED;
+            }
+        }
+
+        /**
+         * Cancels the email, returning false if it was already released or cancelled.
+         */
+        public boolean cancel() {
+            synchronized (MailScheduler.this) {
+                if (state != PENDING) {
+                    return false;
+                }
+                unlink();
+                state = CANCELLED;
+                pendingCount--;
+                cancelledCount++;
+            }
+            if (callback != null) {
+                callback.cancelled();
+            }
+            return true;
+        }
+
+        /**
+         * Moves the email to a new send time, returning false if it was already released or
+         * cancelled.
+         */
+        public boolean reschedule(long sendAtMillis) {
+            synchronized (MailScheduler.this) {
+                if (state != PENDING) {
+                    return false;
+                }
+                unlink();
+                this.sendAtMillis = sendAtMillis;
+                insert(this);
+                return true;
+            }
+        }
+
+        void linkBefore(ScheduledEmail sentinel) {
+            prev = sentinel.prev;
+            next = sentinel;
+            sentinel.prev.next = this;
+            sentinel.prev = this;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+
+        void completed(Response response) {
+            if (callback != null) {
+                callback.completed(response);
+            }
+        }
+
+        void failed(Exception e) {
+            if (callback != null) {
+                callback.failed(e);
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private final MailSender sender;
+        private long tickMillis = DEFAULT_TICK_MILLIS;
+        private int wheelSize = DEFAULT_WHEEL_SIZE;
+        private int levels = DEFAULT_LEVELS;
+        private long leadMillis = DEFAULT_LEAD_MILLIS;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private ExecutorService executor;
+        private long startTime = System.currentTimeMillis();
+        private boolean ticking = true;
+
+        Builder(MailSender sender) {
+            if (sender == null) {
+                throw new IllegalArgumentException("Sender may not be null");
+            }
+            this.sender = sender;
+        }
+
+        /**
+         * Resolution of release times, one second by default.
+         */
+        public Builder setTickMillis(long tickMillis) {
+            if (tickMillis < 1) {
+                throw new IllegalArgumentException("tickMillis must be at least 1");
+            }
+            this.tickMillis = tickMillis;
+            return this;
+        }
+
+        public Builder setWheelSize(int wheelSize) {
+            if (wheelSize < 2) {
+                throw new IllegalArgumentException("wheelSize must be at least 2");
+            }
+            this.wheelSize = wheelSize;
+            return this;
+        }
+
+        /**
+         * Number of wheels. Emails beyond the turn of the highest wheel are moved down through it
+         * again, so this only bounds how often they are revisited.
+         */
+        public Builder setLevels(int levels) {
+            if (levels < 1) {
+                throw new IllegalArgumentException("levels must be at least 1");
+            }
+            this.levels = levels;
+            return this;
+        }
+
+        /**
+         * Time before their send time emails are released, five minutes by default. At most
+         * {@link #MAX_LEAD_MILLIS}, as SendGrid does not accept a {@code send_at} further ahead.
+         */
+        public Builder setLeadMillis(long leadMillis) {
+            if (leadMillis < 0 || leadMillis > MAX_LEAD_MILLIS) {
+                throw new IllegalArgumentException("leadMillis must be between 0 and " + MAX_LEAD_MILLIS);
+            }
+            this.leadMillis = leadMillis;
+            return this;
+        }
+
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException("maxBatchSize must be at least 1");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Executor the batches are sent on. By default, a cached pool of daemon threads that is
+         * shut down with the scheduler.
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        Builder setStartTime(long startTime) {
+            this.startTime = startTime;
+            return this;
+        }
+
+        Builder setTicking(boolean ticking) {
+            this.ticking = ticking;
+            return this;
+        }
+
+        public MailScheduler build() {
+            return new MailScheduler(this);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+
+/**
+ * Sends an email and returns the response of the API. Implemented by
+ * {@link com.revinate.sendgrid.resource.MailResource} and by the components of this package that
+ * wrap another sender.
+ */
+public interface MailSender {
+
+    Response send(Email email) throws SendGridException;
+}
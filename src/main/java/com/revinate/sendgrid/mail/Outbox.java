@@ -0,0 +1,777 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.mail.AttachmentStore.StoredAttachment;
+import com.revinate.sendgrid.model.Attachment;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.util.DaemonThreadFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable journal of emails waiting to be sent, so that emails accepted by the application
+ * survive a restart.
+ * <p>
+ * Emails are appended to memory-mapped segment files in a directory, and acknowledged once they
+ * no longer need to be sent. When an outbox is opened, the segments are read back and the emails
+ * that were not acknowledged are available from {@link #getPending()} and {@link #replay}, as are
+ * emails whose {@link #send} failed since. Each
+ * entry carries a CRC, so that an entry torn by a crash ends its segment instead of being read
+ * back. A new segment is started when the current one is full and on every open.
+ * <p>
+ * Segments are deleted from the oldest once all their emails are acknowledged. An old segment that
+ * still holds a few pending emails has them copied to the current segment first, so that a single
+ * email that is never acknowledged does not keep the journal from shrinking.
+ * <p>
+ * File attachments are kept as references to the file, which must still be there when the email
+ * is replayed. Attachments from an {@link AttachmentStore} are written once to the
+ * {@code blobs} directory of the outbox and referenced by their key, and put back into the store
+ * configured with {@link Builder#setAttachmentStore} when replayed. Other attachments are copied
+ * into the journal. Attachments read from an {@link InputStream} cannot be journaled.
+ * <p>
+ * With {@link SyncPolicy#NONE}, the operating system decides when appended emails reach the disk,
+ * which survives the JVM dying but not the machine. {@link SyncPolicy#INTERVAL} additionally
+ * forces them to disk periodically, and {@link SyncPolicy#ALWAYS} before every append returns.
+ */
+public class Outbox implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    public enum SyncPolicy {
+        NONE, INTERVAL, ALWAYS
+    }
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String BLOB_DIRECTORY = "blobs";
+
+    // record: length (int), crc (int), type (byte), id (long), payload
+    private static final int HEADER_SIZE = 17;
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+
+    private final File directory;
+    private final File blobDirectory;
+    private final int segmentSize;
+    private final SyncPolicy syncPolicy;
+    private final AttachmentStore attachmentStore;
+    private final ScheduledExecutorService syncer;
+
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final LinkedHashMap<Long, Location> pending = new LinkedHashMap<Long, Location>();
+    private final Map<String, Integer> blobReferences = new HashMap<String, Integer>();
+    private final Set<String> unreferencedBlobs = new HashSet<String>();
+    // ids being sent by send or replay, which replay leaves alone
+    private final Set<Long> sending = new HashSet<Long>();
+    private Segment active;
+    private long nextId = 1;
+    private long nextSegment = 1;
+    private boolean dirty;
+    private boolean compacting;
+    private boolean closed;
+
+    private long appendCount;
+    private long ackCount;
+
+    private Outbox(Builder builder) throws IOException {
+        this.directory = builder.directory;
+        this.blobDirectory = new File(directory, BLOB_DIRECTORY);
+        this.segmentSize = builder.segmentSize;
+        this.syncPolicy = builder.syncPolicy;
+        this.attachmentStore = builder.attachmentStore;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create outbox directory " + directory);
+        }
+        if (!blobDirectory.isDirectory() && !blobDirectory.mkdirs()) {
+            throw new IOException("Unable to create outbox directory " + blobDirectory);
+        }
+        recover();
+        active = newSegment(segmentSize);
+        compact();
+
+        if (syncPolicy == SyncPolicy.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("sendgrid-outbox-sync-"));
+            syncer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    syncIfDirty();
+                }
+            }, builder.syncIntervalMillis, builder.syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    public static Builder create(File directory) {
+        return new Builder(directory);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Appends the email to the journal and returns the id it is acknowledged with. The email is
+     * encoded when appended; later changes to it are not journaled.
+     *
+     * @throws IllegalArgumentException if an attachment is read from a stream
+     */
+    public long append(Email email) throws IOException {
+        return append(email, false);
+    }
+
+    private long append(Email email, boolean send) throws IOException {
+        if (email == null) {
+            throw new IllegalArgumentException("Email may not be null");
+        }
+        OutboxBlobs blobs = new OutboxBlobs();
+        boolean appended = false;
+        try {
+            byte[] payload = EmailCodec.encode(email, blobs);
+            synchronized (this) {
+                ensureOpen();
+                long id = nextId++;
+                Location location = write(APPEND, id, payload, 0, payload.length);
+                location.blobKeys = blobs.referenced;
+                pending.put(id, location);
+                location.segment.liveCount++;
+                appendCount++;
+                if (send) {
+                    sending.add(id);
+                }
+                afterWrite();
+                appended = true;
+                return id;
+            }
+        } finally {
+            if (!appended) {
+                blobs.releaseAll();
+            }
+        }
+    }
+
+    /**
+     * Records that the email with the given id no longer needs to be sent. Returns false if it was
+     * not pending.
+     */
+    public synchronized boolean ack(long id) throws IOException {
+        ensureOpen();
+        Location location = pending.remove(id);
+        if (location == null) {
+            return false;
+        }
+        write(ACK, id, null, 0, 0);
+        location.segment.liveCount--;
+        for (String key : location.blobKeys) {
+            release(key);
+        }
+        ackCount++;
+        afterWrite();
+        if (location.segment.liveCount == 0 && location.segment != active
+                && location.segment == segments.getFirst()) {
+            compact();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the emails appended and not acknowledged, in the order they were appended, except
+     * those being sent by {@link #send} or {@link #replay}.
+     */
+    public synchronized List<Entry> getPending() {
+        List<Entry> entries = new ArrayList<Entry>(pending.size());
+        for (Long id : pending.keySet()) {
+            if (!sending.contains(id)) {
+                entries.add(new Entry(id));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the number of emails appended and not yet acknowledged.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getAppendCount() {
+        return appendCount;
+    }
+
+    public synchronized long getAckCount() {
+        return ackCount;
+    }
+
+    /**
+     * Journals the email, sends it, and acknowledges it once it was sent or rejected as invalid.
+     * Emails whose send failed otherwise stay pending, to be sent again by {@link #replay}.
+     */
+    public Response send(Email email, MailSender sender) throws IOException, SendGridException {
+        long id = append(email, true);
+        try {
+            Response response;
+            try {
+                response = sender.send(email);
+            } catch (InvalidRequestException e) {
+                ack(id);
+                throw e;
+            }
+            ack(id);
+            return response;
+        } finally {
+            doneSending(id);
+        }
+    }
+
+    /**
+     * Sends the pending emails through the sender, acknowledging them as {@link #send} does, and
+     * returns how many were sent. Emails that cannot be read back are left pending.
+     */
+    public int replay(MailSender sender) throws IOException, SendGridException {
+        int count = 0;
+        for (Entry entry : getPending()) {
+            if (!startSending(entry.getId())) {
+                continue;
+            }
+            try {
+                Email email;
+                try {
+                    email = entry.getEmail();
+                } catch (IOException e) {
+                    continue;
+                }
+                try {
+                    sender.send(email);
+                } catch (InvalidRequestException e) {
+                    ack(entry.getId());
+                    continue;
+                }
+                ack(entry.getId());
+                count++;
+            } finally {
+                doneSending(entry.getId());
+            }
+        }
+        return count;
+    }
+
+    private synchronized boolean startSending(long id) {
+        return pending.containsKey(id) && sending.add(id);
+    }
+
+    private synchronized void doneSending(long id) {
+        sending.remove(id);
+    }
+
+    /**
+     * Forces appended emails and acknowledgements to disk.
+     */
+    public synchronized void sync() {
+        if (!closed) {
+            active.buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Deletes the oldest segments whose emails are all acknowledged, copying the remaining emails of
+     * a segment forward when they take up less than a quarter of it.
+     */
+    public synchronized void compact() throws IOException {
+        if (compacting || closed) {
+            return;
+        }
+        compacting = true;
+        try {
+            while (segments.size() > 1 && segments.getFirst() != active) {
+                Segment head = segments.getFirst();
+                if (head.liveCount > 0) {
+                    List<Location> live = new ArrayList<Location>();
+                    long liveBytes = 0;
+                    for (Location location : pending.values()) {
+                        if (location.segment == head) {
+                            live.add(location);
+                            liveBytes += location.length;
+                        }
+                    }
+                    if (liveBytes > head.capacity / 4) {
+                        break;
+                    }
+                    for (Location location : live) {
+                        copyForward(location);
+                    }
+                    active.buffer.force();
+                }
+                segments.removeFirst();
+                head.delete();
+            }
+            deleteUnreferencedBlobs();
+        } finally {
+            compacting = false;
+        }
+    }
+
+    /**
+     * Forces the journal to disk and releases it. Pending emails are recovered when the outbox is
+     * opened again.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        if (syncPolicy != SyncPolicy.NONE) {
+            active.buffer.force();
+        }
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        closed = true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Outbox is closed");
+        }
+    }
+
+    private void afterWrite() {
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            active.buffer.force();
+        } else {
+            dirty = true;
+        }
+    }
+
+    private synchronized void syncIfDirty() {
+        if (dirty && !closed) {
+            active.buffer.force();
+            dirty = false;
+        }
+    }
+
+    // must hold the lock
+    private Location write(byte type, long id, byte[] payload, int offset, int length) throws IOException {
+        int size = HEADER_SIZE + length;
+        if (active.buffer.remaining() < size) {
+            roll(size);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (id >>> shift));
+        }
+        if (length > 0) {
+            crc.update(payload, offset, length);
+        }
+
+        MappedByteBuffer buffer = active.buffer;
+        int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.putLong(id);
+        if (length > 0) {
+            buffer.put(payload, offset, length);
+        }
+        // the length is written last, so that an entry is not seen before it is complete
+        buffer.putInt(position, size);
+        return new Location(id, active, position + HEADER_SIZE, length);
+    }
+
+    private void roll(int size) throws IOException {
+        startSegment(size);
+        compact();
+        if (active.buffer.remaining() < size) {
+            // the emails copied forward took the room of the entry
+            startSegment(size);
+        }
+    }
+
+    private void startSegment(int size) throws IOException {
+        Segment previous = active;
+        active = newSegment(Math.max(segmentSize, size + 4));
+        if (syncPolicy != SyncPolicy.NONE) {
+            previous.buffer.force();
+        }
+    }
+
+    private void copyForward(Location location) throws IOException {
+        byte[] payload = new byte[location.length];
+        ByteBuffer source = location.segment.buffer.duplicate();
+        source.position(location.offset);
+        source.get(payload);
+        Location copy = write(APPEND, location.id, payload, 0, payload.length);
+        location.segment.liveCount--;
+        location.segment = copy.segment;
+        location.offset = copy.offset;
+        copy.segment.liveCount++;
+    }
+
+    private Segment newSegment(int capacity) throws IOException {
+        File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, capacity, true);
+        segments.add(segment);
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        List<File> journalFiles = new ArrayList<File>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    journalFiles.add(file);
+                }
+            }
+        }
+        Collections.sort(journalFiles);
+
+        for (File file : journalFiles) {
+            String number = file.getName().substring(SEGMENT_PREFIX.length(),
+                    file.getName().length() - SEGMENT_SUFFIX.length());
+            try {
+                nextSegment = Math.max(nextSegment, Long.parseLong(number) + 1);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = new Segment(file, (int) Math.min(Integer.MAX_VALUE, file.length()), false);
+            segments.add(segment);
+            scan(segment);
+        }
+
+        for (Map.Entry<Long, Location> entry : pending.entrySet()) {
+            Location location = entry.getValue();
+            location.blobKeys = EmailCodec.readBlobKeys(location.payload());
+            for (String key : location.blobKeys) {
+                reference(key);
+            }
+        }
+
+        File[] blobFiles = blobDirectory.listFiles();
+        if (blobFiles != null) {
+            for (File file : blobFiles) {
+                if (!blobReferences.containsKey(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int size = buffer.getInt(position);
+            if (size < HEADER_SIZE || size > buffer.limit() - position) {
+                break;
+            }
+            int crcValue = buffer.getInt(position + 4);
+            byte type = buffer.get(position + 8);
+            long id = buffer.getLong(position + 9);
+
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                crc.update((int) (id >>> shift));
+            }
+            int length = size - HEADER_SIZE;
+            if (length > 0) {
+                byte[] payload = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(position + HEADER_SIZE);
+                source.get(payload);
+                crc.update(payload);
+            }
+            if ((int) crc.getValue() != crcValue) {
+                break;
+            }
+
+            if (type == APPEND) {
+                Location previous = pending.put(id, new Location(id, segment, position + HEADER_SIZE, length));
+                if (previous != null) {
+                    // copied forward by a compaction
+                    previous.segment.liveCount--;
+                }
+                segment.liveCount++;
+            } else if (type == ACK) {
+                Location location = pending.remove(id);
+                if (location != null) {
+                    location.segment.liveCount--;
+                }
+            }
+            nextId = Math.max(nextId, id + 1);
+            position += size;
+        }
+    }
+
+    private void reference(String key) {
+        Integer count = blobReferences.get(key);
+        blobReferences.put(key, count == null ? 1 : count + 1);
+        unreferencedBlobs.remove(key);
+    }
+
+    private void release(String key) {
+        Integer count = blobReferences.get(key);
+        if (count != null && count > 1) {
+            blobReferences.put(key, count - 1);
+        } else {
+            blobReferences.remove(key);
+            unreferencedBlobs.add(key);
+        }
+    }
+
+    // acknowledgements are forced first, so that no email is read back without its attachments
+    private void deleteUnreferencedBlobs() {
+        if (unreferencedBlobs.isEmpty()) {
+            return;
+        }
+        active.buffer.force();
+        for (String key : unreferencedBlobs) {
+            blobFile(key).delete();
+        }
+        unreferencedBlobs.clear();
+    }
+
+    private File blobFile(String key) {
+        return new File(blobDirectory, key);
+    }
+
+    /**
+     * Email pending in the journal.
+     */
+    public class Entry {
+
+        private final long id;
+
+        Entry(long id) {
+            this.id = id;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Reads the email back from the journal.
+         *
+         * @throws IOException if the email was acknowledged, or cannot be read back
+         */
+        public Email getEmail() throws IOException {
+            ByteBuffer payload;
+            synchronized (Outbox.this) {
+                ensureOpen();
+                Location location = pending.get(id);
+                if (location == null) {
+                    throw new IOException("Email " + id + " is no longer pending");
+                }
+                payload = ByteBuffer.allocate(location.length);
+                payload.put(location.payload());
+                payload.flip();
+            }
+            return EmailCodec.decode(payload, new OutboxBlobs());
+        }
+
+        public void ack() throws IOException {
+            Outbox.this.ack(id);
+        }
+    }
+
+    private class OutboxBlobs implements EmailCodec.Blobs {
+
+        final List<String> referenced = new ArrayList<String>();
+
+        @Override
+        public String keyOf(Attachment attachment) throws IOException {
+            if (!(attachment instanceof StoredAttachment)) {
+                return null;
+            }
+            String key = ((StoredAttachment) attachment).getKey();
+            // referenced before the file is checked, so that a compaction cannot delete it meanwhile
+            synchronized (Outbox.this) {
+                reference(key);
+            }
+            referenced.add(key);
+
+            File file = blobFile(key);
+            if (!file.isFile()) {
+                File temp = File.createTempFile(key, ".tmp", blobDirectory);
+                FileOutputStream out = new FileOutputStream(temp);
+                try {
+                    attachment.writeTo(out);
+                    if (syncPolicy != SyncPolicy.NONE) {
+                        out.getFD().sync();
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file) && !file.isFile()) {
+                    temp.delete();
+                    throw new IOException("Unable to write attachment to " + file);
+                }
+                temp.delete();
+            }
+            return key;
+        }
+
+        @Override
+        public Attachment resolve(String key) throws IOException {
+            File file = blobFile(key);
+            if (attachmentStore != null) {
+                return attachmentStore.put(file);
+            }
+            return Attachment.fromFile(file);
+        }
+
+        void releaseAll() {
+            synchronized (Outbox.this) {
+                for (String key : referenced) {
+                    release(key);
+                }
+            }
+        }
+    }
+
+    private static class Segment {
+
+        final File file;
+        final int capacity;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        int liveCount;
+
+        Segment(File file, int capacity, boolean create) throws IOException {
+            this.file = file;
+            this.capacity = capacity;
+            this.raf = new RandomAccessFile(file, "rw");
+            if (create) {
+                raf.setLength(capacity);
+            }
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+
+        // the mapping itself is released when the buffer is collected
+        void delete() {
+            close();
+            file.delete();
+        }
+    }
+
+    private static class Location {
+
+        final long id;
+        Segment segment;
+        int offset;
+        final int length;
+        List<String> blobKeys = Collections.emptyList();
+
+        Location(long id, Segment segment, int offset, int length) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        ByteBuffer payload() {
+            ByteBuffer payload = segment.buffer.duplicate();
+            payload.position(offset);
+            payload.limit(offset + length);
+            return payload.slice();
+        }
+    }
+
+    public static class Builder {
+
+        private final File directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private SyncPolicy syncPolicy = SyncPolicy.INTERVAL;
+        private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+        private AttachmentStore attachmentStore;
+
+        Builder(File directory) {
+            if (directory == null) {
+                throw new IllegalArgumentException("Directory may not be null");
+            }
+            this.directory = directory;
+        }
+
+        /**
+         * Size of the segment files. Emails larger than a segment get a segment of their own.
+         */
+        public Builder setSegmentSize(int segmentSize) {
+            if (segmentSize < 1024) {
+                throw new IllegalArgumentException("segmentSize must be at least 1024");
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public Builder setSyncPolicy(SyncPolicy syncPolicy) {
+            if (syncPolicy == null) {
+                throw new IllegalArgumentException("Sync policy may not be null");
+            }
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * Time between forces to disk with {@link SyncPolicy#INTERVAL}.
+         */
+        public Builder setSyncIntervalMillis(long syncIntervalMillis) {
+            if (syncIntervalMillis < 1) {
+                throw new IllegalArgumentException("syncIntervalMillis must be at least 1");
+            }
+            this.syncIntervalMillis = syncIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Store the attachments of replayed emails are put back into.
+         */
+        public Builder setAttachmentStore(AttachmentStore attachmentStore) {
+            this.attachmentStore = attachmentStore;
+            return this;
+        }
+
+        /**
+         * Opens the outbox, recovering the emails that were not acknowledged.
+         */
+        public Outbox build() throws IOException {
+            return new Outbox(this);
+        }
+    }
+}
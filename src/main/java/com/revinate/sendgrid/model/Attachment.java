@@ -0,0 +1,410 @@
+package com.revinate.sendgrid.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Content of an email attachment.
+ * <p>
+ * Attachments backed by a byte array, a file, a {@link FileChannel} or a {@link ByteBuffer} know
+ * their length up front and can be written any number of times, so the multipart body they are
+ * part of has a {@code Content-Length} and can be resent. Attachments backed by a
+ * {@link StreamSupplier} are reopened for every write, and have a known length if one is given.
+ * Attachments backed by an {@link InputStream} can only be written once and have an unknown length.
+ */
+public abstract class Attachment {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Supplies the content of an attachment as a new stream on every call.
+     */
+    public interface StreamSupplier {
+
+        InputStream get() throws IOException;
+    }
+
+    /**
+     * Returns the length of the content in bytes, or -1 if unknown.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * Returns whether the content can be read more than once.
+     */
+    public abstract boolean isRepeatable();
+
+    public abstract InputStream openStream() throws IOException;
+
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Returns the file the content is read from, or null if it is not read from a file.
+     */
+    public File getFile() {
+        return null;
+    }
+
+    public static Attachment fromBytes(byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("Bytes may not be null");
+        }
+        return new BufferAttachment(ByteBuffer.wrap(bytes));
+    }
+
+    public static Attachment fromStream(InputStream stream) {
+        return new StreamAttachment(stream);
+    }
+
+    /**
+     * Creates an attachment reading a new stream from the supplier each time it is written.
+     *
+     * @param length length of every supplied stream in bytes, or -1 if unknown
+     */
+    public static Attachment fromSupplier(StreamSupplier supplier, long length) {
+        return new SupplierAttachment(supplier, length);
+    }
+
+    /**
+     * Creates an attachment reading the file each time it is written. The length is taken when
+     * the attachment is created; writing fails if the file has since become shorter.
+     */
+    public static Attachment fromFile(File file) throws FileNotFoundException {
+        return new FileAttachment(file);
+    }
+
+    /**
+     * Creates an attachment of the channel content from its current position to its end. The
+     * channel is read at absolute positions, so its position is left unchanged; it is not closed.
+     */
+    public static Attachment fromChannel(FileChannel channel) throws IOException {
+        return new ChannelAttachment(channel);
+    }
+
+    /**
+     * Creates an attachment of the remaining content of the buffer. The buffer is read through a
+     * duplicate, so its position is left unchanged.
+     */
+    public static Attachment fromBuffer(ByteBuffer buffer) {
+        return new BufferAttachment(buffer);
+    }
+
+    private static void copy(FileChannel channel, long position, long length, OutputStream out)
+            throws IOException {
+        byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, length))];
+        long copied = 0;
+        while (copied < length) {
+            ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, length - copied));
+            int count = channel.read(target, position + copied);
+            if (count <= 0) {
+                throw new EOFException("Attachment is shorter than its declared length of " + length + " bytes");
+            }
+            out.write(buffer, 0, count);
+            copied += count;
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    private static class StreamAttachment extends Attachment {
+
+        private final InputStream stream;
+
+        StreamAttachment(InputStream stream) {
+            if (stream == null) {
+                throw new IllegalArgumentException("Stream may not be null");
+            }
+            this.stream = stream;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return stream;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try {
+                copy(stream, out);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private static class SupplierAttachment extends Attachment {
+
+        private final StreamSupplier supplier;
+        private final long length;
+
+        SupplierAttachment(StreamSupplier supplier, long length) {
+            if (supplier == null) {
+                throw new IllegalArgumentException("Supplier may not be null");
+            }
+            this.supplier = supplier;
+            this.length = length < 0 ? -1 : length;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return supplier.get();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            InputStream in = supplier.get();
+            try {
+                if (length < 0) {
+                    copy(in, out);
+                } else {
+                    copyExactly(in, out);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private void copyExactly(InputStream in, OutputStream out) throws IOException {
+            byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(1, length))];
+            long remaining = length;
+            while (remaining > 0) {
+                int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count == -1) {
+                    throw new EOFException("Attachment is shorter than its declared length of " + length + " bytes");
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+            if (in.read() != -1) {
+                throw new IOException("Attachment is longer than its declared length of " + length + " bytes");
+            }
+        }
+    }
+
+    private static class FileAttachment extends Attachment {
+
+        private final File file;
+        private final long length;
+
+        FileAttachment(File file) throws FileNotFoundException {
+            if (file == null) {
+                throw new IllegalArgumentException("File may not be null");
+            }
+            if (!file.isFile() || !file.canRead()) {
+                throw new FileNotFoundException(file.getPath() + " is not a readable file");
+            }
+            this.file = file;
+            this.length = file.length();
+        }
+
+        @Override
+        public File getFile() {
+            return file;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                copy(in.getChannel(), 0, length, out);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static class ChannelAttachment extends Attachment {
+
+        private final FileChannel channel;
+        private final long position;
+        private final long length;
+
+        ChannelAttachment(FileChannel channel) throws IOException {
+            if (channel == null) {
+                throw new IllegalArgumentException("Channel may not be null");
+            }
+            this.channel = channel;
+            this.position = channel.position();
+            this.length = Math.max(0, channel.size() - position);
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ChannelInputStream(channel, position, length);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            copy(channel, position, length, out);
+        }
+    }
+
+    private static class BufferAttachment extends Attachment {
+
+        private final ByteBuffer buffer;
+
+        BufferAttachment(ByteBuffer buffer) {
+            if (buffer == null) {
+                throw new IllegalArgumentException("Buffer may not be null");
+            }
+            this.buffer = buffer.slice();
+        }
+
+        @Override
+        public long getContentLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public InputStream openStream() {
+            if (buffer.hasArray()) {
+                return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+            }
+            return new BufferInputStream(buffer.duplicate());
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+            } else {
+                ByteBuffer source = buffer.duplicate();
+                byte[] chunk = new byte[Math.min(BUFFER_SIZE, source.remaining())];
+                while (source.hasRemaining()) {
+                    int count = Math.min(chunk.length, source.remaining());
+                    source.get(chunk, 0, count);
+                    out.write(chunk, 0, count);
+                }
+            }
+        }
+    }
+
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            ByteBuffer target = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+            int count = channel.read(target, position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
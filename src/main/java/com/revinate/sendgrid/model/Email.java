@@ -1,47 +1,92 @@
 package com.revinate.sendgrid.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.revinate.sendgrid.smtpapi.SmtpApi;
 import com.revinate.sendgrid.smtpapi.SmtpApiException;
 import com.revinate.sendgrid.smtpapi.SmtpApiImpl;
 import com.revinate.sendgrid.util.JsonUtils;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Email sent through the mail resource.
+ * <p>
+ * The collection getters return copies, which callers may change freely. The {@code View}
+ * accessors return unmodifiable views of the collections held by the email instead, without
+ * copying them; they reflect later changes to the email and must not be used across threads that
+ * change it.
+ * <p>
+ * Recipient addresses and names, including those of the SMTP API header, are kept in
+ * {@link RecipientList}s as UTF-8 bytes, on the heap or, for emails created with
+ * {@link RecipientList.Storage#DIRECT}, outside it. Substitution values can be set tag by tag,
+ * or as a {@link SubstitutionTable} with a row per SMTP API recipient.
+ */
 public class Email extends SendGridModel implements SmtpApi {
 
-    private List<String> tos = new ArrayList<String>();
-    private List<String> toNames = new ArrayList<String>();
-    private List<String> ccs = new ArrayList<String>();
-    private List<String> ccNames = new ArrayList<String>();
-    private List<String> bccs = new ArrayList<String>();
-    private List<String> bccNames = new ArrayList<String>();
+    private final RecipientList.Storage recipientStorage;
+    private final RecipientList tos;
+    private final RecipientList toNames;
+    private final RecipientList ccs;
+    private final RecipientList ccNames;
+    private final RecipientList bccs;
+    private final RecipientList bccNames;
+    private final RecipientList smtpApiTos;
     private String from;
     private String fromName;
     private String replyTo;
     private String subject;
     private String text;
     private String html;
-    private Map<String, InputStream> attachments = new HashMap<String, InputStream>();
+    private Map<String, Attachment> attachments = new HashMap<String, Attachment>();
+    private final Map<String, InputStream> attachmentStreams = new HashMap<String, InputStream>();
     private Map<String, String> contentIds = new HashMap<String, String>();
     private Map<String, String> headers = new HashMap<String, String>();
 
     private SmtpApi smtpApi = new SmtpApiImpl();
+    // whether categories, unique args, sections or tag-by-tag substitutions are set, null if unknown
+    private Boolean smtpApiValuesSet = Boolean.FALSE;
+    private SubstitutionTable substitutionTable;
+
+    public Email() {
+        this(RecipientList.Storage.HEAP);
+    }
+
+    public Email(RecipientList.Storage recipientStorage) {
+        this.recipientStorage = recipientStorage;
+        this.tos = new RecipientList(recipientStorage);
+        this.toNames = new RecipientList(recipientStorage);
+        this.ccs = new RecipientList(recipientStorage);
+        this.ccNames = new RecipientList(recipientStorage);
+        this.bccs = new RecipientList(recipientStorage);
+        this.bccNames = new RecipientList(recipientStorage);
+        this.smtpApiTos = new RecipientList(recipientStorage);
+    }
+
+    @JsonIgnore
+    public RecipientList.Storage getRecipientStorage() {
+        return recipientStorage;
+    }
 
     public List<String> getTos() {
         return new ArrayList<String>(tos);
     }
 
+    @JsonIgnore
+    public RecipientList getTosView() {
+        return tos;
+    }
+
     public Email setTos(List<String> addresses) {
-        tos = new ArrayList<String>(addresses);
+        replace(tos, addresses);
         return this;
     }
 
     public Email addTo(String address) {
-        tos.add(address);
+        tos.append(address);
         return this;
     }
 
@@ -55,13 +100,18 @@ public class Email extends SendGridModel implements SmtpApi {
         return new ArrayList<String>(toNames);
     }
 
+    @JsonIgnore
+    public RecipientList getToNamesView() {
+        return toNames;
+    }
+
     public Email setToNames(List<String> names) {
-        toNames = new ArrayList<String>(names);
+        replace(toNames, names);
         return this;
     }
 
     public Email addToName(String name) {
-        toNames.add(name);
+        toNames.append(name);
         return this;
     }
 
@@ -69,13 +119,18 @@ public class Email extends SendGridModel implements SmtpApi {
         return new ArrayList<String>(ccs);
     }
 
+    @JsonIgnore
+    public RecipientList getCcsView() {
+        return ccs;
+    }
+
     public Email setCcs(List<String> addresses) {
-        ccs = new ArrayList<String>(addresses);
+        replace(ccs, addresses);
         return this;
     }
 
     public Email addCc(String address) {
-        ccs.add(address);
+        ccs.append(address);
         return this;
     }
 
@@ -89,13 +144,18 @@ public class Email extends SendGridModel implements SmtpApi {
         return new ArrayList<String>(ccNames);
     }
 
+    @JsonIgnore
+    public RecipientList getCcNamesView() {
+        return ccNames;
+    }
+
     public Email setCcNames(List<String> names) {
-        ccNames = new ArrayList<String>(names);
+        replace(ccNames, names);
         return this;
     }
 
     public Email addCcName(String name) {
-        ccNames.add(name);
+        ccNames.append(name);
         return this;
     }
 
@@ -103,13 +163,18 @@ public class Email extends SendGridModel implements SmtpApi {
         return new ArrayList<String>(bccs);
     }
 
+    @JsonIgnore
+    public RecipientList getBccsView() {
+        return bccs;
+    }
+
     public Email setBccs(List<String> addresses) {
-        bccs = new ArrayList<String>(addresses);
+        replace(bccs, addresses);
         return this;
     }
 
     public Email addBcc(String address) {
-        bccs.add(address);
+        bccs.append(address);
         return this;
     }
 
@@ -123,13 +188,18 @@ public class Email extends SendGridModel implements SmtpApi {
         return new ArrayList<String>(bccNames);
     }
 
+    @JsonIgnore
+    public RecipientList getBccNamesView() {
+        return bccNames;
+    }
+
     public Email setBccNames(List<String> names) {
-        bccNames = new ArrayList<String>(names);
+        replace(bccNames, names);
         return this;
     }
 
     public Email addBccName(String name) {
-        bccNames.add(name);
+        bccNames.append(name);
         return this;
     }
 
@@ -193,24 +263,76 @@ public class Email extends SendGridModel implements SmtpApi {
         return this;
     }
 
+    /**
+     * Returns the content of each attachment as a stream. Each attachment has a single stream,
+     * returned by every call until the attachment is replaced, which opens its source on the first
+     * read. The caller that reads a stream owns it and must close it; a stream that is never read
+     * holds nothing open.
+     *
+     * @deprecated use {@link #getAttachmentSources()}
+     */
+    @Deprecated
+    @JsonIgnore
     public Map<String, InputStream> getAttachments() {
-        return new HashMap<String, InputStream>(attachments);
+        Map<String, InputStream> streams = new HashMap<String, InputStream>();
+        for (String name : attachments.keySet()) {
+            streams.put(name, attachmentStream(name));
+        }
+        return streams;
     }
 
     public Email setAttachments(Map<String, InputStream> attachments) {
-        this.attachments = new HashMap<String, InputStream>(attachments);
+        this.attachments = new HashMap<String, Attachment>();
+        attachmentStreams.clear();
+        for (Map.Entry<String, InputStream> entry : attachments.entrySet()) {
+            setAttachment(entry.getKey(), entry.getValue());
+        }
         return this;
     }
 
+    /**
+     * Returns the stream of an attachment, as {@link #getAttachments()} does.
+     *
+     * @deprecated use {@link #getAttachmentSource(String)}
+     */
+    @Deprecated
     public InputStream getAttachment(String name) {
+        return attachments.containsKey(name) ? attachmentStream(name) : null;
+    }
+
+    public Map<String, Attachment> getAttachmentSources() {
+        return new HashMap<String, Attachment>(attachments);
+    }
+
+    @JsonIgnore
+    public Map<String, Attachment> getAttachmentSourcesView() {
+        return Collections.unmodifiableMap(attachments);
+    }
+
+    public Attachment getAttachmentSource(String name) {
         return attachments.get(name);
     }
 
-    public Email setAttachment(String name, InputStream file) {
-        attachments.put(name, file);
+    public Email setAttachment(String name, Attachment attachment) {
+        attachments.put(name, attachment);
+        attachmentStreams.remove(name);
         return this;
     }
 
+    public Email setAttachment(String name, Attachment attachment, String contentId) {
+        setAttachment(name, attachment);
+        setContentId(name, contentId);
+        return this;
+    }
+
+    public Email setAttachment(String name, byte[] file) {
+        return setAttachment(name, Attachment.fromBytes(file));
+    }
+
+    public Email setAttachment(String name, InputStream file) {
+        return setAttachment(name, Attachment.fromStream(file));
+    }
+
     public Email setAttachment(String name, InputStream file, String contentId) {
         setAttachment(name, file);
         setContentId(name, contentId);
@@ -218,17 +340,30 @@ public class Email extends SendGridModel implements SmtpApi {
     }
 
     public Email setAttachment(String name, File file) throws IOException {
-        return setAttachment(name, new FileInputStream(file));
+        return setAttachment(name, Attachment.fromFile(file));
+    }
+
+    public Email setAttachment(String name, FileChannel file) throws IOException {
+        return setAttachment(name, Attachment.fromChannel(file));
+    }
+
+    public Email setAttachment(String name, ByteBuffer file) {
+        return setAttachment(name, Attachment.fromBuffer(file));
     }
 
     public Email setAttachment(String name, String file) {
-        return setAttachment(name, new ByteArrayInputStream(file.getBytes()));
+        return setAttachment(name, file.getBytes());
     }
 
     public Map<String, String> getContentIds() {
         return new HashMap<String, String>(contentIds);
     }
 
+    @JsonIgnore
+    public Map<String, String> getContentIdsView() {
+        return Collections.unmodifiableMap(contentIds);
+    }
+
     public Email setContentIds(Map<String, String> contentIds) {
         this.contentIds = new HashMap<String, String>(contentIds);
         return this;
@@ -247,6 +382,11 @@ public class Email extends SendGridModel implements SmtpApi {
         return new HashMap<String, String>(headers);
     }
 
+    @JsonIgnore
+    public Map<String, String> getHeadersView() {
+        return Collections.unmodifiableMap(headers);
+    }
+
     public Email setHeaders(Map<String, String> headers) {
         this.headers = new HashMap<String, String>(headers);
         return this;
@@ -261,6 +401,22 @@ public class Email extends SendGridModel implements SmtpApi {
         return this;
     }
 
+    private static void replace(RecipientList list, List<String> values) {
+        if (values != list) {
+            list.reset();
+            list.appendAll(values);
+        }
+    }
+
+    private InputStream attachmentStream(String name) {
+        InputStream stream = attachmentStreams.get(name);
+        if (stream == null) {
+            stream = new LazyAttachmentStream(attachments.get(name));
+            attachmentStreams.put(name, stream);
+        }
+        return stream;
+    }
+
     public String toHeaders() {
         try {
             return JsonUtils.toJson(headers);
@@ -269,6 +425,29 @@ public class Email extends SendGridModel implements SmtpApi {
         }
     }
 
+    /**
+     * Returns whether custom headers are set, that is whether {@link #toHeaders()} is not empty.
+     */
+    public boolean hasHeaders() {
+        return !headers.isEmpty();
+    }
+
+    /**
+     * Writes the custom headers as UTF-8 JSON to the stream, which is left open.
+     */
+    public void writeHeaders(OutputStream out) throws IOException {
+        JsonGenerator generator = JsonUtils.createGenerator(out);
+        try {
+            generator.writeStartObject();
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                generator.writeStringField(entry.getKey(), entry.getValue());
+            }
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
     /**
      * Convenience method to set the template
      *
@@ -290,14 +469,159 @@ public class Email extends SendGridModel implements SmtpApi {
         return smtpApi.getVersion();
     }
 
+    /**
+     * Returns the SMTP API header as the SMTP API library does, with non-ASCII characters escaped.
+     *
+     * @throws IllegalStateException if the substitution table does not have a row per SMTP API
+     *                               recipient
+     */
     @Override
     public String toSmtpApiHeader() {
-        return smtpApi.toSmtpApiHeader();
+        return smtpApiHeader(false);
     }
 
+    /**
+     * Returns the SMTP API header as {@link #toSmtpApiHeader()} does, without escaping non-ASCII
+     * characters.
+     *
+     * @throws IllegalStateException if the substitution table does not have a row per SMTP API
+     *                               recipient
+     */
     @Override
     public String toRawSmtpApiHeader() {
-        return smtpApi.toRawSmtpApiHeader();
+        return smtpApiHeader(true);
+    }
+
+    /**
+     * Returns whether any SMTP API field is set, that is whether {@link #toSmtpApiHeader()} is not
+     * empty, without serializing the header. The collections of the SMTP API library, which it
+     * copies when asked for, are only looked at after they were replaced as a whole.
+     */
+    public boolean hasSmtpApiHeader() {
+        Map<String, Map<String, Object>> filters = smtpApi.getFilters();
+        return !smtpApiTos.isEmpty()
+                || (substitutionTable != null && !substitutionTable.getTags().isEmpty())
+                || (filters != null && !filters.isEmpty())
+                || smtpApi.getAsmGroupId() != null
+                || smtpApi.getSendAt() != null
+                || smtpApi.getIpPool() != null
+                || smtpApiValuesSet();
+    }
+
+    private boolean smtpApiValuesSet() {
+        if (smtpApiValuesSet == null) {
+            smtpApiValuesSet = (substitutionTable == null && !smtpApi.getSubstitutions().isEmpty())
+                    || !smtpApi.getUniqueArgs().isEmpty()
+                    || !smtpApi.getCategories().isEmpty()
+                    || !smtpApi.getSections().isEmpty();
+        }
+        return smtpApiValuesSet;
+    }
+
+    /**
+     * Writes the SMTP API header to the stream, which is left open, as {@link #toSmtpApiHeader()}
+     * returns it. Values are written as they are serialized, and ASCII recipients from their bytes,
+     * without building the header as a {@code String}.
+     *
+     * @throws IllegalStateException if the substitution table does not have a row per SMTP API
+     *                               recipient
+     */
+    public void writeSmtpApiHeader(OutputStream out) throws IOException {
+        writeSmtpApiHeader(out, false);
+    }
+
+    private String smtpApiHeader(boolean raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeSmtpApiHeader(out, raw);
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            return "{}";
+        }
+    }
+
+    // fields in the order of the SMTP API library; the header escapes non-ASCII unless raw
+    private void writeSmtpApiHeader(OutputStream out, boolean raw) throws IOException {
+        checkSubstitutionTableRows();
+        JsonGenerator generator = JsonUtils.createGenerator(out);
+        if (!raw) {
+            generator.enable(JsonGenerator.Feature.ESCAPE_NON_ASCII);
+        }
+        try {
+            generator.writeStartObject();
+            if (!smtpApiTos.isEmpty()) {
+                generator.writeArrayFieldStart("to");
+                for (int i = 0; i < smtpApiTos.size(); i++) {
+                    // the generator does not escape non-ASCII characters written as bytes
+                    if (raw || smtpApiTos.isAscii(i)) {
+                        smtpApiTos.writeJsonString(i, generator);
+                    } else {
+                        generator.writeString(smtpApiTos.get(i));
+                    }
+                }
+                generator.writeEndArray();
+            }
+            Map<String, List<String>> substitutions = substitutionTable != null
+                    ? Collections.<String, List<String>>emptyMap() : smtpApi.getSubstitutions();
+            if (substitutionTable != null && !substitutionTable.getTags().isEmpty()) {
+                generator.writeObjectFieldStart("sub");
+                substitutionTable.writeFields(generator);
+                generator.writeEndObject();
+            } else if (!substitutions.isEmpty()) {
+                generator.writeObjectFieldStart("sub");
+                for (Map.Entry<String, List<String>> entry : substitutions.entrySet()) {
+                    writeStringArrayField(generator, entry.getKey(), entry.getValue());
+                }
+                generator.writeEndObject();
+            }
+            writeStringMapField(generator, "unique_args", smtpApi.getUniqueArgs());
+            List<String> categories = smtpApi.getCategories();
+            if (!categories.isEmpty()) {
+                writeStringArrayField(generator, "category", categories);
+            }
+            writeStringMapField(generator, "section", smtpApi.getSections());
+            Map<String, Map<String, Object>> filters = smtpApi.getFilters();
+            if (filters != null && !filters.isEmpty()) {
+                generator.writeObjectField("filters", filters);
+            }
+            if (smtpApi.getAsmGroupId() != null) {
+                generator.writeNumberField("asm_group_id", smtpApi.getAsmGroupId());
+            }
+            if (smtpApi.getSendAt() != null) {
+                generator.writeNumberField("send_at", smtpApi.getSendAt());
+            }
+            if (smtpApi.getIpPool() != null) {
+                generator.writeStringField("ip_pool", smtpApi.getIpPool());
+            }
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
+    private static void writeStringArrayField(JsonGenerator generator, String name, List<String> values)
+            throws IOException {
+        if (values == null) {
+            generator.writeNullField(name);
+            return;
+        }
+        generator.writeArrayFieldStart(name);
+        for (String value : values) {
+            generator.writeString(value);
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeStringMapField(JsonGenerator generator, String name, Map<String, String> values)
+            throws IOException {
+        if (values.isEmpty()) {
+            return;
+        }
+        generator.writeObjectFieldStart(name);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            generator.writeStringField(entry.getKey(), entry.getValue());
+        }
+        generator.writeEndObject();
     }
 
     @Override
@@ -335,24 +659,29 @@ public class Email extends SendGridModel implements SmtpApi {
 
     @Override
     public List<String> getSmtpApiTos() {
-        return smtpApi.getSmtpApiTos();
+        return new ArrayList<String>(smtpApiTos);
+    }
+
+    @JsonIgnore
+    public RecipientList getSmtpApiTosView() {
+        return smtpApiTos;
     }
 
     @Override
     public Email setSmtpApiTos(List<String> tos) {
-        smtpApi.setSmtpApiTos(tos);
+        replace(smtpApiTos, tos);
         return this;
     }
 
     @Override
     public Email addSmtpApiTo(String to) {
-        smtpApi.addSmtpApiTo(to);
+        smtpApiTos.append(to);
         return this;
     }
 
     @Override
     public Email addSmtpApiTo(String address, String name) {
-        smtpApi.addSmtpApiTo(address, name);
+        smtpApiTos.append(name + " <" + address + ">");
         return this;
     }
 
@@ -364,12 +693,14 @@ public class Email extends SendGridModel implements SmtpApi {
     @Override
     public Email setCategories(List<String> categories) {
         smtpApi.setCategories(categories);
+        smtpApiValuesSet = null;
         return this;
     }
 
     @Override
     public Email addCategory(String category) {
         smtpApi.addCategory(category);
+        smtpApiValuesSet = Boolean.TRUE;
         return this;
     }
 
@@ -381,6 +712,7 @@ public class Email extends SendGridModel implements SmtpApi {
     @Override
     public Email setUniqueArgs(Map<String, String> args) {
         smtpApi.setUniqueArgs(args);
+        smtpApiValuesSet = null;
         return this;
     }
 
@@ -392,6 +724,7 @@ public class Email extends SendGridModel implements SmtpApi {
     @Override
     public Email setUniqueArg(String key, String val) {
         smtpApi.setUniqueArg(key, val);
+        smtpApiValuesSet = Boolean.TRUE;
         return this;
     }
 
@@ -403,6 +736,7 @@ public class Email extends SendGridModel implements SmtpApi {
     @Override
     public Email setSections(Map<String, String> sections) {
         smtpApi.setSections(sections);
+        smtpApiValuesSet = null;
         return this;
     }
 
@@ -414,37 +748,82 @@ public class Email extends SendGridModel implements SmtpApi {
     @Override
     public Email setSection(String key, String val) {
         smtpApi.setSection(key, val);
+        smtpApiValuesSet = Boolean.TRUE;
         return this;
     }
 
     @Override
     public Map<String, List<String>> getSubstitutions() {
+        if (substitutionTable != null) {
+            return substitutionTable.toMap();
+        }
         return smtpApi.getSubstitutions();
     }
 
     @Override
     public Email setSubstitutions(Map<String, List<String>> substitutions) {
+        checkNoSubstitutionTable();
         smtpApi.setSubstitutions(substitutions);
+        smtpApiValuesSet = null;
         return this;
     }
 
     @Override
     public List<String> getSubstitution(String key) {
+        if (substitutionTable != null) {
+            return substitutionTable.getColumn(key);
+        }
         return smtpApi.getSubstitution(key);
     }
 
     @Override
     public Email setSubstitution(String key, List<String> vals) {
+        checkNoSubstitutionTable();
         smtpApi.setSubstitution(key, vals);
+        smtpApiValuesSet = Boolean.TRUE;
         return this;
     }
 
     @Override
     public Email addValueToSubstitution(String key, String val) {
+        checkNoSubstitutionTable();
         smtpApi.addValueToSubstitution(key, val);
+        smtpApiValuesSet = Boolean.TRUE;
         return this;
     }
 
+    @JsonIgnore
+    public SubstitutionTable getSubstitutionTable() {
+        return substitutionTable;
+    }
+
+    /**
+     * Sets the substitution values from a table with a row per SMTP API recipient, in place of
+     * those set tag by tag. While a table is set, the substitutions can only be changed through it.
+     * The SMTP API header cannot be written unless the table has as many rows as there are SMTP API
+     * recipients.
+     */
+    public Email setSubstitutionTable(SubstitutionTable table) {
+        smtpApi.setSubstitutions(new HashMap<String, List<String>>());
+        smtpApiValuesSet = null;
+        substitutionTable = table;
+        return this;
+    }
+
+    private void checkSubstitutionTableRows() {
+        if (substitutionTable != null && !substitutionTable.getTags().isEmpty()
+                && substitutionTable.getRowCount() != smtpApiTos.size()) {
+            throw new IllegalStateException("Substitution table has " + substitutionTable.getRowCount()
+                    + " rows but the email has " + smtpApiTos.size() + " SMTP API recipients");
+        }
+    }
+
+    private void checkNoSubstitutionTable() {
+        if (substitutionTable != null) {
+            throw new IllegalStateException("Substitutions are set from a SubstitutionTable");
+        }
+    }
+
     @Override
     public Map<String, Map<String, Object>> getFilters() {
         return smtpApi.getFilters();
@@ -479,4 +858,53 @@ public class Email extends SendGridModel implements SmtpApi {
     public void accept(SendGridModelVisitor visitor) {
         visitor.visit(this);
     }
+
+    private static class LazyAttachmentStream extends InputStream {
+
+        private final Attachment attachment;
+        private InputStream stream;
+        private boolean closed;
+
+        LazyAttachmentStream(Attachment attachment) {
+            this.attachment = attachment;
+        }
+
+        private InputStream stream() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (stream == null) {
+                stream = attachment.openStream();
+            }
+            return stream;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return stream().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return stream().read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return stream().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return stream == null || closed ? 0 : stream.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (stream != null) {
+                stream.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,265 @@
+package com.revinate.sendgrid.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Unmodifiable list of the addresses or names of the recipients of an {@link Email}.
+ * <p>
+ * The entries are kept as UTF-8 bytes in one contiguous buffer with an index of their end
+ * offsets, rather than as a {@code String} each, so that a list of a hundred thousand addresses
+ * takes a few megabytes in two objects instead of two hundred thousand. With {@link Storage#DIRECT}
+ * the bytes are kept outside the heap and only the index, four bytes per entry, is on it.
+ * <p>
+ * {@link #get} decodes a new {@code String} on each call; request bodies are written from the bytes
+ * with {@link #writeTo} instead. Lists are filled by their email and are not safe for use by
+ * several threads while it changes them.
+ */
+public final class RecipientList extends AbstractList<String> implements RandomAccess {
+
+    /**
+     * Where the bytes of the entries are kept.
+     */
+    public enum Storage {
+        HEAP,
+        DIRECT
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_BYTES = 256;
+    private static final int INITIAL_ENTRIES = 8;
+
+    private final Storage storage;
+    private ByteBuffer buffer;
+    private int[] ends = new int[0];
+    private BitSet nulls;
+    private int size;
+
+    RecipientList(Storage storage) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage may not be null");
+        }
+        this.storage = storage;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String get(int index) {
+        checkIndex(index);
+        if (isNull(index)) {
+            return null;
+        }
+        int start = start(index);
+        int length = ends[index] - start;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, UTF_8);
+        }
+        return new String(copy(start, length), UTF_8);
+    }
+
+    /**
+     * Returns the length of the entry in UTF-8 bytes, or -1 if it is null.
+     */
+    public int getByteLength(int index) {
+        checkIndex(index);
+        return isNull(index) ? -1 : ends[index] - start(index);
+    }
+
+    /**
+     * Writes the UTF-8 bytes of the entry to the stream. Null entries write nothing.
+     */
+    public void writeTo(int index, OutputStream out) throws IOException {
+        checkIndex(index);
+        if (isNull(index)) {
+            return;
+        }
+        int start = start(index);
+        int length = ends[index] - start;
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + start, length);
+        } else {
+            out.write(copy(start, length));
+        }
+    }
+
+    /**
+     * Returns the number of bytes the list holds for its entries and index, on or off the heap.
+     */
+    public long getMemoryBytes() {
+        return (buffer == null ? 0 : buffer.capacity()) + ends.length * 4L
+                + (nulls == null ? 0 : nulls.size() / 8);
+    }
+
+    boolean isAscii(int index) {
+        checkIndex(index);
+        if (isNull(index)) {
+            return true;
+        }
+        for (int i = start(index); i < ends[index]; i++) {
+            if (buffer.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeJsonString(int index, JsonGenerator generator) throws IOException {
+        checkIndex(index);
+        if (isNull(index)) {
+            generator.writeNull();
+            return;
+        }
+        int start = start(index);
+        int length = ends[index] - start;
+        if (buffer.hasArray()) {
+            generator.writeUTF8String(buffer.array(), buffer.arrayOffset() + start, length);
+        } else {
+            generator.writeUTF8String(copy(start, length), 0, length);
+        }
+    }
+
+    void append(String value) {
+        if (size == ends.length) {
+            ends = Arrays.copyOf(ends, Math.max(INITIAL_ENTRIES, size + (size >> 1)));
+        }
+        int end = buffer == null ? 0 : buffer.position();
+        if (value == null) {
+            if (nulls == null) {
+                nulls = new BitSet();
+            }
+            nulls.set(size);
+        } else {
+            ensureCapacity(utf8Length(value));
+            encode(value);
+            end = buffer.position();
+        }
+        ends[size++] = end;
+    }
+
+    void appendAll(Collection<String> values) {
+        for (String value : values) {
+            append(value);
+        }
+    }
+
+    /**
+     * Removes all entries, keeping the space they took for new ones.
+     */
+    void reset() {
+        size = 0;
+        nulls = null;
+        if (buffer != null) {
+            buffer.clear();
+        }
+    }
+
+    private boolean isNull(int index) {
+        return nulls != null && nulls.get(index);
+    }
+
+    private int start(int index) {
+        return index == 0 ? 0 : ends[index - 1];
+    }
+
+    private byte[] copy(int start, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(start);
+        source.get(bytes);
+        return bytes;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        int position = buffer == null ? 0 : buffer.position();
+        long required = (long) position + bytes;
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Recipient list cannot hold more than 2 GB");
+        }
+        if (buffer != null && required <= buffer.capacity()) {
+            return;
+        }
+        long capacity = buffer == null ? INITIAL_BYTES : buffer.capacity() * 2L;
+        int newCapacity = (int) Math.min(Integer.MAX_VALUE, Math.max(capacity, required));
+        ByteBuffer grown = storage == Storage.DIRECT
+                ? ByteBuffer.allocateDirect(newCapacity) : ByteBuffer.allocate(newCapacity);
+        if (buffer != null) {
+            buffer.flip();
+            grown.put(buffer);
+        }
+        buffer = grown;
+    }
+
+    // unpaired surrogates are encoded as '?', as String.getBytes does
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private void encode(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.revinate.sendgrid.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Substitution values of an {@link Email}, with one row per SMTP API recipient and one column per
+ * substitution tag.
+ * <p>
+ * Rows are added whole, so that every tag always has exactly one value per recipient. Each column
+ * is an {@code int} array of indexes into a dictionary of the distinct values, so a value repeated
+ * across recipients, such as a company name or an empty string, is held once and costs four bytes
+ * per further row. The table is written into the {@code sub} field of the SMTP API header straight
+ * from its columns.
+ */
+public final class SubstitutionTable {
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int NULL = -1;
+
+    private final List<String> tags;
+    private final Map<String, Integer> columnsByTag = new HashMap<String, Integer>();
+    private final int[][] columns;
+    private final List<String> values = new ArrayList<String>();
+    private final Map<String, Integer> valueIds = new HashMap<String, Integer>();
+    private int rowCount;
+
+    public SubstitutionTable(String... tags) {
+        this(Arrays.asList(tags));
+    }
+
+    public SubstitutionTable(List<String> tags) {
+        if (tags == null) {
+            throw new IllegalArgumentException("Tags may not be null");
+        }
+        this.tags = Collections.unmodifiableList(new ArrayList<String>(tags));
+        for (int i = 0; i < this.tags.size(); i++) {
+            String tag = this.tags.get(i);
+            if (tag == null) {
+                throw new IllegalArgumentException("Tags may not be null");
+            }
+            if (columnsByTag.put(tag, i) != null) {
+                throw new IllegalArgumentException("Duplicate tag " + tag);
+            }
+        }
+        this.columns = new int[this.tags.size()][INITIAL_ROWS];
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the number of distinct values held for all rows and tags.
+     */
+    public int getDistinctValueCount() {
+        return values.size();
+    }
+
+    /**
+     * Adds the values of a recipient, one per tag in the order of {@link #getTags()}.
+     */
+    public SubstitutionTable addRow(String... row) {
+        return addRow(Arrays.asList(row));
+    }
+
+    /**
+     * Adds the values of a recipient, one per tag in the order of {@link #getTags()}.
+     */
+    public SubstitutionTable addRow(List<String> row) {
+        if (row == null || row.size() != tags.size()) {
+            throw new IllegalArgumentException("Row must have " + tags.size() + " values, one per tag");
+        }
+        ensureCapacity(rowCount + 1);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i][rowCount] = idOf(row.get(i));
+        }
+        rowCount++;
+        return this;
+    }
+
+    /**
+     * Adds the values of several recipients. No row is added if any of them has the wrong number
+     * of values.
+     */
+    public SubstitutionTable addRows(Collection<? extends List<String>> rows) {
+        for (List<String> row : rows) {
+            if (row == null || row.size() != tags.size()) {
+                throw new IllegalArgumentException("Row must have " + tags.size() + " values, one per tag");
+            }
+        }
+        ensureCapacity(rowCount + rows.size());
+        for (List<String> row : rows) {
+            addRow(row);
+        }
+        return this;
+    }
+
+    public String get(int row, String tag) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + rowCount);
+        }
+        Integer column = columnsByTag.get(tag);
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown tag " + tag);
+        }
+        return valueOf(columns[column][row]);
+    }
+
+    /**
+     * Returns the values of the tag for all rows, or null if the table has no such tag.
+     */
+    public List<String> getColumn(String tag) {
+        Integer index = columnsByTag.get(tag);
+        if (index == null) {
+            return null;
+        }
+        List<String> column = new ArrayList<String>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            column.add(valueOf(columns[index][row]));
+        }
+        return column;
+    }
+
+    /**
+     * Returns the values of each tag, in the form of {@link Email#getSubstitutions()}.
+     */
+    public Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = new LinkedHashMap<String, List<String>>();
+        for (String tag : tags) {
+            map.put(tag, getColumn(tag));
+        }
+        return map;
+    }
+
+    /**
+     * Writes each tag as a field holding the array of its values, inside an object the caller has
+     * started.
+     */
+    void writeFields(JsonGenerator generator) throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            int[] column = columns[i];
+            generator.writeArrayFieldStart(tags.get(i));
+            for (int row = 0; row < rowCount; row++) {
+                generator.writeString(valueOf(column[row]));
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private int idOf(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        Integer id = valueIds.get(value);
+        if (id == null) {
+            id = values.size();
+            values.add(value);
+            valueIds.put(value, id);
+        }
+        return id;
+    }
+
+    private String valueOf(int id) {
+        return id == NULL ? null : values.get(id);
+    }
+
+    private void ensureCapacity(int rows) {
+        if (columns.length == 0 || rows <= columns[0].length) {
+            return;
+        }
+        int capacity = Math.max(rows, columns[0].length + (columns[0].length >> 1));
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Arrays.copyOf(columns[i], capacity);
+        }
+    }
+}
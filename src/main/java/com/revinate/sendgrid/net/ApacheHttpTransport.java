@@ -0,0 +1,39 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.IOException;
+
+public class ApacheHttpTransport implements HttpTransport {
+
+    private final CloseableHttpClient client;
+
+    public ApacheHttpTransport(String userAgent, int maxConnections) {
+        this(HttpClients.custom()
+                .setUserAgent(userAgent)
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build());
+    }
+
+    public ApacheHttpTransport(CloseableHttpClient client) {
+        this.client = client;
+    }
+
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    @Override
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+        return client.execute(request, handler);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,48 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.model.Attachment;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Multipart body part writing an {@link Attachment}. It reports the attachment length, so that a
+ * multipart entity made only of attachments of known length has a {@code Content-Length} and can
+ * be written again.
+ */
+public class AttachmentBody extends AbstractContentBody {
+
+    private final Attachment attachment;
+
+    public AttachmentBody(Attachment attachment) {
+        super(ContentType.DEFAULT_BINARY);
+        this.attachment = attachment;
+    }
+
+    public Attachment getAttachment() {
+        return attachment;
+    }
+
+    @Override
+    public String getFilename() {
+        return null;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        attachment.writeTo(out);
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    @Override
+    public long getContentLength() {
+        return attachment.getContentLength();
+    }
+}
@@ -0,0 +1,262 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.exception.CircuitBreakerOpenException;
+import org.apache.http.client.HttpResponseException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-endpoint circuit breaker for {@link SendGridHttpClient}.
+ * <p>
+ * Each endpoint keeps the outcome of its last {@code windowSize} calls. Once at least
+ * {@code minimumCalls} have been recorded and either the share of failed calls or the share of
+ * calls slower than {@code slowCallDurationMillis} reaches its threshold, the circuit opens and
+ * calls to that endpoint fail immediately with {@link CircuitBreakerOpenException}. After
+ * {@code openDurationMillis} the circuit becomes half-open and lets {@code halfOpenCalls} probe
+ * calls through; their outcome decides whether it closes again or re-opens.
+ * <p>
+ * Connection errors and 5xx responses count as failures. Other error responses say nothing about
+ * the health of the endpoint and count as successful calls.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<String, Circuit>();
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallDurationMillis;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final long openDurationMillis;
+    private final int halfOpenCalls;
+
+    private CircuitBreaker(Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDurationMillis = builder.slowCallDurationMillis;
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = builder.minimumCalls;
+        this.openDurationMillis = builder.openDurationMillis;
+        this.halfOpenCalls = builder.halfOpenCalls;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public State getState(String endpoint) {
+        return getState(endpoint, System.currentTimeMillis());
+    }
+
+    public void acquire(String endpoint) throws CircuitBreakerOpenException {
+        acquire(endpoint, System.currentTimeMillis());
+    }
+
+    public void onSuccess(String endpoint, long durationMillis) {
+        record(endpoint, durationMillis, false, System.currentTimeMillis());
+    }
+
+    public void onError(String endpoint, long durationMillis, Exception e) {
+        record(endpoint, durationMillis, isFailure(e), System.currentTimeMillis());
+    }
+
+    static boolean isFailure(Exception e) {
+        return !(e instanceof HttpResponseException) || ((HttpResponseException) e).getStatusCode() >= 500;
+    }
+
+    State getState(String endpoint, long now) {
+        Circuit circuit = circuits.get(endpoint);
+        return circuit == null ? State.CLOSED : circuit.getState(now);
+    }
+
+    void acquire(String endpoint, long now) throws CircuitBreakerOpenException {
+        if (!circuit(endpoint).tryAcquire(now)) {
+            throw new CircuitBreakerOpenException(endpoint);
+        }
+    }
+
+    void record(String endpoint, long durationMillis, boolean failed, long now) {
+        byte outcome = 0;
+        if (failed) {
+            outcome |= FAILED;
+        }
+        if (durationMillis >= slowCallDurationMillis) {
+            outcome |= SLOW;
+        }
+        circuit(endpoint).record(outcome, now);
+    }
+
+    private Circuit circuit(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            Circuit newCircuit = new Circuit();
+            circuit = circuits.putIfAbsent(endpoint, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+        return circuit;
+    }
+
+    private class Circuit {
+
+        private final byte[] outcomes = new byte[windowSize];
+        private int next;
+        private int count;
+        private int failures;
+        private int slowCalls;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int probes;
+
+        synchronized State getState(long now) {
+            if (state == State.OPEN && now - openedAt >= openDurationMillis) {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now - openedAt < openDurationMillis) {
+                        return false;
+                    }
+                    transition(State.HALF_OPEN, now);
+                    // fall through
+                default:
+                    if (probes >= halfOpenCalls) {
+                        return false;
+                    }
+                    probes++;
+                    return true;
+            }
+        }
+
+        synchronized void record(byte outcome, long now) {
+            if (state == State.OPEN) {
+                // late result of a call started before the circuit opened
+                return;
+            }
+
+            if (count == outcomes.length) {
+                remove(outcomes[next]);
+            } else {
+                count++;
+            }
+            outcomes[next] = outcome;
+            next = (next + 1) % outcomes.length;
+            if ((outcome & FAILED) != 0) {
+                failures++;
+            }
+            if ((outcome & SLOW) != 0) {
+                slowCalls++;
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (count >= halfOpenCalls) {
+                    transition(isUnhealthy() ? State.OPEN : State.CLOSED, now);
+                }
+            } else if (count >= minimumCalls && isUnhealthy()) {
+                transition(State.OPEN, now);
+            }
+        }
+
+        private boolean isUnhealthy() {
+            return failures * 100 >= failureRateThreshold * count
+                    || slowCalls * 100 >= slowCallRateThreshold * count;
+        }
+
+        private void remove(byte outcome) {
+            if ((outcome & FAILED) != 0) {
+                failures--;
+            }
+            if ((outcome & SLOW) != 0) {
+                slowCalls--;
+            }
+        }
+
+        private void transition(State state, long now) {
+            this.state = state;
+            if (state == State.OPEN) {
+                openedAt = now;
+            }
+            next = 0;
+            count = 0;
+            failures = 0;
+            slowCalls = 0;
+            probes = 0;
+        }
+    }
+
+    public static class Builder {
+
+        private int failureRateThreshold = 50;
+        private int slowCallRateThreshold = 100;
+        private long slowCallDurationMillis = 10000;
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private long openDurationMillis = 30000;
+        private int halfOpenCalls = 3;
+
+        /**
+         * Percentage of failed calls at which the circuit opens.
+         */
+        public Builder setFailureRateThreshold(int failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Percentage of slow calls at which the circuit opens.
+         */
+        public Builder setSlowCallRateThreshold(int slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        public Builder setSlowCallDurationMillis(long slowCallDurationMillis) {
+            this.slowCallDurationMillis = slowCallDurationMillis;
+            return this;
+        }
+
+        public Builder setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+            return this;
+        }
+
+        public Builder setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        public Builder setOpenDurationMillis(long openDurationMillis) {
+            this.openDurationMillis = openDurationMillis;
+            return this;
+        }
+
+        public Builder setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        public CircuitBreaker build() {
+            if (windowSize < 1 || halfOpenCalls < 1 || halfOpenCalls > windowSize) {
+                throw new IllegalArgumentException("halfOpenCalls must be between 1 and windowSize");
+            }
+            if (minimumCalls < 1 || minimumCalls > windowSize) {
+                throw new IllegalArgumentException("minimumCalls must be between 1 and windowSize");
+            }
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.entity.DeflateDecompressingEntity;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Controls gzip compression of request bodies and negotiation of compressed responses for
+ * {@link SendGridHttpClient}.
+ * <p>
+ * Request bodies of at least {@code minRequestSize} bytes, or of unknown length, are
+ * gzip-compressed while being written, optionally only for a given set of endpoints (as returned by
+ * {@link SendGridHttpClient#endpointKey}). Responses are requested with {@code Accept-Encoding}
+ * and decompressed as they are read, unless the transport has already done so.
+ */
+public class CompressionPolicy {
+
+    public static final long DEFAULT_MIN_REQUEST_SIZE = 8192;
+
+    private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private final boolean requestCompression;
+    private final long minRequestSize;
+    private final Set<String> endpoints;
+    private final boolean responseCompression;
+
+    private CompressionPolicy(Builder builder) {
+        this.requestCompression = builder.requestCompression;
+        this.minRequestSize = builder.minRequestSize;
+        this.endpoints = Collections.unmodifiableSet(new HashSet<String>(builder.endpoints));
+        this.responseCompression = builder.responseCompression;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public boolean isRequestCompression() {
+        return requestCompression;
+    }
+
+    public long getMinRequestSize() {
+        return minRequestSize;
+    }
+
+    public Set<String> getEndpoints() {
+        return endpoints;
+    }
+
+    public boolean isResponseCompression() {
+        return responseCompression;
+    }
+
+    public HttpEntity compress(String endpoint, HttpEntity entity) {
+        if (!requestCompression || entity == null || entity.getContentEncoding() != null
+                || isBelowMinRequestSize(entity)
+                || (!endpoints.isEmpty() && !endpoints.contains(endpoint))) {
+            return entity;
+        }
+        return new GzipCompressingEntity(entity);
+    }
+
+    private boolean isBelowMinRequestSize(HttpEntity entity) {
+        long length = entity.getContentLength();
+        return length >= 0 && length < minRequestSize;
+    }
+
+    public String getAcceptEncoding() {
+        return responseCompression ? ACCEPT_ENCODING : null;
+    }
+
+    public <T> ResponseHandler<T> decompress(final ResponseHandler<T> handler) {
+        if (!responseCompression) {
+            return handler;
+        }
+
+        return new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                HttpEntity entity = response.getEntity();
+                Header contentEncoding = entity == null ? null : entity.getContentEncoding();
+                if (contentEncoding != null) {
+                    String encoding = contentEncoding.getValue().trim();
+                    if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+                        response.setEntity(new GzipDecompressingEntity(entity));
+                    } else if ("deflate".equalsIgnoreCase(encoding)) {
+                        response.setEntity(new DeflateDecompressingEntity(entity));
+                    }
+                }
+                return handler.handleResponse(response);
+            }
+        };
+    }
+
+    public static class Builder {
+
+        private boolean requestCompression = true;
+        private long minRequestSize = DEFAULT_MIN_REQUEST_SIZE;
+        private Set<String> endpoints = new HashSet<String>();
+        private boolean responseCompression = true;
+
+        public Builder setRequestCompression(boolean requestCompression) {
+            this.requestCompression = requestCompression;
+            return this;
+        }
+
+        public Builder setMinRequestSize(long minRequestSize) {
+            this.minRequestSize = minRequestSize;
+            return this;
+        }
+
+        /**
+         * Restricts request compression to the given endpoints, e.g. {@code /api/mail.send.json}.
+         */
+        public Builder setEndpoints(Collection<String> endpoints) {
+            this.endpoints = new HashSet<String>(endpoints);
+            return this;
+        }
+
+        public Builder addEndpoint(String endpoint) {
+            endpoints.add(endpoint);
+            return this;
+        }
+
+        public Builder setResponseCompression(boolean responseCompression) {
+            this.responseCompression = responseCompression;
+            return this;
+        }
+
+        public CompressionPolicy build() {
+            return new CompressionPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.revinate.sendgrid.net;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.revinate.sendgrid.model.ApiError;
+import com.revinate.sendgrid.model.ApiErrorsResponse;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.util.JsonUtils;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes an error response body in a single pass. The body is parsed into a tree once and its
+ * shape decides how it is read: an {@link ApiErrorsResponse} (v3, {@code errors} is a list of
+ * objects), a {@link Response} (v2, {@code message} plus a list of strings), or plain text. The
+ * message is formatted like the {@code toString} of the matching model, while the
+ * {@link ApiError}s are only created when the list is accessed.
+ */
+final class ErrorResponse {
+
+    private static final String MESSAGE = "message";
+    private static final String ERRORS = "errors";
+    private static final String FIELD = "field";
+
+    private final String message;
+    private final List<ApiError> errors;
+
+    private ErrorResponse(String message, List<ApiError> errors) {
+        this.message = message;
+        this.errors = errors;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    List<ApiError> getErrors() {
+        return errors;
+    }
+
+    static ErrorResponse parse(String responseBody) {
+        JsonNode root = null;
+        if (startsWithObject(responseBody)) {
+            try {
+                root = JsonUtils.readTree(responseBody);
+            } catch (IOException e) {
+                // not JSON, fall through to plain text
+            }
+        }
+
+        if (root != null && root.isObject()) {
+            JsonNode errors = root.get(ERRORS);
+            JsonNode message = root.get(MESSAGE);
+            boolean hasMessage = message != null && !message.isNull();
+            if (errors == null || errors.isNull()) {
+                if (!hasMessage) {
+                    return new ErrorResponse("No errors", Collections.<ApiError>emptyList());
+                } else if (message.isValueNode()) {
+                    return new ErrorResponse(message.asText(), Collections.<ApiError>emptyList());
+                }
+            } else if (errors.isArray()) {
+                ErrorShape shape = shapeOf(errors);
+                if (shape == ErrorShape.EMPTY && hasMessage && message.isValueNode()) {
+                    return new ErrorResponse(message.asText(), Collections.<ApiError>emptyList());
+                } else if (shape == ErrorShape.OBJECTS || shape == ErrorShape.EMPTY) {
+                    return apiErrorsResponse(errors);
+                } else if (shape == ErrorShape.VALUES && (!hasMessage || message.isValueNode())) {
+                    return response(hasMessage ? message.asText() : null, errors);
+                }
+            }
+        }
+
+        return new ErrorResponse(responseBody, Collections.<ApiError>emptyList());
+    }
+
+    private static boolean startsWithObject(String responseBody) {
+        if (responseBody == null) {
+            return false;
+        }
+        for (int i = 0; i < responseBody.length(); i++) {
+            char c = responseBody.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    private enum ErrorShape {
+        EMPTY, OBJECTS, VALUES, MIXED
+    }
+
+    private static ErrorShape shapeOf(JsonNode errors) {
+        boolean objects = false;
+        boolean values = false;
+        for (JsonNode error : errors) {
+            if (error.isObject()) {
+                objects = true;
+            } else if (error.isValueNode() && !error.isNull()) {
+                values = true;
+            } else if (!error.isNull()) {
+                return ErrorShape.MIXED;
+            }
+        }
+
+        if (objects && values) {
+            return ErrorShape.MIXED;
+        } else if (objects) {
+            return ErrorShape.OBJECTS;
+        }
+        return values ? ErrorShape.VALUES : ErrorShape.EMPTY;
+    }
+
+    private static ErrorResponse apiErrorsResponse(JsonNode errors) {
+        List<JsonNode> nodes = nonNull(errors);
+        String message;
+        if (nodes.isEmpty()) {
+            message = "No errors";
+        } else if (nodes.size() == 1) {
+            message = formatApiError(nodes.get(0));
+        } else {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Multiple errors:\n");
+            for (JsonNode node : nodes) {
+                sb.append("\t").append(formatApiError(node)).append("\n");
+            }
+            message = sb.toString();
+        }
+        return new ErrorResponse(message, new LazyApiErrors(nodes, true));
+    }
+
+    private static ErrorResponse response(String message, JsonNode errors) {
+        List<JsonNode> nodes = nonNull(errors);
+        String fullMessage;
+        if (nodes.isEmpty()) {
+            fullMessage = message;
+        } else if (nodes.size() == 1) {
+            fullMessage = message + ": " + nodes.get(0).asText();
+        } else {
+            StringBuilder sb = new StringBuilder();
+            sb.append(message).append(":\n");
+            for (JsonNode node : nodes) {
+                sb.append("\t").append(node.asText()).append("\n");
+            }
+            fullMessage = sb.toString();
+        }
+        return new ErrorResponse(fullMessage, new LazyApiErrors(nodes, false));
+    }
+
+    private static String formatApiError(JsonNode node) {
+        String field = text(node, FIELD);
+        String message = text(node, MESSAGE);
+        return field == null ? message : "field \"" + field + "\": " + message;
+    }
+
+    private static String text(JsonNode node, String name) {
+        JsonNode value = node.get(name);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        return value.isValueNode() ? value.asText() : value.toString();
+    }
+
+    private static List<JsonNode> nonNull(JsonNode errors) {
+        List<JsonNode> nodes = new ArrayList<JsonNode>(errors.size());
+        for (JsonNode error : errors) {
+            if (!error.isNull()) {
+                nodes.add(error);
+            }
+        }
+        return nodes;
+    }
+
+    private static class LazyApiErrors extends AbstractList<ApiError> {
+
+        private final List<JsonNode> nodes;
+        private final boolean objects;
+        private final ApiError[] errors;
+
+        LazyApiErrors(List<JsonNode> nodes, boolean objects) {
+            this.nodes = nodes;
+            this.objects = objects;
+            this.errors = new ApiError[nodes.size()];
+        }
+
+        @Override
+        public synchronized ApiError get(int index) {
+            ApiError error = errors[index];
+            if (error == null) {
+                JsonNode node = nodes.get(index);
+                if (objects) {
+                    error = new ApiError(text(node, MESSAGE));
+                    error.setField(text(node, FIELD));
+                } else {
+                    error = new ApiError(node.asText());
+                }
+                errors[index] = error;
+            }
+            return error;
+        }
+
+        @Override
+        public int size() {
+            return nodes.size();
+        }
+    }
+}
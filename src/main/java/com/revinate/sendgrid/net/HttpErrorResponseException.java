@@ -0,0 +1,33 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.Header;
+import org.apache.http.client.HttpResponseException;
+
+/**
+ * {@link HttpResponseException} that also keeps the headers of the failed response, so that
+ * hints such as {@code Retry-After} can be acted upon.
+ */
+public class HttpErrorResponseException extends HttpResponseException {
+
+    private static final Header[] NO_HEADERS = new Header[0];
+
+    private final Header[] headers;
+
+    public HttpErrorResponseException(int statusCode, String responseBody, Header[] headers) {
+        super(statusCode, responseBody);
+        this.headers = headers == null ? NO_HEADERS : headers;
+    }
+
+    public Header[] getHeaders() {
+        return headers.clone();
+    }
+
+    public Header getFirstHeader(String name) {
+        for (Header header : headers) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header;
+            }
+        }
+        return null;
+    }
+}
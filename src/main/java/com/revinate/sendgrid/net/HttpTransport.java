@@ -0,0 +1,20 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Engine that carries requests built by {@link SendGridHttpClient} to SendGrid. A request supplies
+ * the method, URL, headers and an entity that writes the body; the response is handed to the
+ * handler with its body as a stream, which the transport releases once the handler returns.
+ * <p>
+ * Implementations must be thread-safe. If a transport supports aborting requests in flight, it
+ * should register a {@link org.apache.http.concurrent.Cancellable} on requests that accept one.
+ */
+public interface HttpTransport extends Closeable {
+
+    <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException;
+}
@@ -0,0 +1,98 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.net.JsonHttpEntity.BoundedOutputStream;
+import com.revinate.sendgrid.net.JsonHttpEntity.BufferLimitExceededException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Multipart text part whose JSON content is serialized straight onto the output stream each time
+ * it is written.
+ * <p>
+ * When the length is first asked for, the content is serialized into a buffer of at most
+ * {@code bufferSize} bytes, which is then kept and written as is. Larger content is serialized once
+ * more only to count its bytes, and again on every write, so that the multipart body keeps its
+ * {@code Content-Length} without holding the whole part in memory.
+ */
+abstract class JsonBody extends AbstractContentBody {
+
+    private final int bufferSize;
+    private byte[] buffered;
+    private long length = -1;
+    private boolean sized;
+
+    JsonBody(ContentType contentType, int bufferSize) {
+        super(contentType);
+        this.bufferSize = bufferSize;
+    }
+
+    protected abstract void writeJson(OutputStream out) throws IOException;
+
+    @Override
+    public String getFilename() {
+        return null;
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_8BIT;
+    }
+
+    @Override
+    public long getContentLength() {
+        if (!sized) {
+            sized = true;
+            BoundedOutputStream out = new BoundedOutputStream(bufferSize);
+            try {
+                writeJson(out);
+                buffered = out.toByteArray();
+                length = buffered.length;
+            } catch (BufferLimitExceededException e) {
+                length = countLength();
+            } catch (IOException e) {
+                // the limit may also surface wrapped by the serializer
+                length = e.getCause() instanceof BufferLimitExceededException ? countLength() : -1;
+            }
+        }
+        return length;
+    }
+
+    private long countLength() {
+        CountingOutputStream out = new CountingOutputStream();
+        try {
+            writeJson(out);
+            return out.count;
+        } catch (IOException e) {
+            // errors resurface when written
+            return -1;
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (buffered != null) {
+            out.write(buffered);
+        } else {
+            writeJson(out);
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.util.JsonUtils;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Repeatable entity that serializes its content as JSON straight onto the output stream each time
+ * it is written, instead of holding the body as a {@code String}.
+ * <p>
+ * The content length is only known for small bodies: when it is first asked for, the content is
+ * serialized into a buffer of at most {@code bufferSize} bytes, which is then kept and written as
+ * is. Larger bodies report an unknown length, are sent chunked, and are serialized again on every
+ * write.
+ */
+public class JsonHttpEntity extends AbstractHttpEntity {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Object content;
+    private final int bufferSize;
+    private byte[] buffered;
+    private boolean sized;
+
+    public JsonHttpEntity(Object content) {
+        this(content, DEFAULT_BUFFER_SIZE);
+    }
+
+    public JsonHttpEntity(Object content, int bufferSize) {
+        if (content == null) {
+            throw new IllegalArgumentException("Content may not be null");
+        }
+        this.content = content;
+        this.bufferSize = bufferSize;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    public Object getJsonContent() {
+        return content;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        if (!sized) {
+            sized = true;
+            BoundedOutputStream out = new BoundedOutputStream(bufferSize);
+            try {
+                JsonUtils.writeJson(out, content);
+                buffered = out.toByteArray();
+            } catch (BufferLimitExceededException e) {
+                // streamed when sent
+            } catch (IOException e) {
+                // also thrown when the limit is hit while serializing; errors resurface when sent
+            }
+        }
+        return buffered == null ? -1 : buffered.length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (buffered != null) {
+            return new ByteArrayInputStream(buffered);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonUtils.writeJson(out, content);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        if (buffered != null) {
+            out.write(buffered);
+            out.flush();
+        } else {
+            JsonUtils.writeJson(out, content);
+        }
+    }
+
+    static class BoundedOutputStream extends ByteArrayOutputStream {
+
+        private final int limit;
+
+        BoundedOutputStream(int limit) {
+            super(Math.min(limit, 512));
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            super.write(b, off, len);
+        }
+
+        private void ensureCapacity(int len) {
+            if (count + len > limit) {
+                throw new BufferLimitExceededException();
+            }
+        }
+    }
+
+    static class BufferLimitExceededException extends RuntimeException {
+    }
+}
@@ -1,9 +1,6 @@
 package com.revinate.sendgrid.net;
 
-import com.revinate.sendgrid.util.JsonUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.client.entity.EntityBuilder;
-import org.apache.http.entity.ContentType;
 
 import java.io.IOException;
 
@@ -24,7 +21,6 @@ public class JsonHttpEntityBuilder extends HttpEntityBuilder {
         if (content == null) {
             throw new IOException("Content is null");
         }
-        return EntityBuilder.create().setText(JsonUtils.toJson(content))
-                .setContentType(ContentType.APPLICATION_JSON).build();
+        return new JsonHttpEntity(content);
     }
 }
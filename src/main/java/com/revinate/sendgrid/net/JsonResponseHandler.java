@@ -0,0 +1,55 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.util.JsonUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes successful responses straight from the entity stream into the target type, without
+ * buffering the body. Only error responses are read into memory, since they are needed in full
+ * to build the resulting {@link HttpErrorResponseException}. A {@code Void} target type discards
+ * the body.
+ *
+ * @param <T> type the response body is mapped to
+ */
+public class JsonResponseHandler<T> implements ResponseHandler<T> {
+
+    private final Class<T> type;
+
+    public JsonResponseHandler(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public T handleResponse(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode < 200 || statusCode >= 300) {
+            String responseBody = null;
+            if (entity != null) {
+                responseBody = EntityUtils.toString(entity);
+            }
+            throw new HttpErrorResponseException(statusCode, responseBody, response.getAllHeaders());
+        }
+
+        if (entity == null) {
+            return null;
+        } else if (type == Void.class) {
+            EntityUtils.consume(entity);
+            return null;
+        }
+
+        InputStream content = entity.getContent();
+        try {
+            return JsonUtils.fromJson(content, type);
+        } finally {
+            content.close();
+        }
+    }
+}
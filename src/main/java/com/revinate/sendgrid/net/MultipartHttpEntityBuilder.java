@@ -1,13 +1,16 @@
 package com.revinate.sendgrid.net;
 
+import com.revinate.sendgrid.model.Attachment;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.RecipientList;
 import com.revinate.sendgrid.net.auth.UsernamePasswordCredential;
 import org.apache.http.HttpEntity;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.List;
+import java.io.OutputStream;
 import java.util.Map;
 
 public class MultipartHttpEntityBuilder extends HttpEntityBuilder {
@@ -52,20 +55,21 @@ public class MultipartHttpEntityBuilder extends HttpEntityBuilder {
         return builder.build();
     }
 
-    private HttpEntity buildEmail() {
+    private HttpEntity buildEmail() throws IOException {
+        final Email email = this.email;
         MultipartEntityBuilder builder = multipartEntityBuilder();
 
         // If SMTP API Header is used, To is still required. #workaround.
-        if (email.getTos().isEmpty()) {
+        if (email.getTosView().isEmpty()) {
             addTextBody(builder, PARAM_TO, email.getFrom());
         }
 
-        addTextBodies(builder, PARAM_TO, email.getTos());
-        addTextBodies(builder, PARAM_TONAME, email.getToNames());
-        addTextBodies(builder, PARAM_CC, email.getCcs());
-        addTextBodies(builder, PARAM_CCNAME, email.getCcNames());
-        addTextBodies(builder, PARAM_BCC, email.getBccs());
-        addTextBodies(builder, PARAM_BCCNAME, email.getBccNames());
+        addTextBodies(builder, PARAM_TO, email.getTosView());
+        addTextBodies(builder, PARAM_TONAME, email.getToNamesView());
+        addTextBodies(builder, PARAM_CC, email.getCcsView());
+        addTextBodies(builder, PARAM_CCNAME, email.getCcNamesView());
+        addTextBodies(builder, PARAM_BCC, email.getBccsView());
+        addTextBodies(builder, PARAM_BCCNAME, email.getBccNamesView());
         addTextBody(builder, PARAM_FROM, email.getFrom());
         addTextBody(builder, PARAM_FROMNAME, email.getFromName());
         addTextBody(builder, PARAM_REPLYTO, email.getReplyTo());
@@ -73,25 +77,46 @@ public class MultipartHttpEntityBuilder extends HttpEntityBuilder {
         addTextBody(builder, PARAM_TEXT, email.getText());
         addTextBody(builder, PARAM_HTML, email.getHtml());
 
-        for (Map.Entry<String, InputStream> entry : email.getAttachments().entrySet()) {
-            builder.addBinaryBody(String.format(PARAM_FILES, entry.getKey()), entry.getValue());
+        boolean repeatable = true;
+        for (Map.Entry<String, Attachment> entry : email.getAttachmentSourcesView().entrySet()) {
+            repeatable &= entry.getValue().isRepeatable();
+            builder.addPart(String.format(PARAM_FILES, entry.getKey()), new AttachmentBody(entry.getValue()));
         }
 
-        for (Map.Entry<String, String> entry : email.getContentIds().entrySet()) {
+        for (Map.Entry<String, String> entry : email.getContentIdsView().entrySet()) {
             builder.addTextBody(String.format(PARAM_CONTENTS, entry.getKey()), entry.getValue());
         }
 
-        String headers = email.toHeaders();
-        if (!"{}".equals(headers)) {
-            builder.addTextBody(PARAM_HEADERS, headers, TEXT_PLAIN_UTF8);
+        if (email.hasHeaders()) {
+            builder.addPart(PARAM_HEADERS, new JsonBody(TEXT_PLAIN_UTF8, JsonHttpEntity.DEFAULT_BUFFER_SIZE) {
+                @Override
+                protected void writeJson(OutputStream out) throws IOException {
+                    email.writeHeaders(out);
+                }
+            });
         }
 
-        String smtpApiHeader = email.toSmtpApiHeader();
-        if (!"{}".equals(smtpApiHeader)) {
-            builder.addTextBody(PARAM_XSMTPAPI, smtpApiHeader, TEXT_PLAIN_UTF8);
+        if (email.hasSmtpApiHeader()) {
+            builder.addPart(PARAM_XSMTPAPI, new JsonBody(TEXT_PLAIN_UTF8, JsonHttpEntity.DEFAULT_BUFFER_SIZE) {
+                @Override
+                protected void writeJson(OutputStream out) throws IOException {
+                    email.writeSmtpApiHeader(out);
+                }
+            });
         }
 
-        return builder.build();
+        // the multipart entity only knows itself to be repeatable when its length is known
+        HttpEntity entity;
+        try {
+            entity = builder.build();
+        } catch (IllegalStateException e) {
+            // the parts are first serialized here, to size them
+            throw new IOException(e.getMessage(), e);
+        }
+        if (repeatable && !entity.isRepeatable()) {
+            return new RepeatableEntity(entity);
+        }
+        return entity;
     }
 
     private MultipartEntityBuilder multipartEntityBuilder() {
@@ -106,9 +131,11 @@ public class MultipartHttpEntityBuilder extends HttpEntityBuilder {
         return builder;
     }
 
-    private void addTextBodies(MultipartEntityBuilder builder, String name, List<String> texts) {
-        for (String text : texts) {
-            addTextBody(builder, name, text);
+    private void addTextBodies(MultipartEntityBuilder builder, String name, RecipientList texts) {
+        for (int i = 0; i < texts.size(); i++) {
+            if (texts.getByteLength(i) > 0) {
+                builder.addPart(name, new RecipientBody(texts, i, TEXT_PLAIN_UTF8));
+            }
         }
     }
 
@@ -117,4 +144,16 @@ public class MultipartHttpEntityBuilder extends HttpEntityBuilder {
             builder.addTextBody(name, text, TEXT_PLAIN_UTF8);
         }
     }
+
+    private static class RepeatableEntity extends HttpEntityWrapper {
+
+        RepeatableEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+    }
 }
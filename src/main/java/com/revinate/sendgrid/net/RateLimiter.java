@@ -0,0 +1,165 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.RateLimitExceededException;
+import com.revinate.sendgrid.exception.SendGridException;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Client-side rate limiter that learns the limits of each endpoint from the
+ * {@code X-RateLimit-Limit}, {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} headers
+ * returned by SendGrid.
+ * <p>
+ * Until an endpoint has reported its limits, requests to it are not delayed. Afterwards, the
+ * remaining requests of the current window are spread evenly until the window resets, so bursts
+ * are turned into a steady rate instead of a run of 429 responses. A request that would have to
+ * wait longer than the configured maximum fails with {@link RateLimitExceededException} without
+ * reaching the server.
+ */
+public class RateLimiter {
+
+    public static final String LIMIT_HEADER = "X-RateLimit-Limit";
+    public static final String REMAINING_HEADER = "X-RateLimit-Remaining";
+    public static final String RESET_HEADER = "X-RateLimit-Reset";
+
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 10000;
+
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+    private final long maxWaitMillis;
+
+    public RateLimiter() {
+        this(DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    public RateLimiter(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Blocks until a request to the given endpoint may be made.
+     *
+     * @param endpoint endpoint key, as returned by {@link SendGridHttpClient#endpointKey}
+     * @throws RateLimitExceededException if the wait would exceed the maximum wait
+     * @throws ApiConnectionException if interrupted while waiting
+     */
+    public void acquire(String endpoint) throws SendGridException {
+        long wait = reserve(endpoint, System.currentTimeMillis());
+        if (wait <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Interrupted while waiting for rate limit", e);
+        }
+    }
+
+    public void update(String endpoint, HttpResponse response) {
+        Integer limit = intHeader(response, LIMIT_HEADER);
+        Integer remaining = intHeader(response, REMAINING_HEADER);
+        Integer reset = intHeader(response, RESET_HEADER);
+        if (limit == null || remaining == null || reset == null) {
+            return;
+        }
+
+        bucket(endpoint).update(remaining, reset * 1000L);
+    }
+
+    public <T> ResponseHandler<T> track(final String endpoint, final ResponseHandler<T> handler) {
+        return new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                update(endpoint, response);
+                return handler.handleResponse(response);
+            }
+        };
+    }
+
+    long reserve(String endpoint, long now) throws RateLimitExceededException {
+        Bucket bucket = buckets.get(endpoint);
+        if (bucket == null) {
+            return 0;
+        }
+
+        return bucket.reserve(endpoint, now, maxWaitMillis);
+    }
+
+    private Bucket bucket(String endpoint) {
+        Bucket bucket = buckets.get(endpoint);
+        if (bucket == null) {
+            Bucket newBucket = new Bucket();
+            bucket = buckets.putIfAbsent(endpoint, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    private static Integer intHeader(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+
+        try {
+            return Integer.valueOf(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static class Bucket {
+
+        private int remaining;
+        private long resetAt;
+        private long nextAt;
+
+        synchronized void update(int remaining, long resetAt) {
+            // responses may arrive out of order; the server count only wins within the same window
+            if (resetAt != this.resetAt || remaining < this.remaining) {
+                this.remaining = remaining;
+            }
+            this.resetAt = resetAt;
+        }
+
+        synchronized long reserve(String endpoint, long now, long maxWaitMillis)
+                throws RateLimitExceededException {
+            if (now >= resetAt) {
+                // the window has rolled over, allow requests until the server reports again
+                return 0;
+            }
+
+            long at = Math.max(now, nextAt);
+            if (remaining <= 0) {
+                at = Math.max(at, resetAt);
+            }
+
+            long wait = at - now;
+            if (wait > maxWaitMillis) {
+                throw new RateLimitExceededException(
+                        "Rate limit exceeded for " + endpoint + ", retry in " + wait + " ms", wait);
+            }
+
+            if (remaining > 0) {
+                nextAt = at + (resetAt - at) / remaining;
+                remaining--;
+            } else {
+                nextAt = at;
+            }
+            return wait;
+        }
+    }
+}
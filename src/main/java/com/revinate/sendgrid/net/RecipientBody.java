@@ -0,0 +1,45 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.model.RecipientList;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Multipart text part writing an entry of a {@link RecipientList} straight from its UTF-8 bytes.
+ * It writes the same part as a UTF-8 {@code StringBody} without copying the entry.
+ */
+class RecipientBody extends AbstractContentBody {
+
+    private final RecipientList recipients;
+    private final int index;
+
+    RecipientBody(RecipientList recipients, int index, ContentType contentType) {
+        super(contentType);
+        this.recipients = recipients;
+        this.index = index;
+    }
+
+    @Override
+    public String getFilename() {
+        return null;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        recipients.writeTo(index, out);
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_8BIT;
+    }
+
+    @Override
+    public long getContentLength() {
+        return recipients.getByteLength(index);
+    }
+}
@@ -0,0 +1,317 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.util.DaemonThreadFactory;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedges idempotent requests: if a request has not completed after the configured percentile of
+ * recent latencies for its endpoint, an identical request is sent on another pooled connection and
+ * whichever completes first wins. The other one is aborted.
+ * <p>
+ * Hedging is budgeted: at most {@code maxExtraLoadPercent} percent of requests are hedged. Until
+ * an endpoint has {@code minSamples} latencies on record, its requests are sent on the calling
+ * thread without hedging. Otherwise both copies run on the executor while the calling thread waits
+ * for the winner; a request the executor has no thread for is sent on the calling thread, and a
+ * hedge it has no thread for is not sent.
+ * <p>
+ * The percentile of each endpoint is recomputed every 16 latencies rather than on every request.
+ */
+public class RequestHedger implements Closeable {
+
+    private static final int LATENCY_WINDOW = 128;
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    private final ConcurrentMap<String, Latencies> latencies = new ConcurrentHashMap<String, Latencies>();
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final double percentile;
+    private final long minDelayMillis;
+    private final int maxExtraLoadPercent;
+    private final int minSamples;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hedgedCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    private RequestHedger(Builder builder) {
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownsExecutor = false;
+        } else {
+            this.executor = new ThreadPoolExecutor(0, builder.maxThreads, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DaemonThreadFactory("sendgrid-hedge-"));
+            this.ownsExecutor = true;
+        }
+        this.percentile = builder.percentile;
+        this.minDelayMillis = builder.minDelayMillis;
+        this.maxExtraLoadPercent = builder.maxExtraLoadPercent;
+        this.minSamples = builder.minSamples;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    public <T> T execute(HttpTransport transport, String endpoint, HttpUriRequest request, HttpUriRequest hedge,
+                         ResponseHandler<? extends T> handler) throws IOException {
+        requestCount.incrementAndGet();
+        Latencies endpointLatencies = latencies(endpoint);
+        long delay = endpointLatencies.getDelay();
+        long startTime = System.currentTimeMillis();
+        if (delay < 0) {
+            return executeDirectly(transport, request, handler, endpointLatencies, startTime);
+        }
+
+        CompletionService<T> completionService = new ExecutorCompletionService<T>(executor);
+        Future<T> primary;
+        try {
+            primary = completionService.submit(new Call<T>(transport, request, handler));
+        } catch (RejectedExecutionException e) {
+            return executeDirectly(transport, request, handler, endpointLatencies, startTime);
+        }
+        Future<T> secondary = null;
+
+        try {
+            Future<T> done = completionService.poll(Math.max(delay, minDelayMillis), TimeUnit.MILLISECONDS);
+            if (done == null && tryAcquireBudget()) {
+                try {
+                    secondary = completionService.submit(new Call<T>(transport, hedge, handler));
+                } catch (RejectedExecutionException e) {
+                    hedgedCount.decrementAndGet();
+                }
+            }
+            if (done == null) {
+                done = completionService.take();
+            }
+
+            Future<T> other = done == primary ? secondary : primary;
+            T result;
+            try {
+                result = done.get();
+            } catch (ExecutionException e) {
+                if (other == null) {
+                    throw e;
+                }
+                // the first copy failed, the other one may still succeed
+                done = completionService.take();
+                other = null;
+                result = done.get();
+            }
+
+            endpointLatencies.add(System.currentTimeMillis() - startTime);
+            if (done == secondary) {
+                hedgeWinCount.incrementAndGet();
+            }
+            if (other != null) {
+                abort(other, other == primary ? request : hedge);
+            }
+            return result;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            abort(primary, request);
+            if (secondary != null) {
+                abort(secondary, hedge);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response");
+        }
+    }
+
+    private static <T> T executeDirectly(HttpTransport transport, HttpUriRequest request,
+                                         ResponseHandler<? extends T> handler, Latencies endpointLatencies,
+                                         long startTime) throws IOException {
+        T result = transport.execute(request, handler);
+        endpointLatencies.add(System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    private boolean tryAcquireBudget() {
+        while (true) {
+            long hedged = hedgedCount.get();
+            if ((hedged + 1) * 100 > requestCount.get() * maxExtraLoadPercent) {
+                return false;
+            }
+            if (hedgedCount.compareAndSet(hedged, hedged + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Latencies latencies(String endpoint) {
+        Latencies endpointLatencies = latencies.get(endpoint);
+        if (endpointLatencies == null) {
+            Latencies newLatencies = new Latencies(percentile, minSamples);
+            endpointLatencies = latencies.putIfAbsent(endpoint, newLatencies);
+            if (endpointLatencies == null) {
+                endpointLatencies = newLatencies;
+            }
+        }
+        return endpointLatencies;
+    }
+
+    private static void abort(Future<?> future, HttpUriRequest request) {
+        request.abort();
+        future.cancel(true);
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static class Call<T> implements Callable<T> {
+
+        private final HttpTransport transport;
+        private final HttpUriRequest request;
+        private final ResponseHandler<? extends T> handler;
+
+        Call(HttpTransport transport, HttpUriRequest request, ResponseHandler<? extends T> handler) {
+            this.transport = transport;
+            this.request = request;
+            this.handler = handler;
+        }
+
+        @Override
+        public T call() throws IOException {
+            return transport.execute(request, handler);
+        }
+    }
+
+    private static class Latencies {
+
+        private final double percentile;
+        private final int minSamples;
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private final long[] sorted = new long[LATENCY_WINDOW];
+        private int next;
+        private int count;
+        private int added;
+        private volatile long delay = -1;
+
+        Latencies(double percentile, int minSamples) {
+            this.percentile = percentile;
+            this.minSamples = minSamples;
+        }
+
+        long getDelay() {
+            return delay;
+        }
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+            added++;
+            if (count == minSamples || (count > minSamples && added % RECOMPUTE_INTERVAL == 0)) {
+                System.arraycopy(samples, 0, sorted, 0, count);
+                Arrays.sort(sorted, 0, count);
+                int index = (int) Math.ceil(percentile / 100 * count) - 1;
+                delay = sorted[Math.max(0, Math.min(count - 1, index))];
+            }
+        }
+    }
+
+    public static class Builder {
+
+        private ExecutorService executor;
+        private int maxThreads = 64;
+        private double percentile = 95;
+        private long minDelayMillis = 10;
+        private int maxExtraLoadPercent = 5;
+        private int minSamples = 20;
+
+        /**
+         * Executor running the requests. By default a pool of at most {@code maxThreads} daemon
+         * threads is created and shut down when the client is closed.
+         */
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maximum number of threads of the default executor. Requests beyond it are sent on the
+         * calling thread without hedging.
+         */
+        public Builder setMaxThreads(int maxThreads) {
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * Percentile of recent latencies after which a request is hedged.
+         */
+        public Builder setPercentile(double percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        public Builder setMinDelayMillis(long minDelayMillis) {
+            this.minDelayMillis = minDelayMillis;
+            return this;
+        }
+
+        /**
+         * Maximum share of requests that may be hedged, in percent.
+         */
+        public Builder setMaxExtraLoadPercent(int maxExtraLoadPercent) {
+            this.maxExtraLoadPercent = maxExtraLoadPercent;
+            return this;
+        }
+
+        public Builder setMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        public RequestHedger build() {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be greater than 0 and at most 100");
+            }
+            if (maxThreads < 1) {
+                throw new IllegalArgumentException("maxThreads must be at least 1");
+            }
+            if (minSamples < 1 || minSamples > LATENCY_WINDOW) {
+                throw new IllegalArgumentException("minSamples must be between 1 and " + LATENCY_WINDOW);
+            }
+            return new RequestHedger(this);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.revinate.sendgrid.net;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.*;
+import org.apache.http.client.utils.DateUtils;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Decides whether and when a failed request made by {@link SendGridHttpClient} is attempted again.
+ * <p>
+ * Only idempotent methods are retried unless {@link Builder#setRetryNonIdempotent} is enabled,
+ * in which case requests that the caller explicitly marked as safe to replay (such as
+ * {@code MailResource.send}) are retried as well. Requests whose entity cannot be repeated are
+ * never retried.
+ * <p>
+ * Delays follow the "decorrelated jitter" scheme: each delay is drawn uniformly between the base
+ * delay and three times the previous delay, capped at the maximum delay. A {@code Retry-After}
+ * header on a 429 or 503 response raises the delay to at least the requested value; if the server
+ * asks for more than the maximum delay, the request is not retried. When a deadline is set, no
+ * attempt is started and no delay is scheduled past it, measured from the first attempt.
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy NONE = new Builder().setMaxAttempts(1).build();
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<String>(Arrays.asList(
+            HttpGet.METHOD_NAME, HttpHead.METHOD_NAME, HttpOptions.METHOD_NAME,
+            HttpPut.METHOD_NAME, HttpDelete.METHOD_NAME));
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+    private final Set<Integer> retryableStatusCodes;
+    private final boolean retryConnectionErrors;
+    private final boolean retryNonIdempotent;
+    private final Random random;
+
+    private RetryPolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayMillis = builder.baseDelayMillis;
+        this.maxDelayMillis = builder.maxDelayMillis;
+        this.deadlineMillis = builder.deadlineMillis;
+        this.retryableStatusCodes = Collections.unmodifiableSet(new HashSet<Integer>(builder.retryableStatusCodes));
+        this.retryConnectionErrors = builder.retryConnectionErrors;
+        this.retryNonIdempotent = builder.retryNonIdempotent;
+        this.random = builder.random;
+    }
+
+    public static Builder create() {
+        return new Builder();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    public boolean isRetryConnectionErrors() {
+        return retryConnectionErrors;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public boolean isRetryable(String method, boolean replayable) {
+        return maxAttempts > 1 && (IDEMPOTENT_METHODS.contains(method) || (replayable && retryNonIdempotent));
+    }
+
+    public boolean isRetryable(IOException e) {
+        if (e instanceof HttpResponseException) {
+            return retryableStatusCodes.contains(((HttpResponseException) e).getStatusCode());
+        } else if (e instanceof JsonProcessingException || e instanceof ClientProtocolException) {
+            return false;
+        } else {
+            return retryConnectionErrors;
+        }
+    }
+
+    /**
+     * Returns the delay before the next attempt, or -1 if the request should not be retried
+     * because the server asked for a longer wait than this policy allows.
+     *
+     * @param previousDelayMillis delay before the previous attempt, 0 for the first retry
+     * @param e failure of the previous attempt
+     * @return delay in milliseconds, or -1
+     */
+    public long nextDelayMillis(long previousDelayMillis, IOException e) {
+        long upper = Math.min(maxDelayMillis, Math.max(baseDelayMillis, previousDelayMillis * 3));
+        long delay = baseDelayMillis;
+        if (upper > baseDelayMillis) {
+            delay += (long) (random.nextDouble() * (upper - baseDelayMillis));
+        }
+
+        long retryAfter = retryAfterMillis(e);
+        if (retryAfter > maxDelayMillis) {
+            return -1;
+        }
+        return Math.max(delay, retryAfter);
+    }
+
+    static long retryAfterMillis(IOException e) {
+        if (!(e instanceof HttpErrorResponseException)) {
+            return -1;
+        }
+
+        HttpErrorResponseException responseException = (HttpErrorResponseException) e;
+        int statusCode = responseException.getStatusCode();
+        if (statusCode != 429 && statusCode != 503) {
+            return -1;
+        }
+
+        Header header = responseException.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e1) {
+            Date date = DateUtils.parseDate(value);
+            if (date == null) {
+                return -1;
+            }
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    public static class Builder {
+
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+        private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+        private long deadlineMillis;
+        private Set<Integer> retryableStatusCodes = new HashSet<Integer>(Arrays.asList(429, 500, 502, 503, 504));
+        private boolean retryConnectionErrors = true;
+        private boolean retryNonIdempotent;
+        private Random random = new Random();
+
+        public Builder setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public Builder setBaseDelayMillis(long baseDelayMillis) {
+            this.baseDelayMillis = baseDelayMillis;
+            return this;
+        }
+
+        public Builder setMaxDelayMillis(long maxDelayMillis) {
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Total time budget across all attempts and delays, 0 for none.
+         */
+        public Builder setDeadlineMillis(long deadlineMillis) {
+            this.deadlineMillis = deadlineMillis;
+            return this;
+        }
+
+        public Builder setRetryableStatusCodes(Collection<Integer> statusCodes) {
+            this.retryableStatusCodes = new HashSet<Integer>(statusCodes);
+            return this;
+        }
+
+        public Builder addRetryableStatusCode(int statusCode) {
+            retryableStatusCodes.add(statusCode);
+            return this;
+        }
+
+        public Builder removeRetryableStatusCode(int statusCode) {
+            retryableStatusCodes.remove(statusCode);
+            return this;
+        }
+
+        public Builder setRetryConnectionErrors(boolean retryConnectionErrors) {
+            this.retryConnectionErrors = retryConnectionErrors;
+            return this;
+        }
+
+        public Builder setRetryNonIdempotent(boolean retryNonIdempotent) {
+            this.retryNonIdempotent = retryNonIdempotent;
+            return this;
+        }
+
+        Builder setRandom(Random random) {
+            this.random = random;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            if (maxDelayMillis < baseDelayMillis) {
+                throw new IllegalArgumentException("maxDelayMillis must not be less than baseDelayMillis");
+            }
+            return new RetryPolicy(this);
+        }
+    }
+}
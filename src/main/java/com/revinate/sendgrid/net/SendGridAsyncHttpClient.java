@@ -0,0 +1,296 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.model.SendGridModel;
+import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
+import com.revinate.sendgrid.net.auth.Credential;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.*;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.entity.NByteArrayEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Non-blocking counterpart of {@link SendGridHttpClient}. Requests are executed on the
+ * I/O reactor threads of the underlying {@link CloseableHttpAsyncClient}, which is started
+ * on first use. Failures are reported through the returned future (wrapped in an
+ * {@link java.util.concurrent.ExecutionException}) and the optional callback as
+ * {@link SendGridException}s.
+ * <p>
+ * Request bodies are written into memory on the calling thread before the request is handed to the
+ * reactor, so a multipart email is held whole, attachments included, while it is sent. Requests go
+ * straight to the underlying client: the retry policy, rate limiter, circuit breaker, request
+ * hedger and compression policy of the blocking client do not apply to them.
+ */
+public class SendGridAsyncHttpClient implements Closeable {
+
+    private final CloseableHttpAsyncClient client;
+
+    public SendGridAsyncHttpClient(String userAgent, int maxConnections) {
+        this(HttpAsyncClients.custom()
+                .setUserAgent(userAgent)
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build());
+    }
+
+    public SendGridAsyncHttpClient(CloseableHttpAsyncClient client) {
+        this.client = client;
+    }
+
+    public CloseableHttpAsyncClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // do nothing
+        }
+    }
+
+    public <T> Future<T> get(String url, Class<T> type, Credential credential) {
+        return get(url, type, credential, (FutureCallback<T>) null);
+    }
+
+    public <T> Future<T> get(String url, Class<T> type, Credential credential, FutureCallback<T> callback) {
+        return execute(HttpGet.METHOD_NAME, url, credential, null, null, type, callback);
+    }
+
+    public <T> Future<T> get(String url, Class<T> type, Credential credential,
+                             Map<String, Object> requestParameters) {
+        return get(url, type, credential, requestParameters, null);
+    }
+
+    public <T> Future<T> get(String url, Class<T> type, Credential credential,
+                             Map<String, Object> requestParameters, FutureCallback<T> callback) {
+        List<NameValuePair> parameters = SendGridHttpClient.toParameters(requestParameters);
+        return execute(HttpGet.METHOD_NAME, url, credential, null, parameters, type, callback);
+    }
+
+    public <T> Future<T> post(String url, Class<T> type, Credential credential) {
+        return post(url, type, credential, (FutureCallback<T>) null);
+    }
+
+    public <T> Future<T> post(String url, Class<T> type, Credential credential, FutureCallback<T> callback) {
+        return execute(HttpPost.METHOD_NAME, url, credential, null, null, type, callback);
+    }
+
+    public <T> Future<T> post(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                              RequestType requestType) {
+        return post(url, type, credential, requestObject, requestType, null);
+    }
+
+    public <T> Future<T> post(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                              RequestType requestType, FutureCallback<T> callback) {
+        HttpEntity requestEntity;
+        try {
+            requestEntity = SendGridHttpClient.toEntity(requestObject, requestType, credential);
+        } catch (SendGridException e) {
+            return failed(e, callback);
+        }
+        return execute(HttpPost.METHOD_NAME, url, credential, requestEntity, null, type, callback);
+    }
+
+    public <T> Future<T> put(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                             RequestType requestType) {
+        return put(url, type, credential, requestObject, requestType, null);
+    }
+
+    public <T> Future<T> put(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                             RequestType requestType, FutureCallback<T> callback) {
+        HttpEntity requestEntity;
+        try {
+            requestEntity = SendGridHttpClient.toEntity(requestObject, requestType, credential);
+        } catch (SendGridException e) {
+            return failed(e, callback);
+        }
+        return execute(HttpPut.METHOD_NAME, url, credential, requestEntity, null, type, callback);
+    }
+
+    public <T> Future<T> put(String url, Class<T> type, Credential credential, List<String> requestObject,
+                             RequestType requestType) {
+        return put(url, type, credential, requestObject, requestType, null);
+    }
+
+    public <T> Future<T> put(String url, Class<T> type, Credential credential, List<String> requestObject,
+                             RequestType requestType, FutureCallback<T> callback) {
+        HttpEntity requestEntity;
+        try {
+            requestEntity = SendGridHttpClient.toEntity(requestObject, requestType, credential);
+        } catch (SendGridException e) {
+            return failed(e, callback);
+        }
+        return execute(HttpPut.METHOD_NAME, url, credential, requestEntity, null, type, callback);
+    }
+
+    public <T> Future<T> patch(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                               RequestType requestType) {
+        return patch(url, type, credential, requestObject, requestType, null);
+    }
+
+    public <T> Future<T> patch(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                               RequestType requestType, FutureCallback<T> callback) {
+        HttpEntity requestEntity;
+        try {
+            requestEntity = SendGridHttpClient.toEntity(requestObject, requestType, credential);
+        } catch (SendGridException e) {
+            return failed(e, callback);
+        }
+        return execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null, type, callback);
+    }
+
+    public <T> Future<T> patch(String url, Class<T> type, Credential credential, Map<String, Object> requestObject,
+                               RequestType requestType) {
+        return patch(url, type, credential, requestObject, requestType, null);
+    }
+
+    public <T> Future<T> patch(String url, Class<T> type, Credential credential, Map<String, Object> requestObject,
+                               RequestType requestType, FutureCallback<T> callback) {
+        HttpEntity requestEntity;
+        try {
+            requestEntity = SendGridHttpClient.toEntity(requestObject, requestType, credential);
+        } catch (SendGridException e) {
+            return failed(e, callback);
+        }
+        return execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null, type, callback);
+    }
+
+    public Future<Void> patch(String url, Credential credential, Map<String, Object> requestObject,
+                              RequestType requestType) {
+        return patch(url, Void.class, credential, requestObject, requestType, null);
+    }
+
+    public Future<Void> patch(String url, Credential credential, Map<String, Object> requestObject,
+                              RequestType requestType, FutureCallback<Void> callback) {
+        return patch(url, Void.class, credential, requestObject, requestType, callback);
+    }
+
+    public Future<Void> delete(String url, Credential credential) {
+        return delete(url, credential, null);
+    }
+
+    public Future<Void> delete(String url, Credential credential, FutureCallback<Void> callback) {
+        return execute(HttpDelete.METHOD_NAME, url, credential, null, null, Void.class, callback);
+    }
+
+    private <T> Future<T> execute(String method, String url, Credential credential, HttpEntity entity,
+                                  List<NameValuePair> parameters, final Class<T> type,
+                                  FutureCallback<T> callback) {
+        if (entity != null) {
+            try {
+                entity = buffer(entity);
+            } catch (IOException e) {
+                return failed(SendGridHttpClient.toSendGridException(e), callback);
+            }
+        }
+        HttpUriRequest request = SendGridHttpClient.buildRequest(method, url, credential, entity, parameters);
+
+        TransformingFuture<HttpResponse, T> future = new TransformingFuture<HttpResponse, T>(callback) {
+            @Override
+            protected T transform(HttpResponse response) throws SendGridException {
+                return toResult(response, type);
+            }
+        };
+
+        try {
+            start();
+            return future.setSource(client.execute(request, new ConnectionErrorCallback(future.sourceCallback())));
+        } catch (IllegalStateException e) {
+            future.failed(new ApiConnectionException("Client is not running", e));
+            return future;
+        }
+    }
+
+    /**
+     * Writes the entity into a buffer on the calling thread. The async client reads request bodies
+     * through {@code getContent()}, which multipart entities do not support, and reading attachments
+     * on the I/O reactor threads would hold up every other request.
+     */
+    static HttpEntity buffer(HttpEntity entity) throws IOException {
+        if (entity instanceof HttpAsyncContentProducer) {
+            return entity;
+        }
+        long length = entity.getContentLength();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE
+                ? (int) length : 8192);
+        entity.writeTo(out);
+        NByteArrayEntity buffered = new NByteArrayEntity(out.toByteArray());
+        buffered.setContentType(entity.getContentType());
+        buffered.setContentEncoding(entity.getContentEncoding());
+        return buffered;
+    }
+
+    private <T> T toResult(HttpResponse response, Class<T> type) throws SendGridException {
+        T result;
+        try {
+            result = new JsonResponseHandler<T>(type).handleResponse(response);
+        } catch (IOException e) {
+            throw SendGridHttpClient.toSendGridException(e);
+        }
+
+        if (type == Void.class) {
+            return null;
+        }
+        return SendGridHttpClient.requireContent(result);
+    }
+
+    private void start() {
+        if (!client.isRunning()) {
+            synchronized (this) {
+                if (!client.isRunning()) {
+                    client.start();
+                }
+            }
+        }
+    }
+
+    private static <T> Future<T> failed(SendGridException e, FutureCallback<T> callback) {
+        BasicFuture<T> future = new BasicFuture<T>(callback);
+        future.failed(e);
+        return future;
+    }
+
+    private static class ConnectionErrorCallback implements FutureCallback<HttpResponse> {
+
+        private final FutureCallback<HttpResponse> delegate;
+
+        ConnectionErrorCallback(FutureCallback<HttpResponse> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void completed(HttpResponse result) {
+            delegate.completed(result);
+        }
+
+        @Override
+        public void failed(Exception e) {
+            if (e instanceof IOException) {
+                delegate.failed(SendGridHttpClient.toSendGridException((IOException) e));
+            } else {
+                delegate.failed(new ApiConnectionException("Error while making API request to SendGrid", e));
+            }
+        }
+
+        @Override
+        public void cancelled() {
+            delegate.cancelled();
+        }
+    }
+}
@@ -1,21 +1,22 @@
 package com.revinate.sendgrid.net;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.revinate.sendgrid.SendGrid;
 import com.revinate.sendgrid.exception.*;
 import com.revinate.sendgrid.model.ApiError;
-import com.revinate.sendgrid.model.ApiErrorsResponse;
-import com.revinate.sendgrid.model.Response;
 import com.revinate.sendgrid.model.SendGridModel;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.util.JsonUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.*;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.message.BasicNameValuePair;
 
 import java.io.Closeable;
@@ -30,103 +31,342 @@ public class SendGridHttpClient implements Closeable {
         JSON, MULTIPART
     }
 
-    private final CloseableHttpClient client;
+    private final HttpTransport transport;
+    private SendGridAsyncHttpClient asyncClient;
+    private final String userAgent;
+    private final boolean defaultAsyncClient;
+    private boolean closed;
+    private final RetryPolicy retryPolicy;
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+    private final RequestHedger requestHedger;
+    private final CompressionPolicy compressionPolicy;
+    private final int maxConnections;
     private final ResponseHandler<String> responseHandler;
 
     public SendGridHttpClient(String userAgent, int maxConnections) {
-        this(HttpClients.custom()
-                .setUserAgent(userAgent)
-                .setMaxConnTotal(maxConnections)
-                .setMaxConnPerRoute(maxConnections)
-                .build());
+        this(create().setUserAgent(userAgent).setMaxConnections(maxConnections));
     }
 
+    /**
+     * Creates a client around an existing Apache client. It has no async client, as the settings of
+     * the Apache client would not carry over; use the builder to supply one.
+     */
     public SendGridHttpClient(CloseableHttpClient client) {
-        this(client, new StringResponseHandler());
+        this(create().setHttpClient(client));
+    }
+
+    public SendGridHttpClient(CloseableHttpClient client, SendGridAsyncHttpClient asyncClient) {
+        this(create().setHttpClient(client).setAsyncClient(asyncClient));
     }
 
     SendGridHttpClient(CloseableHttpClient client, ResponseHandler<String> responseHandler) {
-        this.client = client;
+        this(create().setHttpClient(client), responseHandler);
+    }
+
+    private SendGridHttpClient(Builder builder) {
+        this(builder, null);
+    }
+
+    private SendGridHttpClient(Builder builder, ResponseHandler<String> responseHandler) {
+        HttpTransport finalTransport = builder.transport;
+        if (finalTransport == null) {
+            if (builder.httpClient != null) {
+                finalTransport = new ApacheHttpTransport(builder.httpClient);
+            } else {
+                finalTransport = new ApacheHttpTransport(builder.userAgent, builder.maxConnections);
+            }
+        }
+        SendGridAsyncHttpClient finalAsyncClient = builder.asyncClient;
+        if (finalAsyncClient == null && builder.asyncHttpClient != null) {
+            finalAsyncClient = new SendGridAsyncHttpClient(builder.asyncHttpClient);
+        }
+
+        this.transport = finalTransport;
+        this.asyncClient = finalAsyncClient;
+        this.userAgent = builder.userAgent;
+        this.defaultAsyncClient = builder.transport == null && builder.httpClient == null;
+        this.retryPolicy = builder.retryPolicy;
+        this.rateLimiter = builder.rateLimiter;
+        this.circuitBreaker = builder.circuitBreaker;
+        this.requestHedger = builder.requestHedger;
+        this.compressionPolicy = builder.compressionPolicy;
+        this.maxConnections = builder.maxConnections;
         this.responseHandler = responseHandler;
     }
 
+    public static Builder create() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the underlying Apache client, or {@code null} if a different transport is in use.
+     */
     public CloseableHttpClient getClient() {
-        return client;
+        if (transport instanceof ApacheHttpTransport) {
+            return ((ApacheHttpTransport) transport).getClient();
+        }
+        return null;
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the client for asynchronous requests. Unless one was supplied, a client that built its
+     * own blocking client also builds an async client with the same user agent and pool size, on
+     * first use. A client built around an existing Apache client or transport has none.
+     *
+     * @throws IllegalStateException if no async client was supplied and none can be built
+     */
+    public synchronized SendGridAsyncHttpClient getAsyncClient() {
+        if (asyncClient == null) {
+            if (!defaultAsyncClient) {
+                throw new IllegalStateException("No async client was supplied with the HTTP client or transport; "
+                        + "set one with setAsyncClient or setAsyncHttpClient");
+            }
+            if (closed) {
+                throw new IllegalStateException("Client is closed");
+            }
+            asyncClient = new SendGridAsyncHttpClient(userAgent, maxConnections);
+        }
+        return asyncClient;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public RequestHedger getRequestHedger() {
+        return requestHedger;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Returns the connection pool size the client was built with. Clients built around an
+     * existing Apache client or transport report the default, as their pool is configured there.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
     }
 
     @Override
     public void close() {
         try {
-            client.close();
+            transport.close();
         } catch (IOException e) {
             // do nothing
         }
+        SendGridAsyncHttpClient createdAsyncClient;
+        synchronized (this) {
+            closed = true;
+            createdAsyncClient = asyncClient;
+        }
+        if (createdAsyncClient != null) {
+            createdAsyncClient.close();
+        }
+        if (requestHedger != null) {
+            requestHedger.close();
+        }
     }
 
     public <T> T get(String url, Class<T> type, Credential credential) throws SendGridException {
-        String responseBody = execute(HttpGet.METHOD_NAME, url, credential, null, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpGet.METHOD_NAME, url, credential, null, null, type, false));
     }
 
     public <T> T get(String url, Class<T> type, Credential credential,
                      Map<String, Object> requestParameters) throws SendGridException {
         List<NameValuePair> parameters = toParameters(requestParameters);
-        String responseBody = execute(HttpGet.METHOD_NAME, url, credential, null, parameters);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpGet.METHOD_NAME, url, credential, null, parameters, type, false));
     }
 
     public <T> T post(String url, Class<T> type, Credential credential) throws SendGridException {
-        String responseBody = execute(HttpPost.METHOD_NAME, url, credential, null, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpPost.METHOD_NAME, url, credential, null, null, type, false));
     }
 
     public <T> T post(String url, Class<T> type, Credential credential, SendGridModel requestObject,
                       RequestType requestType) throws SendGridException {
         HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
-        String responseBody = execute(HttpPost.METHOD_NAME, url, credential, requestEntity, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpPost.METHOD_NAME, url, credential, requestEntity, null, type, false));
+    }
+
+    public <T> T post(String url, Class<T> type, Credential credential, SendGridModel requestObject,
+                      RequestType requestType, boolean replayable) throws SendGridException {
+        HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
+        return requireContent(execute(HttpPost.METHOD_NAME, url, credential, requestEntity, null, type,
+                replayable));
     }
 
     public <T> T put(String url, Class<T> type, Credential credential, SendGridModel requestObject,
                      RequestType requestType) throws SendGridException {
         HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
-        String responseBody = execute(HttpPut.METHOD_NAME, url, credential, requestEntity, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpPut.METHOD_NAME, url, credential, requestEntity, null, type, false));
     }
 
     public <T> T put(String url, Class<T> type, Credential credential, List<String> requestObject,
                      RequestType requestType) throws SendGridException {
         HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
-        String responseBody = execute(HttpPut.METHOD_NAME, url, credential, requestEntity, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpPut.METHOD_NAME, url, credential, requestEntity, null, type, false));
     }
 
     public <T> T patch(String url, Class<T> type, Credential credential, SendGridModel requestObject,
                        RequestType requestType) throws SendGridException {
         HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
-        String responseBody = execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null, type, false));
     }
 
     public <T> T patch(String url, Class<T> type, Credential credential, Map<String, Object> requestObject,
                        RequestType requestType) throws SendGridException {
         HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
-        String responseBody = execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null);
-        return fromJson(responseBody, type);
+        return requireContent(execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null, type, false));
     }
 
     public void patch(String url, Credential credential, Map<String, Object> requestObject,
                       RequestType requestType) throws SendGridException {
         HttpEntity requestEntity = toEntity(requestObject, requestType, credential);
-        execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null);
+        execute(HttpPatch.METHOD_NAME, url, credential, requestEntity, null, Void.class, false);
     }
 
     public void delete(String url, Credential credential) throws SendGridException {
-        execute(HttpDelete.METHOD_NAME, url, credential, null, null);
+        execute(HttpDelete.METHOD_NAME, url, credential, null, null, Void.class, false);
     }
 
-    private String execute(String method, String url, Credential credential,
-                           HttpEntity entity, List<NameValuePair> parameters) throws SendGridException {
+    private <T> T execute(String method, String url, Credential credential, HttpEntity entity,
+                          List<NameValuePair> parameters, Class<T> type,
+                          boolean replayable) throws SendGridException {
+        if (responseHandler == null) {
+            return execute(method, url, credential, entity, parameters, new JsonResponseHandler<T>(type),
+                    replayable);
+        }
+        String content = execute(method, url, credential, entity, parameters, responseHandler, replayable);
+        return type == Void.class ? null : fromJson(content, type);
+    }
+
+    private <T> T execute(String method, String url, Credential credential, HttpEntity entity,
+                          List<NameValuePair> parameters, ResponseHandler<T> responseHandler,
+                          boolean replayable) throws SendGridException {
+        boolean retryable = retryPolicy.isRetryable(method, replayable)
+                && (entity == null || entity.isRepeatable());
+        String endpoint = endpointKey(url);
+        long startTime = System.currentTimeMillis();
+        long delay = 0;
+
+        HttpEntity requestEntity = entity;
+        if (compressionPolicy != null) {
+            requestEntity = compressionPolicy.compress(endpoint, entity);
+            responseHandler = compressionPolicy.decompress(responseHandler);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            HttpUriRequest request = newRequest(method, url, credential, requestEntity, parameters);
+            ResponseHandler<T> handler = responseHandler;
+            if (rateLimiter != null) {
+                rateLimiter.acquire(endpoint);
+                handler = rateLimiter.track(endpoint, handler);
+            }
+
+            if (circuitBreaker != null) {
+                circuitBreaker.acquire(endpoint);
+            }
+
+            long callStartTime = System.currentTimeMillis();
+            try {
+                T result;
+                if (requestHedger != null && HttpGet.METHOD_NAME.equals(method)) {
+                    HttpUriRequest hedge = newRequest(method, url, credential, requestEntity, parameters);
+                    result = requestHedger.execute(transport, endpoint, request, hedge, handler);
+                } else {
+                    result = transport.execute(request, handler);
+                }
+                if (circuitBreaker != null) {
+                    circuitBreaker.onSuccess(endpoint, System.currentTimeMillis() - callStartTime);
+                }
+                return result;
+            } catch (RuntimeException e) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onError(endpoint, System.currentTimeMillis() - callStartTime, e);
+                }
+                throw e;
+            } catch (IOException e) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.onError(endpoint, System.currentTimeMillis() - callStartTime, e);
+                }
+
+                if (!retryable || attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.isRetryable(e)) {
+                    throw toSendGridException(e);
+                }
+
+                delay = retryPolicy.nextDelayMillis(delay, e);
+                if (delay < 0 || !isWithinDeadline(startTime, delay)) {
+                    throw toSendGridException(e);
+                }
+
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e2) {
+                    Thread.currentThread().interrupt();
+                    throw new ApiConnectionException("Interrupted while waiting to retry API request", e2);
+                }
+            }
+        }
+    }
+
+    private HttpUriRequest newRequest(String method, String url, Credential credential, HttpEntity entity,
+                                      List<NameValuePair> parameters) {
+        HttpUriRequest request = buildRequest(method, url, credential, entity, parameters);
+        if (compressionPolicy != null && compressionPolicy.getAcceptEncoding() != null) {
+            request.setHeader(HttpHeaders.ACCEPT_ENCODING, compressionPolicy.getAcceptEncoding());
+        }
+        return request;
+    }
+
+    private boolean isWithinDeadline(long startTime, long delay) {
+        long deadline = retryPolicy.getDeadlineMillis();
+        return deadline <= 0 || System.currentTimeMillis() - startTime + delay < deadline;
+    }
+
+    /**
+     * Reduces a request URL to the endpoint it belongs to: the API version and the top-level
+     * resource, e.g. {@code /v3/subusers} for both {@code /v3/subusers} and
+     * {@code /v3/subusers/foo/ips}.
+     */
+    static String endpointKey(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : url.indexOf('/', start + 3);
+        if (start < 0) {
+            return "/";
+        }
+
+        int end = url.length();
+        int query = url.indexOf('?', start);
+        if (query >= 0) {
+            end = query;
+        }
+
+        int segments = 0;
+        for (int i = start + 1; i < end; i++) {
+            if (url.charAt(i) == '/' && ++segments == 2) {
+                end = i;
+                break;
+            }
+        }
+        return url.substring(start, end);
+    }
+
+    static HttpUriRequest buildRequest(String method, String url, Credential credential,
+                                       HttpEntity entity, List<NameValuePair> parameters) {
         RequestBuilder builder = RequestBuilder.create(method).setUri(url).setEntity(entity);
 
         if (parameters != null) {
@@ -139,22 +379,24 @@ public class SendGridHttpClient implements Closeable {
             builder.setHeader(header);
         }
 
-        HttpUriRequest request = builder.build();
+        return builder.build();
+    }
 
-        try {
-            return client.execute(request, responseHandler);
-        } catch (HttpResponseException e) {
-            throw handleResponseException(e);
-        } catch (ClientProtocolException e) {
-            throw new ApiConnectionException("HTTP protocol error while making API request to SendGrid", e);
-        } catch (IOException e) {
-            throw new ApiConnectionException("I/O error while making API request to SendGrid", e);
+    static SendGridException toSendGridException(IOException e) {
+        if (e instanceof HttpResponseException) {
+            return handleResponseException((HttpResponseException) e);
+        } else if (e instanceof JsonProcessingException) {
+            return new ApiConnectionException("Error while mapping response", e);
+        } else if (e instanceof ClientProtocolException) {
+            return new ApiConnectionException("HTTP protocol error while making API request to SendGrid", e);
+        } else {
+            return new ApiConnectionException("I/O error while making API request to SendGrid", e);
         }
     }
 
-    private <T> T fromJson(String content, Class<T> type) throws ApiConnectionException {
+    private static <T> T fromJson(String content, Class<T> type) throws ApiConnectionException {
         if (content == null) {
-            throw new ApiConnectionException("Response contains no content");
+            return null;
         }
 
         try {
@@ -164,7 +406,14 @@ public class SendGridHttpClient implements Closeable {
         }
     }
 
-    private List<NameValuePair> toParameters(Map<String, Object> requestParameters) {
+    static <T> T requireContent(T content) throws ApiConnectionException {
+        if (content == null) {
+            throw new ApiConnectionException("Response contains no content");
+        }
+        return content;
+    }
+
+    static List<NameValuePair> toParameters(Map<String, Object> requestParameters) {
         List<NameValuePair> parameters = new ArrayList<NameValuePair>();
         for (Map.Entry<String, Object> parameter : requestParameters.entrySet()) {
             parameters.add(new BasicNameValuePair(parameter.getKey(), String.valueOf(parameter.getValue())));
@@ -172,7 +421,7 @@ public class SendGridHttpClient implements Closeable {
         return parameters;
     }
 
-    private HttpEntity toEntity(SendGridModel requestObject, RequestType requestType,
+    static HttpEntity toEntity(SendGridModel requestObject, RequestType requestType,
                                 Credential credential) throws InvalidRequestException {
         HttpEntityBuilder builder = HttpEntityBuilder.create(requestType).setCredential(credential);
         if (requestObject != null) {
@@ -186,7 +435,7 @@ public class SendGridHttpClient implements Closeable {
         }
     }
 
-    private HttpEntity toEntity(Map<String, Object> requestObject, RequestType requestType,
+    static HttpEntity toEntity(Map<String, Object> requestObject, RequestType requestType,
                                 Credential credential) throws InvalidRequestException {
         try {
             return HttpEntityBuilder.create(requestType).setCredential(credential)
@@ -196,7 +445,7 @@ public class SendGridHttpClient implements Closeable {
         }
     }
 
-    private HttpEntity toEntity(List<String> requestObject, RequestType requestType,
+    static HttpEntity toEntity(List<String> requestObject, RequestType requestType,
                                 Credential credential) throws InvalidRequestException {
         try {
             return HttpEntityBuilder.create(requestType).setCredential(credential)
@@ -206,27 +455,11 @@ public class SendGridHttpClient implements Closeable {
         }
     }
 
-    private SendGridException handleResponseException(HttpResponseException e) {
-        String responseBody = e.getMessage();
+    static SendGridException handleResponseException(HttpResponseException e) {
         int statusCode = e.getStatusCode();
-        String message;
-        List<ApiError> errors = new ArrayList<ApiError>();
-        try {
-            ApiErrorsResponse apiErrorsResponse = JsonUtils.fromJson(
-                    responseBody, ApiErrorsResponse.class);
-            message = apiErrorsResponse.toString();
-            errors.addAll(apiErrorsResponse.getErrors());
-        } catch (IOException e2) {
-            try {
-                Response response = JsonUtils.fromJson(responseBody, Response.class);
-                message = response.toString();
-                for (String error : response.getErrors()) {
-                    errors.add(new ApiError(error));
-                }
-            } catch (IOException e3) {
-                message = responseBody;
-            }
-        }
+        ErrorResponse errorResponse = ErrorResponse.parse(e.getMessage());
+        String message = errorResponse.getMessage();
+        List<ApiError> errors = errorResponse.getErrors();
 
         switch (statusCode) {
             case 400:
@@ -239,4 +472,81 @@ public class SendGridHttpClient implements Closeable {
                 return new ApiException(message, errors, statusCode);
         }
     }
+
+    public static class Builder {
+
+        private String userAgent = SendGrid.USER_AGENT;
+        private int maxConnections = SendGrid.DEFAULT_MAX_CONNECTIONS;
+        private CloseableHttpClient httpClient;
+        private HttpTransport transport;
+        private CloseableHttpAsyncClient asyncHttpClient;
+        private SendGridAsyncHttpClient asyncClient;
+        private RetryPolicy retryPolicy = RetryPolicy.NONE;
+        private RateLimiter rateLimiter;
+        private CircuitBreaker circuitBreaker;
+        private RequestHedger requestHedger;
+        private CompressionPolicy compressionPolicy;
+
+        public Builder setUserAgent(String userAgent) {
+            this.userAgent = userAgent;
+            return this;
+        }
+
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder setHttpClient(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        /**
+         * Transport for blocking requests; takes precedence over {@link #setHttpClient}.
+         */
+        public Builder setTransport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder setAsyncHttpClient(CloseableHttpAsyncClient asyncHttpClient) {
+            this.asyncHttpClient = asyncHttpClient;
+            return this;
+        }
+
+        public Builder setAsyncClient(SendGridAsyncHttpClient asyncClient) {
+            this.asyncClient = asyncClient;
+            return this;
+        }
+
+        public Builder setRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy == null ? RetryPolicy.NONE : retryPolicy;
+            return this;
+        }
+
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+            return this;
+        }
+
+        public Builder setCircuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        public Builder setRequestHedger(RequestHedger requestHedger) {
+            this.requestHedger = requestHedger;
+            return this;
+        }
+
+        public Builder setCompressionPolicy(CompressionPolicy compressionPolicy) {
+            this.compressionPolicy = compressionPolicy;
+            return this;
+        }
+
+        public SendGridHttpClient build() {
+            return new SendGridHttpClient(this);
+        }
+    }
 }
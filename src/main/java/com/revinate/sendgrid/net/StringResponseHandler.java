@@ -8,6 +8,11 @@ import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
 
+/**
+ * @deprecated responses are now decoded directly from the entity stream by
+ * {@link JsonResponseHandler}
+ */
+@Deprecated
 public class StringResponseHandler implements ResponseHandler<String> {
 
     private final HttpEntityReader reader;
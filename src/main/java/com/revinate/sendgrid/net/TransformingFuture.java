@@ -0,0 +1,69 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.util.concurrent.Future;
+
+/**
+ * Future that completes with the result of another future, converted by {@link #transform}.
+ * Register {@link #sourceCallback()} with the source operation, then hand the source future
+ * to {@link #setSource} so that cancellation is propagated.
+ *
+ * @param <S> result type of the source future
+ * @param <T> result type of this future
+ */
+public abstract class TransformingFuture<S, T> extends BasicFuture<T> {
+
+    private volatile Future<S> source;
+
+    public TransformingFuture(FutureCallback<T> callback) {
+        super(callback);
+    }
+
+    public TransformingFuture<S, T> setSource(Future<S> source) {
+        this.source = source;
+        if (isCancelled()) {
+            source.cancel(true);
+        }
+        return this;
+    }
+
+    public FutureCallback<S> sourceCallback() {
+        return new FutureCallback<S>() {
+            @Override
+            public void completed(S result) {
+                T transformed;
+                try {
+                    transformed = transform(result);
+                } catch (Exception e) {
+                    TransformingFuture.this.failed(e);
+                    return;
+                }
+                TransformingFuture.this.completed(transformed);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                TransformingFuture.this.failed(e);
+            }
+
+            @Override
+            public void cancelled() {
+                TransformingFuture.this.cancel();
+            }
+        };
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        Future<S> source = this.source;
+        if (cancelled && source != null) {
+            source.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    protected abstract T transform(S result) throws Exception;
+}
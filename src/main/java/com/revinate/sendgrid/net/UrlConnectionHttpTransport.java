@@ -0,0 +1,164 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link HttpTransport} built on the JDK's {@link HttpURLConnection}, for environments where the
+ * Apache HttpClient connection pool is not wanted. Connections are kept alive and reused by the
+ * JDK (see the {@code http.keepAlive} and {@code http.maxConnections} system properties).
+ * <p>
+ * {@code HttpURLConnection} does not support the PATCH method, so PATCH requests fail with a
+ * {@link ClientProtocolException} before anything is sent. SendGrid updates entities with PATCH,
+ * so updating subusers, mail settings, the event webhook settings and other entities needs
+ * {@link ApacheHttpTransport}.
+ */
+public class UrlConnectionHttpTransport implements HttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList(
+            HttpHeaders.CONTENT_LENGTH.toLowerCase(Locale.ENGLISH), HttpHeaders.HOST.toLowerCase(Locale.ENGLISH),
+            HttpHeaders.CONNECTION.toLowerCase(Locale.ENGLISH), HttpHeaders.TRANSFER_ENCODING.toLowerCase(Locale.ENGLISH)));
+
+    private final String userAgent;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    public UrlConnectionHttpTransport(String userAgent) {
+        this(userAgent, DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    public UrlConnectionHttpTransport(String userAgent, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.userAgent = userAgent;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+        if (HttpPatch.METHOD_NAME.equals(request.getMethod())) {
+            throw new ClientProtocolException("PATCH is not supported by UrlConnectionHttpTransport, "
+                    + "use ApacheHttpTransport to update " + request.getURI().getPath());
+        }
+
+        final HttpURLConnection connection = (HttpURLConnection) request.getURI().toURL().openConnection();
+        if (request instanceof HttpRequestBase) {
+            ((HttpRequestBase) request).setCancellable(new Cancellable() {
+                @Override
+                public boolean cancel() {
+                    connection.disconnect();
+                    return true;
+                }
+            });
+        }
+
+        connection.setRequestMethod(request.getMethod());
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestProperty(HttpHeaders.USER_AGENT, userAgent);
+        for (Header header : request.getAllHeaders()) {
+            if (!RESTRICTED_HEADERS.contains(header.getName().toLowerCase(Locale.ENGLISH))) {
+                connection.addRequestProperty(header.getName(), header.getValue());
+            }
+        }
+
+        if (request instanceof HttpEntityEnclosingRequest) {
+            writeEntity(connection, ((HttpEntityEnclosingRequest) request).getEntity());
+        }
+
+        InputStream content = null;
+        try {
+            int statusCode = connection.getResponseCode();
+            content = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            return handler.handleResponse(toResponse(connection, statusCode, content));
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // connections are owned by the JDK keep-alive cache
+    }
+
+    private static void writeEntity(HttpURLConnection connection, HttpEntity entity) throws IOException {
+        if (entity == null) {
+            return;
+        }
+
+        connection.setDoOutput(true);
+        if (entity.getContentType() != null) {
+            connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, entity.getContentType().getValue());
+        }
+        if (entity.getContentEncoding() != null) {
+            connection.setRequestProperty(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding().getValue());
+        }
+
+        long length = entity.getContentLength();
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) length);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+
+        OutputStream out = connection.getOutputStream();
+        try {
+            entity.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static HttpResponse toResponse(HttpURLConnection connection, int statusCode,
+                                           InputStream content) throws IOException {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode,
+                connection.getResponseMessage());
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() == null) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                response.addHeader(header.getKey(), value);
+            }
+        }
+
+        if (content != null) {
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(content);
+            entity.setContentLength(connection.getContentLength());
+            entity.setContentType(connection.getContentType());
+            entity.setContentEncoding(connection.getContentEncoding());
+            response.setEntity(entity);
+        }
+        return response;
+    }
+}
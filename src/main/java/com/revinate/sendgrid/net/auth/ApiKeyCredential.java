@@ -10,9 +10,12 @@ import java.util.List;
 public class ApiKeyCredential implements Credential {
 
     private final String apiKey;
+    private final List<Header> headers;
 
     public ApiKeyCredential(String apiKey) {
         this.apiKey = apiKey;
+        this.headers = Collections.<Header>singletonList(
+                new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey));
     }
 
     public String getApiKey() {
@@ -21,8 +24,7 @@ public class ApiKeyCredential implements Credential {
 
     @Override
     public List<Header> toHttpHeaders() {
-        return Collections.<Header>singletonList(
-                new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey));
+        return headers;
     }
 
     @Override
@@ -4,6 +4,7 @@ import org.apache.http.Header;
 import org.apache.http.message.BasicHeader;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class OnBehalfOfCredential implements Credential {
@@ -12,10 +13,18 @@ public class OnBehalfOfCredential implements Credential {
 
     private final Credential credential;
     private final String username;
+    private final List<Header> headers;
 
+    /**
+     * The headers of {@code credential} are captured here, so it must not change them later.
+     */
     public OnBehalfOfCredential(Credential credential, String username) {
         this.credential = credential;
         this.username = username;
+
+        List<Header> combinedHeaders = new ArrayList<Header>(credential.toHttpHeaders());
+        combinedHeaders.add(new BasicHeader(ON_BEHALF_OF, username));
+        this.headers = Collections.unmodifiableList(combinedHeaders);
     }
 
     public Credential getCredential() {
@@ -28,8 +37,6 @@ public class OnBehalfOfCredential implements Credential {
 
     @Override
     public List<Header> toHttpHeaders() {
-        List<Header> headers = new ArrayList<Header>(credential.toHttpHeaders());
-        headers.add(new BasicHeader(ON_BEHALF_OF, username));
         return headers;
     }
 }
@@ -12,10 +12,13 @@ public class UsernamePasswordCredential implements Credential {
 
     private final String username;
     private final String password;
+    private final List<Header> headers;
 
     public UsernamePasswordCredential(String username, String password) {
         this.username = username;
         this.password = password;
+        this.headers = Collections.<Header>singletonList(
+                new BasicHeader(HttpHeaders.AUTHORIZATION, "Basic " + base64Credential()));
     }
 
     public String getUsername() {
@@ -28,8 +31,7 @@ public class UsernamePasswordCredential implements Credential {
 
     @Override
     public List<Header> toHttpHeaders() {
-        return Collections.<Header>singletonList(
-                new BasicHeader(HttpHeaders.AUTHORIZATION, "Basic " + base64Credential()));
+        return headers;
     }
 
     private String base64Credential() {
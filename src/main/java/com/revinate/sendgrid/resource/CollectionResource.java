@@ -6,16 +6,21 @@ import com.revinate.sendgrid.model.SendGridEntity;
 import com.revinate.sendgrid.model.SendGridModel;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
+import com.revinate.sendgrid.net.TransformingFuture;
 import com.revinate.sendgrid.net.auth.Credential;
+import org.apache.http.concurrent.FutureCallback;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 public abstract class CollectionResource<T extends SendGridModel & SendGridEntity, U extends SendGridCollection<T>> extends SendGridResource {
 
     protected final Class<T> entityType;
     protected final Class<U> collectionType;
 
+    private String url;
+
     public CollectionResource(String baseUrl, SendGridHttpClient client, Credential credential, Class<T> entityType, Class<U> collectionType) {
         super(baseUrl, client, credential);
         this.entityType = entityType;
@@ -30,13 +35,50 @@ public abstract class CollectionResource<T extends SendGridModel & SendGridEntit
         return client.get(getUrl(), collectionType, credential, requestParameters).getData();
     }
 
+    public Future<List<T>> listAsync() {
+        return listAsync((FutureCallback<List<T>>) null);
+    }
+
+    public Future<List<T>> listAsync(FutureCallback<List<T>> callback) {
+        DataFuture future = new DataFuture(callback);
+        return future.setSource(client.getAsyncClient().get(getUrl(), collectionType, credential,
+                future.sourceCallback()));
+    }
+
+    public Future<List<T>> listAsync(Map<String, Object> requestParameters) {
+        return listAsync(requestParameters, null);
+    }
+
+    public Future<List<T>> listAsync(Map<String, Object> requestParameters, FutureCallback<List<T>> callback) {
+        DataFuture future = new DataFuture(callback);
+        return future.setSource(client.getAsyncClient().get(getUrl(), collectionType, credential,
+                requestParameters, future.sourceCallback()));
+    }
+
     public T create(T entity) throws SendGridException {
         return client.post(getUrl(), entityType, credential, entity, RequestType.JSON);
     }
 
     protected String getUrl() {
-        return String.format("%s/%s", baseUrl, getEndpoint());
+        String result = url;
+        if (result == null) {
+            result = baseUrl + "/" + getEndpoint();
+            url = result;
+        }
+        return result;
     }
 
     protected abstract String getEndpoint();
+
+    private class DataFuture extends TransformingFuture<U, List<T>> {
+
+        DataFuture(FutureCallback<List<T>> callback) {
+            super(callback);
+        }
+
+        @Override
+        protected List<T> transform(U collection) {
+            return collection.getData();
+        }
+    }
 }
@@ -7,14 +7,19 @@ import com.revinate.sendgrid.model.SendGridModel;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.Credential;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 public abstract class EntityResource<T extends SendGridModel & SendGridEntity> extends SendGridResource {
 
     protected final Class<T> entityType;
     protected final String id;
 
+    private final String url;
+
     public EntityResource(String baseUrl, SendGridHttpClient client, Credential credential, Class<T> entityType, T entity) {
         this(baseUrl, client, credential, entityType, entity.getEntityId());
     }
@@ -23,6 +28,7 @@ public abstract class EntityResource<T extends SendGridModel & SendGridEntity> e
         super(baseUrl, client, credential);
         this.entityType = entityType;
         this.id = id;
+        this.url = id == null ? null : baseUrl + "/" + id;
     }
 
     public String getId() {
@@ -33,6 +39,22 @@ public abstract class EntityResource<T extends SendGridModel & SendGridEntity> e
         return client.get(getUrl(), entityType, credential);
     }
 
+    public Future<T> retrieveAsync() {
+        return retrieveAsync(null);
+    }
+
+    public Future<T> retrieveAsync(FutureCallback<T> callback) {
+        String url;
+        try {
+            url = getUrl();
+        } catch (InvalidRequestException e) {
+            BasicFuture<T> future = new BasicFuture<T>(callback);
+            future.failed(e);
+            return future;
+        }
+        return client.getAsyncClient().get(url, entityType, credential, callback);
+    }
+
     public T update(T entity) throws SendGridException {
         return client.put(getUrl(), entityType, credential, entity, RequestType.JSON);
     }
@@ -46,9 +68,9 @@ public abstract class EntityResource<T extends SendGridModel & SendGridEntity> e
     }
 
     protected String getUrl() throws InvalidRequestException {
-        if (id == null) {
+        if (url == null) {
             throw new InvalidRequestException("Missing entity identifier");
         }
-        return String.format("%s/%s", baseUrl, id);
+        return url;
     }
 }
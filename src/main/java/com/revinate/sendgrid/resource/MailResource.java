@@ -1,27 +1,60 @@
 package com.revinate.sendgrid.resource;
 
 import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.mail.MailSender;
 import com.revinate.sendgrid.model.Email;
 import com.revinate.sendgrid.model.Response;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.Credential;
+import org.apache.http.concurrent.FutureCallback;
 
-public class MailResource extends SendGridResource {
+import java.util.concurrent.Future;
+
+public class MailResource extends SendGridResource implements MailSender {
 
     public static final ApiVersion API_VERSION = ApiVersion.V2;
     public static final String ENDPOINT = "mail";
 
+    private String sendUrl;
+
     public MailResource(String baseUrl, SendGridHttpClient client, Credential credential) {
         super(baseUrl, client, credential);
     }
 
+    @Override
     public Response send(Email email) throws SendGridException {
-        return client.post(getUrl("send", "json"), Response.class, credential, email, RequestType.MULTIPART);
+        return client.post(getSendUrl(), Response.class, credential, email, RequestType.MULTIPART, true);
+    }
+
+    /**
+     * Sends the email without blocking. The request body, attachments included, is built in memory
+     * on the calling thread, and the request is not retried, rate limited or guarded by the circuit
+     * breaker; use {@link #send} for emails with large attachments.
+     */
+    public Future<Response> sendAsync(Email email) {
+        return sendAsync(email, null);
+    }
+
+    /**
+     * Sends the email without blocking, as {@link #sendAsync(Email)} does.
+     */
+    public Future<Response> sendAsync(Email email, FutureCallback<Response> callback) {
+        return client.getAsyncClient().post(getSendUrl(), Response.class, credential, email,
+                RequestType.MULTIPART, callback);
     }
 
     protected String getUrl(String action, String format) {
-        return String.format("%s/%s.%s.%s", baseUrl, getEndpoint(), action, format);
+        return baseUrl + "/" + getEndpoint() + "." + action + "." + format;
+    }
+
+    private String getSendUrl() {
+        String result = sendUrl;
+        if (result == null) {
+            result = getUrl("send", "json");
+            sendUrl = result;
+        }
+        return result;
     }
 
     protected String getEndpoint() {
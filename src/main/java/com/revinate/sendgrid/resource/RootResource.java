@@ -6,16 +6,37 @@ import com.revinate.sendgrid.net.auth.Credential;
 
 public class RootResource extends SendGridResource {
 
+    private final AccountResource account;
+    private final ApiKeysResource apiKeys;
+    private final DomainWhitelabelsResource domainWhitelabels;
+    private final EventWebhookSettingsResource eventWebhookSettings;
+    private final IpsResource ips;
+    private final IpPoolsResource ipPools;
+    private final LinkWhitelabelsResource linkWhitelabels;
+    private final MailResource mail;
+    private final MailSettingsResource mailSettings;
+    private final SubusersResource subusers;
+
     public RootResource(String baseUrl, SendGridHttpClient client, Credential credential) {
         super(baseUrl, client, credential);
+        account = new AccountResource(getApiUrl(AccountResource.API_VERSION), client, credential);
+        apiKeys = new ApiKeysResource(getApiUrl(ApiKeysResource.API_VERSION), client, credential);
+        domainWhitelabels = new DomainWhitelabelsResource(getApiUrl(DomainWhitelabelsResource.API_VERSION), client, credential);
+        eventWebhookSettings = new EventWebhookSettingsResource(getApiUrl(EventWebhookSettingsResource.API_VERSION), client, credential);
+        ips = new IpsResource(getApiUrl(IpsResource.API_VERSION), client, credential);
+        ipPools = new IpPoolsResource(getApiUrl(IpPoolsResource.API_VERSION), client, credential);
+        linkWhitelabels = new LinkWhitelabelsResource(getApiUrl(LinkWhitelabelsResource.API_VERSION), client, credential);
+        mail = new MailResource(getApiUrl(MailResource.API_VERSION), client, credential);
+        mailSettings = new MailSettingsResource(getApiUrl(MailSettingsResource.API_VERSION), client, credential);
+        subusers = new SubusersResource(getApiUrl(SubusersResource.API_VERSION), client, credential);
     }
 
     public AccountResource account() {
-        return new AccountResource(getApiUrl(AccountResource.API_VERSION), client, credential);
+        return account;
     }
 
     public ApiKeysResource apiKeys() {
-        return new ApiKeysResource(getApiUrl(ApiKeysResource.API_VERSION), client, credential);
+        return apiKeys;
     }
 
     public ApiKeyResource apiKey(ApiKey apiKey) {
@@ -27,7 +48,7 @@ public class RootResource extends SendGridResource {
     }
 
     public DomainWhitelabelsResource domainWhitelabels() {
-        return new DomainWhitelabelsResource(getApiUrl(DomainWhitelabelsResource.API_VERSION), client, credential);
+        return domainWhitelabels;
     }
 
     public DomainWhitelabelResource domainWhitelabel(Whitelabel whitelabel) {
@@ -39,11 +60,11 @@ public class RootResource extends SendGridResource {
     }
 
     public EventWebhookSettingsResource eventWebhookSettings() {
-        return new EventWebhookSettingsResource(getApiUrl(EventWebhookSettingsResource.API_VERSION), client, credential);
+        return eventWebhookSettings;
     }
 
     public IpsResource ips() {
-        return new IpsResource(getApiUrl(IpsResource.API_VERSION), client, credential);
+        return ips;
     }
 
     public IpResource ip(Ip ip) {
@@ -55,7 +76,7 @@ public class RootResource extends SendGridResource {
     }
 
     public IpPoolsResource ipPools() {
-        return new IpPoolsResource(getApiUrl(IpPoolsResource.API_VERSION), client, credential);
+        return ipPools;
     }
 
     public IpPoolResource ipPool(IpPool ipPool) {
@@ -67,7 +88,7 @@ public class RootResource extends SendGridResource {
     }
 
     public LinkWhitelabelsResource linkWhitelabels() {
-        return new LinkWhitelabelsResource(getApiUrl(LinkWhitelabelsResource.API_VERSION), client, credential);
+        return linkWhitelabels;
     }
 
     public LinkWhitelabelResource linkWhitelabel(Whitelabel whitelabel) {
@@ -79,11 +100,11 @@ public class RootResource extends SendGridResource {
     }
 
     public MailResource mail() {
-        return new MailResource(getApiUrl(MailResource.API_VERSION), client, credential);
+        return mail;
     }
 
     public MailSettingsResource mailSettings() {
-        return new MailSettingsResource(getApiUrl(MailSettingsResource.API_VERSION), client, credential);
+        return mailSettings;
     }
 
     public MailSettingResource mailSetting(MailSetting setting) {
@@ -95,7 +116,7 @@ public class RootResource extends SendGridResource {
     }
 
     public SubusersResource subusers() {
-        return new SubusersResource(getApiUrl(SubusersResource.API_VERSION), client, credential);
+        return subusers;
     }
 
     public SubuserResource subuser(Subuser subuser) {
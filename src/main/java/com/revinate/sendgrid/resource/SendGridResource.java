@@ -45,7 +45,7 @@ public abstract class SendGridResource {
     }
 
     protected String getApiUrl(ApiVersion apiVersion) {
-        return String.format("%s/%s", baseUrl, apiVersion.toUrlSegment());
+        return baseUrl + "/" + apiVersion.toUrlSegment();
     }
 
     protected UnsupportedOperationException unsupported() {
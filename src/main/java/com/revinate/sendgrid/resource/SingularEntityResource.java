@@ -12,6 +12,8 @@ public abstract class SingularEntityResource<T extends SendGridModel> extends Se
 
     protected final Class<T> entityType;
 
+    private String url;
+
     public SingularEntityResource(String baseUrl, SendGridHttpClient client, Credential credential, Class<T> entityType) {
         super(baseUrl, client, credential);
         this.entityType = entityType;
@@ -38,7 +40,12 @@ public abstract class SingularEntityResource<T extends SendGridModel> extends Se
     }
 
     protected String getUrl() {
-        return String.format("%s/%s", baseUrl, getEndpoint());
+        String result = url;
+        if (result == null) {
+            result = baseUrl + "/" + getEndpoint();
+            url = result;
+        }
+        return result;
     }
 
     protected abstract String getEndpoint();
@@ -3,13 +3,28 @@ package com.revinate.sendgrid.util;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.revinate.sendgrid.model.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * JSON mapping for SendGrid models. Readers and writers are cached per type, and those of the
+ * model types returned by the API are resolved when this class is loaded, so that the first
+ * call does not pay for introspection. The most frequently decoded models use the streaming
+ * codecs in {@link ModelCodecs}.
+ */
 public final class JsonUtils {
 
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
@@ -17,7 +32,8 @@ public final class JsonUtils {
             .setVisibility(PropertyAccessor.CREATOR, Visibility.NONE)
             .setPropertyNamingStrategy(PropertyNamingStrategy.CAMEL_CASE_TO_LOWER_CASE_WITH_UNDERSCORES)
             .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .registerModule(ModelCodecs.module());
 
     private static final ObjectMapper PRETTY_PRINT_OBJECT_MAPPER = new ObjectMapper()
             .setSerializationInclusion(JsonInclude.Include.NON_NULL)
@@ -25,17 +41,94 @@ public final class JsonUtils {
             .configure(SerializationFeature.INDENT_OUTPUT, true)
             .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
 
+    private static final Class<?>[] PRELOADED_TYPES = {
+            Account.class, ApiErrorsResponse.class, ApiKey.class, ApiKeysResponse.class,
+            EventWebhookSettings.class, Ip.class, IpCollection.class, IpPool.class, IpPoolCollection.class,
+            MailSetting.class, MailSettingsResponse.class, Monitor.class, Response.class, Subuser.class,
+            SubuserCollection.class, Whitelabel.class, WhitelabelCollection.class, WhitelabelValidation.class
+    };
+
+    private static final ConcurrentMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<Class<?>, ObjectReader>();
+    private static final ConcurrentMap<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+    static {
+        for (Class<?> type : PRELOADED_TYPES) {
+            reader(type);
+            writer(type);
+        }
+    }
+
     private JsonUtils() {}
 
     public static <T> T fromJson(String json, Class<T> type) throws IOException {
-        return OBJECT_MAPPER.readValue(json, type);
+        return reader(type).readValue(json);
+    }
+
+    public static <T> T fromJson(InputStream json, Class<T> type) throws IOException {
+        return reader(type).readValue(json);
+    }
+
+    public static JsonNode readTree(String json) throws IOException {
+        return OBJECT_MAPPER.readTree(json);
     }
 
     public static String toJson(Object object) throws IOException {
-        return OBJECT_MAPPER.writeValueAsString(object);
+        if (object == null) {
+            return OBJECT_MAPPER.writeValueAsString(null);
+        }
+        return writer(object.getClass()).writeValueAsString(object);
+    }
+
+    /**
+     * Creates a UTF-8 generator writing to the stream, which is flushed but left open when the
+     * generator is closed.
+     */
+    public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return OBJECT_MAPPER.getFactory().createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * Writes the JSON form of the object to the stream, which is flushed but left open.
+     */
+    public static void writeJson(OutputStream out, Object object) throws IOException {
+        JsonGenerator generator = createGenerator(out);
+        try {
+            if (object == null) {
+                generator.writeNull();
+            } else {
+                writer(object.getClass()).writeValue(generator, object);
+            }
+        } finally {
+            generator.close();
+        }
     }
 
     public static String toPrettyPrintJson(Object object) throws IOException {
         return PRETTY_PRINT_OBJECT_MAPPER.writeValueAsString(object);
     }
+
+    static ObjectReader reader(Class<?> type) {
+        ObjectReader reader = READERS.get(type);
+        if (reader == null) {
+            reader = OBJECT_MAPPER.reader(type);
+            ObjectReader existing = READERS.putIfAbsent(type, reader);
+            if (existing != null) {
+                reader = existing;
+            }
+        }
+        return reader;
+    }
+
+    static ObjectWriter writer(Class<?> type) {
+        ObjectWriter writer = WRITERS.get(type);
+        if (writer == null) {
+            writer = OBJECT_MAPPER.writerWithType(type);
+            ObjectWriter existing = WRITERS.putIfAbsent(type, writer);
+            if (existing != null) {
+                writer = existing;
+            }
+        }
+        return writer;
+    }
 }
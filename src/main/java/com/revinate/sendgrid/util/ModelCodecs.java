@@ -0,0 +1,555 @@
+package com.revinate.sendgrid.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.revinate.sendgrid.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Hand-written streaming codecs for the models that are decoded on almost every call. They read
+ * and write the same JSON as the bean mapping configured in {@link JsonUtils} (snake_case names,
+ * null properties omitted, unknown properties skipped) without going through reflective property
+ * access. Values in an unusual shape, such as a number where a string is expected, are handed to
+ * Jackson's own deserializers so that coercion and error reporting stay the same.
+ * <p>
+ * Codecs are registered for the exact model classes only; subclasses keep the bean mapping.
+ */
+final class ModelCodecs {
+
+    private ModelCodecs() {}
+
+    static Module module() {
+        SimpleModule module = new SimpleModule("SendGridModelCodecs");
+        module.addDeserializer(Response.class, new ResponseDeserializer());
+        module.addSerializer(Response.class, new ResponseSerializer());
+        module.addDeserializer(ApiErrorsResponse.class, new ApiErrorsResponseDeserializer());
+        module.addSerializer(ApiErrorsResponse.class, new ApiErrorsResponseSerializer());
+        module.addDeserializer(ApiError.class, new ApiErrorDeserializer());
+        module.addSerializer(ApiError.class, new ApiErrorSerializer());
+        module.addDeserializer(Subuser.class, new SubuserDeserializer());
+        module.addSerializer(Subuser.class, new SubuserSerializer());
+        module.addDeserializer(Ip.class, new IpDeserializer());
+        module.addSerializer(Ip.class, new IpSerializer());
+        module.addDeserializer(ApiKey.class, new ApiKeyDeserializer());
+        module.addSerializer(ApiKey.class, new ApiKeySerializer());
+        module.addDeserializer(MailSetting.class, new MailSettingDeserializer());
+        module.addSerializer(MailSetting.class, new MailSettingSerializer());
+        return module;
+    }
+
+    abstract static class ModelDeserializer<T> extends StdDeserializer<T> {
+
+        ModelDeserializer(Class<T> type) {
+            super(type);
+        }
+
+        @Override
+        public T deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken token = p.getCurrentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            } else if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+                throw ctxt.mappingException(handledType());
+            }
+
+            T value = newInstance();
+            for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                String name = p.getCurrentName();
+                p.nextToken();
+                if (!readProperty(value, name, p, ctxt)) {
+                    p.skipChildren();
+                }
+            }
+            return value;
+        }
+
+        protected abstract T newInstance();
+
+        /**
+         * Reads the value the parser is positioned at into the named property.
+         *
+         * @return false if the property is unknown and its value should be skipped
+         */
+        protected abstract boolean readProperty(T value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException;
+    }
+
+    abstract static class ModelSerializer<T> extends StdSerializer<T> {
+
+        ModelSerializer(Class<T> type) {
+            super(type);
+        }
+
+        @Override
+        public void serialize(T value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            writeProperties(value, gen, provider);
+            gen.writeEndObject();
+        }
+
+        protected abstract void writeProperties(T value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException;
+    }
+
+    static class ResponseDeserializer extends ModelDeserializer<Response> {
+
+        ResponseDeserializer() {
+            super(Response.class);
+        }
+
+        @Override
+        protected Response newInstance() {
+            return new Response();
+        }
+
+        @Override
+        protected boolean readProperty(Response value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException {
+            if ("message".equals(name)) {
+                value.setMessage(readString(p, ctxt));
+            } else if ("errors".equals(name)) {
+                value.setErrors(readStrings(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static class ResponseSerializer extends ModelSerializer<Response> {
+
+        ResponseSerializer() {
+            super(Response.class);
+        }
+
+        @Override
+        protected void writeProperties(Response value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeString(gen, "message", value.getMessage());
+            writeStrings(gen, "errors", value.getErrors());
+        }
+    }
+
+    static class ApiErrorsResponseDeserializer extends ModelDeserializer<ApiErrorsResponse> {
+
+        ApiErrorsResponseDeserializer() {
+            super(ApiErrorsResponse.class);
+        }
+
+        @Override
+        protected ApiErrorsResponse newInstance() {
+            return new ApiErrorsResponse();
+        }
+
+        @Override
+        protected boolean readProperty(ApiErrorsResponse value, String name, JsonParser p,
+                                       DeserializationContext ctxt) throws IOException {
+            if ("errors".equals(name)) {
+                value.setErrors(readApiErrors(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        private static List<ApiError> readApiErrors(JsonParser p, DeserializationContext ctxt) throws IOException {
+            JsonToken token = p.getCurrentToken();
+            if (token == JsonToken.VALUE_NULL) {
+                return null;
+            } else if (token != JsonToken.START_ARRAY) {
+                return ctxt.readValue(p, listType(ctxt, ApiError.class));
+            }
+
+            List<ApiError> errors = new ArrayList<ApiError>();
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                errors.add(p.getCurrentToken() == JsonToken.VALUE_NULL ? null : ctxt.readValue(p, ApiError.class));
+            }
+            return errors;
+        }
+    }
+
+    static class ApiErrorsResponseSerializer extends ModelSerializer<ApiErrorsResponse> {
+
+        ApiErrorsResponseSerializer() {
+            super(ApiErrorsResponse.class);
+        }
+
+        @Override
+        protected void writeProperties(ApiErrorsResponse value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeObject(gen, provider, "errors", value.getErrors());
+        }
+    }
+
+    static class ApiErrorDeserializer extends ModelDeserializer<ApiError> {
+
+        ApiErrorDeserializer() {
+            super(ApiError.class);
+        }
+
+        @Override
+        protected ApiError newInstance() {
+            return new ApiError();
+        }
+
+        @Override
+        protected boolean readProperty(ApiError value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException {
+            if ("field".equals(name)) {
+                value.setField(readString(p, ctxt));
+            } else if ("message".equals(name)) {
+                value.setMessage(readString(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static class ApiErrorSerializer extends ModelSerializer<ApiError> {
+
+        ApiErrorSerializer() {
+            super(ApiError.class);
+        }
+
+        @Override
+        protected void writeProperties(ApiError value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeString(gen, "field", value.getField());
+            writeString(gen, "message", value.getMessage());
+        }
+    }
+
+    static class SubuserDeserializer extends ModelDeserializer<Subuser> {
+
+        SubuserDeserializer() {
+            super(Subuser.class);
+        }
+
+        @Override
+        protected Subuser newInstance() {
+            return new Subuser();
+        }
+
+        @Override
+        protected boolean readProperty(Subuser value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException {
+            if ("id".equals(name)) {
+                value.setId(readInteger(p, ctxt));
+            } else if ("user_id".equals(name)) {
+                value.setUserId(readInteger(p, ctxt));
+            } else if ("username".equals(name)) {
+                value.setUsername(readString(p, ctxt));
+            } else if ("email".equals(name)) {
+                value.setEmail(readString(p, ctxt));
+            } else if ("password".equals(name)) {
+                value.setPassword(readString(p, ctxt));
+            } else if ("disabled".equals(name)) {
+                value.setDisabled(readBoolean(p, ctxt));
+            } else if ("signup_session_token".equals(name)) {
+                value.setSignupSessionToken(readString(p, ctxt));
+            } else if ("authorization_token".equals(name)) {
+                value.setAuthorizationToken(readString(p, ctxt));
+            } else if ("credit_allocation".equals(name)) {
+                value.setCreditAllocation(readObject(p, ctxt, CreditAllocation.class));
+            } else if ("ips".equals(name)) {
+                value.setIps(readStrings(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static class SubuserSerializer extends ModelSerializer<Subuser> {
+
+        SubuserSerializer() {
+            super(Subuser.class);
+        }
+
+        @Override
+        protected void writeProperties(Subuser value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeInteger(gen, "id", value.getId());
+            writeString(gen, "username", value.getUsername());
+            writeString(gen, "email", value.getEmail());
+            writeString(gen, "password", value.getPassword());
+            writeBoolean(gen, "disabled", value.getDisabled());
+            writeString(gen, "signup_session_token", value.getSignupSessionToken());
+            writeString(gen, "authorization_token", value.getAuthorizationToken());
+            writeObject(gen, provider, "credit_allocation", value.getCreditAllocation());
+            writeStrings(gen, "ips", value.getIps());
+        }
+    }
+
+    static class IpDeserializer extends ModelDeserializer<Ip> {
+
+        IpDeserializer() {
+            super(Ip.class);
+        }
+
+        @Override
+        protected Ip newInstance() {
+            return new Ip();
+        }
+
+        @Override
+        protected boolean readProperty(Ip value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException {
+            if ("ip".equals(name)) {
+                value.setIp(readString(p, ctxt));
+            } else if ("rdns".equals(name)) {
+                value.setRdns(readString(p, ctxt));
+            } else if ("subusers".equals(name)) {
+                value.setSubusers(readStrings(p, ctxt));
+            } else if ("pools".equals(name)) {
+                value.setPools(readStrings(p, ctxt));
+            } else if ("start_date".equals(name)) {
+                value.setStartDate(readDate(p, ctxt));
+            } else if ("warmup".equals(name)) {
+                value.setWarmup(readBoolean(p, ctxt));
+            } else if ("whitelabeled".equals(name)) {
+                value.setWhitelabeled(readBoolean(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static class IpSerializer extends ModelSerializer<Ip> {
+
+        IpSerializer() {
+            super(Ip.class);
+        }
+
+        @Override
+        protected void writeProperties(Ip value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeString(gen, "ip", value.getIp());
+            writeString(gen, "rdns", value.getRdns());
+            writeStrings(gen, "subusers", value.getSubusers());
+            writeStrings(gen, "pools", value.getPools());
+            if (value.getStartDate() != null) {
+                gen.writeFieldName("start_date");
+                provider.defaultSerializeDateValue(value.getStartDate(), gen);
+            }
+            writeBoolean(gen, "warmup", value.getWarmup());
+            writeBoolean(gen, "whitelabeled", value.getWhitelabeled());
+        }
+    }
+
+    static class ApiKeyDeserializer extends ModelDeserializer<ApiKey> {
+
+        ApiKeyDeserializer() {
+            super(ApiKey.class);
+        }
+
+        @Override
+        protected ApiKey newInstance() {
+            return new ApiKey();
+        }
+
+        @Override
+        protected boolean readProperty(ApiKey value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException {
+            if ("name".equals(name)) {
+                value.setName(readString(p, ctxt));
+            } else if ("api_key_id".equals(name)) {
+                value.setApiKeyId(readString(p, ctxt));
+            } else if ("api_key".equals(name)) {
+                value.setApiKey(readString(p, ctxt));
+            } else if ("scopes".equals(name)) {
+                value.setScopes(readStrings(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static class ApiKeySerializer extends ModelSerializer<ApiKey> {
+
+        ApiKeySerializer() {
+            super(ApiKey.class);
+        }
+
+        @Override
+        protected void writeProperties(ApiKey value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeString(gen, "name", value.getName());
+            writeString(gen, "api_key_id", value.getApiKeyId());
+            writeString(gen, "api_key", value.getApiKey());
+            writeStrings(gen, "scopes", value.getScopes());
+        }
+    }
+
+    static class MailSettingDeserializer extends ModelDeserializer<MailSetting> {
+
+        MailSettingDeserializer() {
+            super(MailSetting.class);
+        }
+
+        @Override
+        protected MailSetting newInstance() {
+            return new MailSetting();
+        }
+
+        @Override
+        protected boolean readProperty(MailSetting value, String name, JsonParser p, DeserializationContext ctxt)
+                throws IOException {
+            if ("name".equals(name)) {
+                value.setName(readString(p, ctxt));
+            } else if ("title".equals(name)) {
+                value.setTitle(readString(p, ctxt));
+            } else if ("description".equals(name)) {
+                value.setDescription(readString(p, ctxt));
+            } else if ("enabled".equals(name)) {
+                value.setEnabled(readBoolean(p, ctxt));
+            } else if ("email".equals(name)) {
+                value.setEmail(readString(p, ctxt));
+            } else {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    static class MailSettingSerializer extends ModelSerializer<MailSetting> {
+
+        MailSettingSerializer() {
+            super(MailSetting.class);
+        }
+
+        @Override
+        protected void writeProperties(MailSetting value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            writeString(gen, "name", value.getName());
+            writeString(gen, "title", value.getTitle());
+            writeString(gen, "description", value.getDescription());
+            writeBoolean(gen, "enabled", value.getEnabled());
+            writeString(gen, "email", value.getEmail());
+        }
+    }
+
+    private static String readString(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return p.getText();
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return StringDeserializer.instance.deserialize(p, ctxt);
+    }
+
+    private static Boolean readBoolean(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_TRUE) {
+            return Boolean.TRUE;
+        } else if (token == JsonToken.VALUE_FALSE) {
+            return Boolean.FALSE;
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return ctxt.readValue(p, Boolean.class);
+    }
+
+    private static Integer readInteger(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return p.getIntValue();
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return ctxt.readValue(p, Integer.class);
+    }
+
+    private static Date readDate(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return new Date(p.getLongValue());
+        } else if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return ctxt.readValue(p, Date.class);
+    }
+
+    private static List<String> readStrings(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        } else if (token != JsonToken.START_ARRAY) {
+            return ctxt.readValue(p, listType(ctxt, String.class));
+        }
+
+        List<String> values = new ArrayList<String>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            values.add(readString(p, ctxt));
+        }
+        return values;
+    }
+
+    private static <T> T readObject(JsonParser p, DeserializationContext ctxt, Class<T> type) throws IOException {
+        if (p.getCurrentToken() == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        return ctxt.readValue(p, type);
+    }
+
+    private static JavaType listType(DeserializationContext ctxt, Class<?> elementType) {
+        return ctxt.getTypeFactory().constructCollectionType(List.class, elementType);
+    }
+
+    private static void writeString(JsonGenerator gen, String name, String value) throws IOException {
+        if (value != null) {
+            gen.writeStringField(name, value);
+        }
+    }
+
+    private static void writeBoolean(JsonGenerator gen, String name, Boolean value) throws IOException {
+        if (value != null) {
+            gen.writeBooleanField(name, value);
+        }
+    }
+
+    private static void writeInteger(JsonGenerator gen, String name, Integer value) throws IOException {
+        if (value != null) {
+            gen.writeNumberField(name, value);
+        }
+    }
+
+    private static void writeStrings(JsonGenerator gen, String name, List<String> values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        gen.writeArrayFieldStart(name);
+        for (String value : values) {
+            if (value == null) {
+                gen.writeNull();
+            } else {
+                gen.writeString(value);
+            }
+        }
+        gen.writeEndArray();
+    }
+
+    private static void writeObject(JsonGenerator gen, SerializerProvider provider, String name, Object value)
+            throws IOException {
+        if (value != null) {
+            provider.defaultSerializeField(name, value, gen);
+        }
+    }
+}
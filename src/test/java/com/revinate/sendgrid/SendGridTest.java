@@ -1,12 +1,16 @@
 package com.revinate.sendgrid;
 
+import com.revinate.sendgrid.net.HttpTransport;
+import com.revinate.sendgrid.net.RetryPolicy;
 import com.revinate.sendgrid.net.SendGridHttpClient;
+import com.revinate.sendgrid.net.UrlConnectionHttpTransport;
 import com.revinate.sendgrid.net.auth.ApiKeyCredential;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.net.auth.OnBehalfOfCredential;
 import com.revinate.sendgrid.net.auth.UsernamePasswordCredential;
 import com.revinate.sendgrid.resource.*;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -83,6 +87,41 @@ public class SendGridTest {
         assertThat(onBehalfOfCredential.getUsername(), equalTo("username2"));
     }
 
+    @Test
+    public void onBehalfOf_shouldReuseResourcesForSameUsername() throws Exception {
+        RootResource resource = sendGrid.onBehalfOf("username2");
+
+        assertThat(sendGrid.onBehalfOf("username2"), sameInstance(resource));
+        assertThat(sendGrid.onBehalfOf("username3"), not(sameInstance(resource)));
+    }
+
+    @Test
+    public void onBehalfOf_shouldEvictLeastRecentlyUsedUsername() throws Exception {
+        sendGrid = new SendGrid(BASE_URL, client, new ApiKeyCredential(API_KEY), 2);
+        RootResource resource1 = sendGrid.onBehalfOf("username1");
+        RootResource resource2 = sendGrid.onBehalfOf("username2");
+
+        sendGrid.onBehalfOf("username1");
+        sendGrid.onBehalfOf("username3");
+
+        assertThat(sendGrid.onBehalfOf("username1"), sameInstance(resource1));
+        assertThat(sendGrid.onBehalfOf("username2"), not(sameInstance(resource2)));
+    }
+
+    @Test
+    public void onBehalfOf_shouldNotCacheWhenDisabled() throws Exception {
+        sendGrid = SendGrid.create(API_KEY).setClient(client).setOnBehalfOfCacheSize(0).build();
+
+        assertThat(sendGrid.onBehalfOf("username2"), not(sameInstance(sendGrid.onBehalfOf("username2"))));
+    }
+
+    @Test
+    public void resources_shouldBeReused() throws Exception {
+        assertThat(sendGrid.mail(), sameInstance(sendGrid.mail()));
+        assertThat(sendGrid.subusers(), sameInstance(sendGrid.subusers()));
+        assertThat(sendGrid.onBehalfOf("username2").mail(), sameInstance(sendGrid.onBehalfOf("username2").mail()));
+    }
+
     @Test
     public void onBehalfOf_shouldOverrideCredential() throws Exception {
         Credential credential = mock(Credential.class);
@@ -228,6 +267,23 @@ public class SendGridTest {
         assertThat(sendGrid.getCredential(), sameInstance(credential));
     }
 
+    @Test
+    public void builder_shouldAcceptRetryPolicy() throws Exception {
+        RetryPolicy retryPolicy = RetryPolicy.create().setMaxAttempts(5).build();
+        sendGrid = SendGrid.create(API_KEY).setRetryPolicy(retryPolicy).build();
+
+        assertThat(sendGrid.getClient().getRetryPolicy(), sameInstance(retryPolicy));
+    }
+
+    @Test
+    public void builder_shouldAcceptTransport() throws Exception {
+        HttpTransport transport = new UrlConnectionHttpTransport(SendGrid.USER_AGENT);
+        sendGrid = SendGrid.create(API_KEY).setTransport(transport).build();
+
+        assertThat(sendGrid.getClient().getTransport(), sameInstance(transport));
+        assertThat(sendGrid.getClient().getClient(), nullValue());
+    }
+
     @Test
     public void builder_shouldAcceptMaxConnections() throws Exception {
         sendGrid = SendGrid.create(API_KEY).setMaxConnections(MAX_CONNECTIONS).build();
@@ -245,6 +301,16 @@ public class SendGridTest {
         assertThat(sendGrid.getClient().getClient(), sameInstance(httpClient));
     }
 
+    @Test
+    public void builder_shouldAcceptCustomAsyncHttpClient() throws Exception {
+        CloseableHttpAsyncClient asyncHttpClient = mock(CloseableHttpAsyncClient.class);
+        sendGrid = SendGrid.create(API_KEY).setAsyncHttpClient(asyncHttpClient).build();
+
+        assertThat(sendGrid, notNullValue());
+        assertThat(sendGrid.getClient().getClient(), notNullValue());
+        assertThat(sendGrid.getClient().getAsyncClient().getClient(), sameInstance(asyncHttpClient));
+    }
+
     @Test
     public void builder_shouldAcceptCustomClient() throws Exception {
         sendGrid = SendGrid.create(API_KEY).setClient(client).build();
@@ -0,0 +1,150 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.mail.AttachmentStore.StoredAttachment;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AttachmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void put_shouldShareIdenticalContent() throws Exception {
+        AttachmentStore store = AttachmentStore.create().build();
+
+        StoredAttachment first = store.put("brochure".getBytes("UTF-8"));
+        StoredAttachment second = store.put(new ByteArrayInputStream("brochure".getBytes("UTF-8")));
+
+        assertThat(second, sameInstance(first));
+        assertThat(first.getKey(), equalTo("c318132fa32974d9b455378c9cf9292e8c9aca332917142fd3d392e39917d4bc"));
+        assertThat(store.getSize(), equalTo(1));
+        assertThat(store.getResidentBytes(), equalTo(8L));
+        assertThat(store.getHitCount(), equalTo(1L));
+        assertThat(store.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void put_shouldCopyContent() throws Exception {
+        AttachmentStore store = AttachmentStore.create().build();
+        byte[] content = "logo".getBytes("UTF-8");
+
+        StoredAttachment attachment = store.put(content);
+        content[0] = 'x';
+
+        assertThat(write(attachment), equalTo("logo"));
+        assertThat(write(attachment), equalTo("logo"));
+        assertThat(attachment.isRepeatable(), equalTo(true));
+        assertThat(attachment.getContentLength(), equalTo(4L));
+    }
+
+    @Test
+    public void put_shouldEvictLeastRecentlyUsedContent() throws Exception {
+        AttachmentStore store = AttachmentStore.create().setMaxBytes(10).build();
+
+        StoredAttachment first = store.put("aaaa".getBytes("UTF-8"));
+        StoredAttachment second = store.put("bbbb".getBytes("UTF-8"));
+        store.get(first.getKey());
+        store.put("cccc".getBytes("UTF-8"));
+
+        assertThat(store.get(first.getKey()), sameInstance(first));
+        assertThat(store.get(second.getKey()), nullValue());
+        assertThat(store.getResidentBytes(), equalTo(8L));
+        assertThat(store.getEvictionCount(), equalTo(1L));
+        assertThat(write(second), equalTo("bbbb"));
+    }
+
+    @Test
+    public void put_shouldNotKeepContentLargerThanStore() throws Exception {
+        AttachmentStore store = AttachmentStore.create().setMaxBytes(3).build();
+
+        StoredAttachment attachment = store.put("large".getBytes("UTF-8"));
+
+        assertThat(write(attachment), equalTo("large"));
+        assertThat(store.getSize(), equalTo(0));
+        assertThat(store.getResidentBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void put_shouldKeepContentOffHeap() throws Exception {
+        AttachmentStore store = AttachmentStore.create().setDirect(true).build();
+
+        StoredAttachment attachment = store.put("direct".getBytes("UTF-8"));
+
+        assertThat(write(attachment), equalTo("direct"));
+        assertThat(IOUtils.toString(attachment.openStream(), "UTF-8"), equalTo("direct"));
+    }
+
+    @Test
+    public void put_shouldReadUnchangedFileOnce() throws Exception {
+        AttachmentStore store = AttachmentStore.create().build();
+        File file = file("first");
+
+        StoredAttachment first = store.put(file);
+        StoredAttachment second = store.put(file);
+
+        assertThat(second, sameInstance(first));
+        assertThat(store.getMissCount(), equalTo(1L));
+        assertThat(store.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void put_shouldHashFileAsItIsRead() throws Exception {
+        AttachmentStore store = AttachmentStore.create().build();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append(i % 10);
+        }
+
+        StoredAttachment fromFile = store.put(file(content.toString()));
+
+        assertThat(store.put(content.toString().getBytes("UTF-8")), sameInstance(fromFile));
+        assertThat(fromFile.getContentLength(), equalTo(5000L));
+        assertThat(write(fromFile), equalTo(content.toString()));
+    }
+
+    @Test
+    public void put_shouldReadChangedFileAgain() throws Exception {
+        AttachmentStore store = AttachmentStore.create().build();
+        File file = file("first");
+
+        StoredAttachment first = store.put(file);
+        write(file, "second version");
+        StoredAttachment second = store.put(file);
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(write(second), equalTo("second version"));
+    }
+
+    private File file(String content) throws IOException {
+        File file = folder.newFile();
+        write(file, content);
+        return file;
+    }
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String write(StoredAttachment attachment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        attachment.writeTo(out);
+        return out.toString("UTF-8");
+    }
+}
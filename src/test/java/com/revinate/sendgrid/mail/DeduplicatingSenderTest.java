@@ -0,0 +1,140 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.ApiException;
+import com.revinate.sendgrid.exception.DuplicateEmailException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DeduplicatingSenderTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    MailSender sender;
+    Response response;
+    DeduplicatingSender deduplicatingSender;
+
+    @Before
+    public void setUp() throws Exception {
+        sender = mock(MailSender.class);
+        response = new Response();
+        when(sender.send(any(Email.class))).thenReturn(response);
+        deduplicatingSender = DeduplicatingSender.create(sender,
+                DeduplicationStore.create().setKeysPerGeneration(16).build()).build();
+    }
+
+    @Test
+    public void send_shouldRejectDuplicateBeforeSending() throws Exception {
+        Email email = DeduplicatingSender.setIdempotencyKey(new Email(), "order-1");
+        assertThat(email.getUniqueArg("idempotency_key"), equalTo("order-1"));
+
+        assertThat(deduplicatingSender.send(email), sameInstance(response));
+        try {
+            deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+            fail("Expected DuplicateEmailException");
+        } catch (DuplicateEmailException e) {
+            assertThat(e.getIdempotencyKey(), equalTo("order-1"));
+        }
+        verify(sender).send(any(Email.class));
+    }
+
+    @Test
+    public void send_shouldAlwaysSendEmailsWithoutKey() throws Exception {
+        deduplicatingSender.send(new Email());
+        deduplicatingSender.send(new Email());
+
+        verify(sender, times(2)).send(any(Email.class));
+    }
+
+    @Test
+    public void send_shouldAllowRetryAfterFailure() throws Exception {
+        when(sender.send(any(Email.class)))
+                .thenThrow(new ApiConnectionException("I/O error", new ConnectException("Connection refused")))
+                .thenReturn(response);
+        try {
+            deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+            fail("Expected ApiConnectionException");
+        } catch (ApiConnectionException e) {
+            // expected
+        }
+
+        deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+
+        verify(sender, times(2)).send(any(Email.class));
+        assertThat(deduplicatingSender.getStore().contains("order-1"), equalTo(true));
+    }
+
+    @Test
+    public void send_shouldAllowRetryAfterInvalidRequest() throws Exception {
+        when(sender.send(any(Email.class)))
+                .thenThrow(new InvalidRequestException("Bad request"))
+                .thenReturn(response);
+        try {
+            deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+            fail("Expected InvalidRequestException");
+        } catch (InvalidRequestException e) {
+            // expected
+        }
+
+        assertThat(deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1")),
+                sameInstance(response));
+    }
+
+    @Test
+    public void send_shouldKeepKeyAfterReadTimeout() throws Exception {
+        when(sender.send(any(Email.class)))
+                .thenThrow(new ApiConnectionException("I/O error", new SocketTimeoutException("Read timed out")));
+        try {
+            deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+            fail("Expected ApiConnectionException");
+        } catch (ApiConnectionException e) {
+            // expected
+        }
+        assertThat(deduplicatingSender.getStore().contains("order-1"), equalTo(true));
+
+        thrown.expect(DuplicateEmailException.class);
+        deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+    }
+
+    @Test
+    public void send_shouldKeepKeyAfterServerError() throws Exception {
+        when(sender.send(any(Email.class)))
+                .thenThrow(new ApiException("Internal error", null, 500));
+        try {
+            deduplicatingSender.send(DeduplicatingSender.setIdempotencyKey(new Email(), "order-1"));
+            fail("Expected ApiException");
+        } catch (ApiException e) {
+            // expected
+        }
+
+        assertThat(deduplicatingSender.getStore().contains("order-1"), equalTo(true));
+    }
+
+    @Test
+    public void send_shouldReadConfiguredKeyArg() throws Exception {
+        deduplicatingSender = DeduplicatingSender.create(sender, deduplicatingSender.getStore())
+                .setKeyArg("message_id").build();
+        deduplicatingSender.send(new Email().setUniqueArg("message_id", "m-1"));
+
+        thrown.expect(DuplicateEmailException.class);
+        deduplicatingSender.send(new Email().setUniqueArg("message_id", "m-1"));
+    }
+}
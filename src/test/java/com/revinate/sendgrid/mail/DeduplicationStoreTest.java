@@ -0,0 +1,110 @@
+package com.revinate.sendgrid.mail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class DeduplicationStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void add_shouldRejectKeyAddedBefore() throws Exception {
+        DeduplicationStore store = DeduplicationStore.create().setKeysPerGeneration(16).build();
+
+        assertThat(store.add("order-1"), equalTo(true));
+        assertThat(store.add("order-2"), equalTo(true));
+        assertThat(store.add("order-1"), equalTo(false));
+        assertThat(store.contains("order-2"), equalTo(true));
+        assertThat(store.contains("order-3"), equalTo(false));
+        assertThat(store.getSize(), equalTo(2L));
+        assertThat(store.getDuplicateCount(), equalTo(1L));
+    }
+
+    @Test
+    public void add_shouldForgetKeysAfterTtl() throws Exception {
+        DeduplicationStore store = DeduplicationStore.create()
+                .setTtlMillis(1000).setGenerations(2).setKeysPerGeneration(16).build();
+        long first = DeduplicationStore.hash("first");
+        long second = DeduplicationStore.hash("second");
+
+        assertThat(store.add(first, 0), equalTo(true));
+        assertThat(store.add(second, 900), equalTo(true));
+        assertThat(store.contains(first, 999), equalTo(true));
+        assertThat(store.add(first, 1500), equalTo(false));
+        assertThat(store.contains(first, 1899), equalTo(true));
+        assertThat(store.contains(second, 1899), equalTo(true));
+        assertThat(store.contains(second, 1900), equalTo(false));
+        assertThat(store.add(second, 2000), equalTo(true));
+    }
+
+    @Test
+    public void add_shouldEvictOldestGenerationWhenFull() throws Exception {
+        DeduplicationStore store = DeduplicationStore.create().setGenerations(2).setKeysPerGeneration(3).build();
+
+        for (int i = 0; i < 9; i++) {
+            assertThat(store.add(DeduplicationStore.hash("key-" + i), 0), equalTo(true));
+        }
+
+        assertThat(store.contains(DeduplicationStore.hash("key-0"), 0), equalTo(false));
+        assertThat(store.contains(DeduplicationStore.hash("key-8"), 0), equalTo(true));
+        assertThat(store.getEvictedCount(), greaterThan(0L));
+        assertThat(store.getMemoryBytes(), equalTo(2 * 4 * 8L));
+    }
+
+    @Test
+    public void add_shouldSpillOldestGenerationWhenFull() throws Exception {
+        File spillDirectory = new File(folder.getRoot(), "spill");
+        DeduplicationStore store = DeduplicationStore.create().setTtlMillis(1000).setGenerations(2)
+                .setKeysPerGeneration(3).setSpillDirectory(spillDirectory).build();
+
+        for (int i = 0; i < 30; i++) {
+            assertThat(store.add(DeduplicationStore.hash("key-" + i), i), equalTo(true));
+        }
+
+        for (int i = 0; i < 30; i++) {
+            assertThat(store.contains(DeduplicationStore.hash("key-" + i), 30), equalTo(true));
+        }
+        assertThat(store.getEvictedCount(), equalTo(0L));
+        assertThat(store.getSpilledSize(), greaterThan(0L));
+        assertThat(spillDirectory.list().length, greaterThan(0));
+
+        assertThat(store.contains(DeduplicationStore.hash("key-0"), 2000), equalTo(false));
+        assertThat(store.getSpilledSize(), equalTo(0L));
+        assertThat(spillDirectory.list().length, equalTo(0));
+    }
+
+    @Test
+    public void remove_shouldKeepOtherKeysReachable() throws Exception {
+        DeduplicationStore store = DeduplicationStore.create().setKeysPerGeneration(64).build();
+        for (int i = 0; i < 48; i++) {
+            store.add("key-" + i);
+        }
+
+        for (int i = 0; i < 48; i += 2) {
+            assertThat(store.remove("key-" + i), equalTo(true));
+        }
+
+        for (int i = 0; i < 48; i++) {
+            assertThat(store.contains("key-" + i), equalTo(i % 2 == 1));
+        }
+        assertThat(store.remove("key-0"), equalTo(false));
+        assertThat(store.getSize(), equalTo(24L));
+    }
+
+    @Test
+    public void setGenerations_shouldRejectSingleGeneration() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        DeduplicationStore.create().setGenerations(1);
+    }
+}
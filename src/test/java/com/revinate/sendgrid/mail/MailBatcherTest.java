@@ -0,0 +1,215 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MailBatcherTest {
+
+    MailSender sender;
+    Response response;
+    MailBatcher batcher;
+
+    @Before
+    public void setUp() throws Exception {
+        sender = mock(MailSender.class);
+        response = new Response();
+        when(sender.send(any(Email.class))).thenReturn(response);
+        batcher = MailBatcher.create(sender).setMaxRecipients(3).setMaxDelayMillis(60000).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        batcher.close();
+    }
+
+    @Test
+    public void submit_shouldFoldCompatibleEmails() throws Exception {
+        Future<Response> first = batcher.submit(email("a@example.com", "Alice"));
+        Future<Response> second = batcher.submit(email("b@example.com", "Bob"));
+
+        batcher.flush();
+
+        assertThat(first.get(5, TimeUnit.SECONDS), sameInstance(response));
+        assertThat(second.get(5, TimeUnit.SECONDS), sameInstance(response));
+        ArgumentCaptor<Email> captor = ArgumentCaptor.forClass(Email.class);
+        verify(sender).send(captor.capture());
+        Email sent = captor.getValue();
+        assertThat(sent.getSmtpApiTos(), hasSize(2));
+        assertThat(sent.getSmtpApiTos().get(0), containsString("a@example.com"));
+        assertThat(sent.getSmtpApiTos().get(1), containsString("b@example.com"));
+        assertThat(sent.getSubstitution(":name"), contains("Alice", "Bob"));
+        assertThat(sent.getSubstitutionTable().getRowCount(), equalTo(2));
+        assertThat(sent.getSubject(), equalTo("Reminder"));
+        assertThat(sent.getTos(), empty());
+        assertThat(batcher.getEmailCount(), equalTo(2L));
+        assertThat(batcher.getRequestCount(), equalTo(1L));
+    }
+
+    @Test
+    public void submit_shouldSendBatchWhenFull() throws Exception {
+        Email smtpApiEmail = new Email().setFrom("from@example.com").setSubject("Reminder").setText("Hello :name");
+        smtpApiEmail.addSmtpApiTo("c@example.com").addSmtpApiTo("d@example.com");
+        smtpApiEmail.setSubstitution(":name", list("Carol", "Dave"));
+
+        Future<Response> first = batcher.submit(email("a@example.com", "Alice"));
+        Future<Response> second = batcher.submit(smtpApiEmail);
+
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(first.isDone(), equalTo(true));
+        ArgumentCaptor<Email> captor = ArgumentCaptor.forClass(Email.class);
+        verify(sender).send(captor.capture());
+        assertThat(captor.getValue().getSubstitution(":name"), contains("Alice", "Carol", "Dave"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void submit_shouldStartNewBatchWhenRecipientsDoNotFit() throws Exception {
+        Email smtpApiEmail = new Email().setFrom("from@example.com").setSubject("Reminder").setText("Hello :name");
+        smtpApiEmail.addSmtpApiTo("b@example.com").addSmtpApiTo("c@example.com");
+        smtpApiEmail.setSubstitution(":name", list("Bob", "Carol"));
+
+        Future<Response> first = batcher.submit(email("a@example.com", "Alice"));
+        batcher.submit(email("e@example.com", "Eve"));
+        Future<Response> third = batcher.submit(smtpApiEmail);
+        batcher.flush();
+
+        first.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+        ArgumentCaptor<Email> captor = ArgumentCaptor.forClass(Email.class);
+        verify(sender, times(2)).send(captor.capture());
+        List<List<String>> names = new ArrayList<List<String>>();
+        for (Email email : captor.getAllValues()) {
+            names.add(email.getSubstitution(":name"));
+        }
+        assertThat(names, containsInAnyOrder(list("Alice", "Eve"), list("Bob", "Carol")));
+    }
+
+    @Test
+    public void submit_shouldNotFoldIncompatibleEmails() throws Exception {
+        Future<Response> first = batcher.submit(email("a@example.com", "Alice"));
+        Future<Response> other = batcher.submit(email("b@example.com", "Bob").setSubject("Other"));
+
+        batcher.flush();
+
+        first.get(5, TimeUnit.SECONDS);
+        other.get(5, TimeUnit.SECONDS);
+        verify(sender, times(2)).send(any(Email.class));
+    }
+
+    @Test
+    public void submit_shouldSendUnbatchableEmailAsIs() throws Exception {
+        Email email = email("a@example.com", "Alice").addCc("c@example.com");
+
+        batcher.submit(email).get(5, TimeUnit.SECONDS);
+
+        verify(sender).send(same(email));
+    }
+
+    @Test
+    public void submit_shouldSendBatchAfterDelay() throws Exception {
+        batcher.close();
+        batcher = MailBatcher.create(sender).setMaxDelayMillis(10).build();
+
+        Future<Response> future = batcher.submit(email("a@example.com", "Alice"));
+
+        assertThat(future.get(5, TimeUnit.SECONDS), sameInstance(response));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void submit_shouldFailAllEmailsOfFailedBatch() throws Exception {
+        InvalidRequestException failure = new InvalidRequestException("bad request");
+        when(sender.send(any(Email.class))).thenThrow(failure);
+
+        Future<Response> first = batcher.submit(email("a@example.com", "Alice"));
+        Future<Response> second = batcher.submit(email("b@example.com", "Bob"));
+        batcher.flush();
+
+        for (Future<Response> future : list(first, second)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("Expected exception");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), sameInstance((Throwable) failure));
+            }
+        }
+    }
+
+    @Test
+    public void send_shouldRethrowFailure() throws Exception {
+        InvalidRequestException failure = new InvalidRequestException("bad request");
+        when(sender.send(any(Email.class))).thenThrow(failure);
+        batcher.close();
+        batcher = MailBatcher.create(sender).setMaxDelayMillis(0).build();
+
+        try {
+            batcher.send(email("a@example.com", "Alice"));
+            fail("Expected exception");
+        } catch (InvalidRequestException e) {
+            assertThat(e, sameInstance(failure));
+        }
+    }
+
+    @Test
+    public void close_shouldSendPendingBatchesAndRejectNewEmails() throws Exception {
+        Future<Response> pending = batcher.submit(email("a@example.com", "Alice"));
+
+        batcher.close();
+
+        assertThat(pending.get(5, TimeUnit.SECONDS), sameInstance(response));
+        try {
+            batcher.submit(email("b@example.com", "Bob")).get();
+            fail("Expected exception");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ApiConnectionException.class));
+        }
+    }
+
+    @Test
+    public void recipientsOf_shouldRejectMisalignedSubstitutions() throws Exception {
+        Email email = email("a@example.com", "Alice").addValueToSubstitution(":name", "Bob");
+
+        assertThat(MailBatcher.recipientsOf(email), nullValue());
+        assertThat(MailBatcher.recipientsOf(new Email().addTo("a@example.com").addTo("b@example.com")),
+                nullValue());
+    }
+
+    private static Email email(String to, String name) {
+        return new Email()
+                .setFrom("from@example.com")
+                .setSubject("Reminder")
+                .setText("Hello :name")
+                .addTo(to)
+                .setSubstitution(":name", Collections.singletonList(name));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> list(T... values) {
+        List<T> list = new ArrayList<T>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
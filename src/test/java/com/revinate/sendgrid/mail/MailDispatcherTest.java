@@ -0,0 +1,197 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.exception.SendGridException;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.net.SendGridHttpClient;
+import com.revinate.sendgrid.net.auth.Credential;
+import com.revinate.sendgrid.resource.MailResource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MailDispatcherTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    BlockingSender sender;
+    MailDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        sender = new BlockingSender();
+        dispatcher = MailDispatcher.create(sender).setConcurrency(1).setQueueCapacity(1).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender.release.countDown();
+        dispatcher.close();
+    }
+
+    @Test
+    public void submit_shouldSendEmail() throws Exception {
+        sender.release.countDown();
+
+        Future<Response> future = dispatcher.submit(new Email());
+
+        assertThat(future.get(5, TimeUnit.SECONDS), sameInstance(sender.response));
+        assertThat(dispatcher.getSubmittedCount(), equalTo(1L));
+        assertThat(dispatcher.getCompletedCount(), equalTo(1L));
+        assertThat(dispatcher.getFailedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void send_shouldRethrowFailure() throws Exception {
+        sender.release.countDown();
+        sender.failure = new InvalidRequestException("bad request");
+
+        thrown.expect(InvalidRequestException.class);
+        try {
+            dispatcher.send(new Email());
+        } finally {
+            assertThat(dispatcher.getFailedCount(), equalTo(1L));
+        }
+    }
+
+    @Test
+    public void trySubmit_shouldRejectWhenFull() throws Exception {
+        Future<Response> first = dispatcher.trySubmit(new Email());
+        sender.started.await(5, TimeUnit.SECONDS);
+        Future<Response> second = dispatcher.trySubmit(new Email());
+        Future<Response> third = dispatcher.trySubmit(new Email());
+
+        assertThat(first, notNullValue());
+        assertThat(second, notNullValue());
+        assertThat(third, nullValue());
+        assertThat(dispatcher.getActiveCount(), equalTo(1));
+        assertThat(dispatcher.getQueueDepth(), equalTo(1));
+        assertThat(dispatcher.getRejectedCount(), equalTo(1L));
+
+        sender.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertThat(dispatcher.trySubmit(new Email()), notNullValue());
+        assertThat(dispatcher.getCompletedCount(), greaterThanOrEqualTo(2L));
+    }
+
+    @Test
+    public void submit_shouldTimeOutWhenFull() throws Exception {
+        dispatcher.submit(new Email());
+        dispatcher.submit(new Email());
+
+        long start = System.nanoTime();
+        Future<Response> future = dispatcher.submit(new Email(), 50, TimeUnit.MILLISECONDS);
+
+        assertThat(future, nullValue());
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(40L));
+        assertThat(dispatcher.getRejectedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void submit_shouldBlockUntilThereIsRoom() throws Exception {
+        dispatcher.submit(new Email());
+        dispatcher.submit(new Email());
+
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            Future<Future<Response>> submission = submitter.submit(new Callable<Future<Response>>() {
+                @Override
+                public Future<Response> call() throws Exception {
+                    return dispatcher.submit(new Email());
+                }
+            });
+
+            try {
+                submission.get(100, TimeUnit.MILLISECONDS);
+                fail("Expected submission to block");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            sender.release.countDown();
+            assertThat(submission.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS), sameInstance(sender.response));
+        } finally {
+            submitter.shutdownNow();
+        }
+        assertThat(dispatcher.getMaxWaitMillis(), greaterThan(0.0));
+        assertThat(dispatcher.getMeanWaitMillis(), greaterThan(0.0));
+    }
+
+    @Test
+    public void close_shouldSendAcceptedEmailsAndRejectNewOnes() throws Exception {
+        Future<Response> first = dispatcher.submit(new Email());
+        Future<Response> second = dispatcher.submit(new Email());
+
+        dispatcher.close();
+        sender.release.countDown();
+
+        assertThat(dispatcher.awaitTermination(5, TimeUnit.SECONDS), equalTo(true));
+        assertThat(first.get(), sameInstance(sender.response));
+        assertThat(second.get(), sameInstance(sender.response));
+
+        Future<Response> rejected = dispatcher.submit(new Email());
+        try {
+            rejected.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(ApiConnectionException.class));
+        }
+        assertThat(dispatcher.getSubmittedCount(), equalTo(2L));
+    }
+
+    @Test
+    public void create_shouldUseClientPoolSizeForResource() throws Exception {
+        SendGridHttpClient client = mock(SendGridHttpClient.class);
+        when(client.getMaxConnections()).thenReturn(7);
+        MailResource resource = new MailResource("https://api.sendgrid.com", client, mock(Credential.class));
+
+        MailDispatcher resourceDispatcher = MailDispatcher.create(resource).build();
+        try {
+            assertThat(resourceDispatcher.getConcurrency(), equalTo(7));
+        } finally {
+            resourceDispatcher.close();
+        }
+    }
+
+    @Test
+    public void setConcurrency_shouldRejectZero() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        MailDispatcher.create(sender).setConcurrency(0);
+    }
+
+    private static class BlockingSender implements MailSender {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Response response = new Response();
+        volatile SendGridException failure;
+
+        @Override
+        public Response send(Email email) throws SendGridException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class MailSchedulerTest {
+
+    static final long MINUTE = 60 * 1000;
+    static final long DAY = 24 * 60 * MINUTE;
+
+    MailSender sender;
+    Response response;
+    DirectExecutor executor;
+    MailScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        sender = mock(MailSender.class);
+        response = new Response();
+        when(sender.send(any(Email.class))).thenReturn(response);
+        executor = new DirectExecutor();
+        scheduler = MailScheduler.create(sender)
+                .setTickMillis(1000)
+                .setWheelSize(64)
+                .setLevels(3)
+                .setLeadMillis(MINUTE)
+                .setMaxBatchSize(100)
+                .setExecutor(executor)
+                .setStartTime(0)
+                .setTicking(false)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.close();
+    }
+
+    @Test
+    public void schedule_shouldReleaseEmailLeadMillisBeforeSendTime() throws Exception {
+        Email email = new Email().setSubject("Reminder");
+        scheduler.schedule(email, 60 * MINUTE);
+
+        scheduler.advance(59 * MINUTE - 1000);
+        verify(sender, never()).send(any(Email.class));
+        assertThat(scheduler.getPendingCount(), equalTo(1));
+
+        scheduler.advance(59 * MINUTE);
+        verify(sender).send(same(email));
+        assertThat(email.getSendAt(), equalTo(3600));
+        assertThat(scheduler.getPendingCount(), equalTo(0));
+        assertThat(scheduler.getReleasedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void schedule_shouldReleaseEmailsBeyondHighestWheel() throws Exception {
+        Email email = new Email();
+        scheduler.schedule(email, 10 * DAY);
+
+        for (long now = 0; now < 10 * DAY - MINUTE; now += 10 * MINUTE) {
+            scheduler.advance(now);
+        }
+        scheduler.advance(10 * DAY - MINUTE - 1000);
+        verify(sender, never()).send(any(Email.class));
+
+        scheduler.advance(10 * DAY - MINUTE);
+        verify(sender).send(same(email));
+        assertThat(email.getSendAt(), equalTo((int) (10 * DAY / 1000)));
+    }
+
+    @Test
+    public void schedule_shouldReleaseEmailsInOrderOfTime() throws Exception {
+        List<Email> emails = new ArrayList<Email>();
+        for (int i = 0; i < 50; i++) {
+            Email email = new Email().setSubject("Email " + i);
+            emails.add(email);
+            scheduler.schedule(email, MINUTE + (50 - i) * 37 * 1000L);
+        }
+
+        for (long now = 0; now <= MINUTE + 51 * 37 * 1000L; now += 1000) {
+            scheduler.advance(now);
+        }
+
+        List<Email> expected = new ArrayList<Email>(emails);
+        Collections.reverse(expected);
+        ArgumentCaptor<Email> captor = ArgumentCaptor.forClass(Email.class);
+        verify(sender, times(50)).send(captor.capture());
+        assertThat(captor.getAllValues(), equalTo(expected));
+    }
+
+    @Test
+    public void schedule_shouldReleasePastEmailsWithoutSendAt() throws Exception {
+        scheduler.advance(10 * MINUTE);
+        Email email = new Email();
+        scheduler.schedule(email, 5 * MINUTE);
+
+        scheduler.advance(10 * MINUTE);
+
+        verify(sender).send(same(email));
+        assertThat(email.getSendAt(), nullValue());
+    }
+
+    @Test
+    public void schedule_shouldSendReleasedEmailsInBatches() throws Exception {
+        for (int i = 0; i < 250; i++) {
+            scheduler.schedule(new Email(), 2 * MINUTE);
+        }
+
+        scheduler.advance(2 * MINUTE);
+
+        verify(sender, times(250)).send(any(Email.class));
+        assertThat(executor.taskCount, equalTo(3));
+    }
+
+    @Test
+    public void cancel_shouldKeepEmailFromBeingSent() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        MailScheduler.ScheduledEmail cancelled = scheduler.schedule(new Email(), 30 * MINUTE, callback);
+        Email kept = new Email();
+        MailScheduler.ScheduledEmail scheduled = scheduler.schedule(kept, 30 * MINUTE);
+
+        assertThat(cancelled.cancel(), equalTo(true));
+        assertThat(cancelled.cancel(), equalTo(false));
+        scheduler.advance(30 * MINUTE);
+
+        verify(sender).send(same(kept));
+        verifyNoMoreInteractions(sender);
+        assertThat(callback.cancelled, equalTo(true));
+        assertThat(cancelled.isCancelled(), equalTo(true));
+        assertThat(scheduled.isPending(), equalTo(false));
+        assertThat(scheduled.cancel(), equalTo(false));
+        assertThat(scheduler.getCancelledCount(), equalTo(1L));
+        assertThat(scheduler.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void reschedule_shouldMoveEmail() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        Email email = new Email();
+        MailScheduler.ScheduledEmail scheduled = scheduler.schedule(email, 30 * MINUTE, callback);
+
+        assertThat(scheduled.reschedule(90 * MINUTE), equalTo(true));
+        scheduler.advance(60 * MINUTE);
+        verify(sender, never()).send(any(Email.class));
+
+        scheduler.advance(89 * MINUTE);
+        verify(sender).send(same(email));
+        assertThat(email.getSendAt(), equalTo(90 * 60));
+        assertThat(callback.response, sameInstance(response));
+    }
+
+    private static class RecordingCallback implements FutureCallback<Response> {
+
+        Response response;
+        boolean cancelled;
+
+        @Override
+        public void completed(Response result) {
+            response = result;
+        }
+
+        @Override
+        public void failed(Exception ex) {
+        }
+
+        @Override
+        public void cancelled() {
+            cancelled = true;
+        }
+    }
+
+    private static class DirectExecutor extends AbstractExecutorService {
+
+        int taskCount;
+        boolean shutdown;
+
+        @Override
+        public void execute(Runnable command) {
+            taskCount++;
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<Runnable>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.revinate.sendgrid.mail;
+
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.mail.AttachmentStore.StoredAttachment;
+import com.revinate.sendgrid.model.Attachment;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    File directory;
+    Outbox outbox;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(folder.getRoot(), "outbox");
+        outbox = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        outbox.close();
+    }
+
+    @Test
+    public void build_shouldRecoverUnacknowledgedEmails() throws Exception {
+        File file = folder.newFile("terms.txt");
+        FileUtils.writeStringToFile(file, "terms", "UTF-8");
+
+        Email email = new Email()
+                .addTo("to@example.com", "To")
+                .addCc("cc@example.com")
+                .setFrom("from@example.com", "From")
+                .setReplyTo("reply@example.com")
+                .setSubject("Subject é")
+                .setText("Hello :name")
+                .setHtml("<p>Hello :name</p>")
+                .setHeader("X-Test", "1")
+                .setAttachment("terms.txt", file)
+                .addCategory("reminder")
+                .setUniqueArg("key", "value")
+                .setSection(":section", "text")
+                .setAsmGroupId(7)
+                .setSendAt(1500000000)
+                .setIpPool("pool")
+                .addSmtpApiTo("a@example.com", "Alice")
+                .addValueToSubstitution(":name", "Alice")
+                .setTemplateId("template");
+        email.setAttachment("inline.txt", Attachment.fromBytes("inline".getBytes("UTF-8")), "cid");
+
+        long acked = outbox.append(new Email().setSubject("acknowledged"));
+        long id = outbox.append(email);
+        outbox.ack(acked);
+        outbox.close();
+
+        outbox = open();
+        List<Outbox.Entry> pending = outbox.getPending();
+        assertThat(pending, hasSize(1));
+        assertThat(pending.get(0).getId(), equalTo(id));
+
+        Email recovered = pending.get(0).getEmail();
+        assertThat(recovered.getTos(), contains("to@example.com"));
+        assertThat(recovered.getToNames(), contains("To"));
+        assertThat(recovered.getCcs(), contains("cc@example.com"));
+        assertThat(recovered.getFrom(), equalTo("from@example.com"));
+        assertThat(recovered.getFromName(), equalTo("From"));
+        assertThat(recovered.getReplyTo(), equalTo("reply@example.com"));
+        assertThat(recovered.getSubject(), equalTo("Subject é"));
+        assertThat(recovered.getText(), equalTo("Hello :name"));
+        assertThat(recovered.getHtml(), equalTo("<p>Hello :name</p>"));
+        assertThat(recovered.getHeaders(), equalTo(email.getHeaders()));
+        assertThat(recovered.getContentIds(), equalTo(email.getContentIds()));
+        assertThat(content(recovered.getAttachmentSource("inline.txt")), equalTo("inline"));
+        assertThat(recovered.getAttachmentSource("terms.txt").getFile(), equalTo(file));
+        assertThat(content(recovered.getAttachmentSource("terms.txt")), equalTo("terms"));
+        assertThat(recovered.toSmtpApiHeader(), equalTo(email.toSmtpApiHeader()));
+        assertThat(outbox.getPendingCount(), equalTo(1));
+    }
+
+    @Test
+    public void ack_shouldForgetEmail() throws Exception {
+        long id = outbox.append(new Email());
+
+        assertThat(outbox.ack(id), equalTo(true));
+        assertThat(outbox.ack(id), equalTo(false));
+        outbox.close();
+
+        outbox = open();
+        assertThat(outbox.getPending(), empty());
+        assertThat(outbox.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void build_shouldContinueIdsAfterRecoveredEmails() throws Exception {
+        long id = outbox.append(new Email());
+        outbox.close();
+
+        outbox = open();
+        assertThat(outbox.append(new Email()), greaterThan(id));
+    }
+
+    @Test
+    public void build_shouldStopAtTornEmail() throws Exception {
+        outbox.append(new Email().setSubject("first"));
+        outbox.append(new Email().setSubject("second"));
+        outbox.close();
+
+        File segment = segmentFiles().get(0);
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            int second = indexOf(content, "second".getBytes("UTF-8"));
+            file.seek(second);
+            file.write('X');
+        } finally {
+            file.close();
+        }
+
+        outbox = open();
+        List<Outbox.Entry> pending = outbox.getPending();
+        assertThat(pending, hasSize(1));
+        assertThat(pending.get(0).getEmail().getSubject(), equalTo("first"));
+    }
+
+    @Test
+    public void compact_shouldDeleteAcknowledgedSegments() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            outbox.ack(outbox.append(new Email().setSubject("Email " + i).setText(text(200))));
+        }
+
+        assertThat(outbox.getSegmentCount(), lessThanOrEqualTo(2));
+        assertThat(segmentFiles().size(), equalTo(outbox.getSegmentCount()));
+    }
+
+    @Test
+    public void compact_shouldCopyFewPendingEmailsForward() throws Exception {
+        long kept = outbox.append(new Email().setSubject("kept"));
+        for (int i = 0; i < 100; i++) {
+            outbox.ack(outbox.append(new Email().setSubject("Email " + i).setText(text(200))));
+        }
+
+        assertThat(outbox.getSegmentCount(), lessThanOrEqualTo(2));
+        outbox.close();
+
+        outbox = open();
+        List<Outbox.Entry> pending = outbox.getPending();
+        assertThat(pending, hasSize(1));
+        assertThat(pending.get(0).getId(), equalTo(kept));
+        assertThat(pending.get(0).getEmail().getSubject(), equalTo("kept"));
+    }
+
+    @Test
+    public void append_shouldKeepLargeEmailInOwnSegment() throws Exception {
+        long id = outbox.append(new Email().setText(text(5000)));
+        outbox.close();
+
+        outbox = open();
+        assertThat(outbox.getPending().get(0).getId(), equalTo(id));
+        assertThat(outbox.getPending().get(0).getEmail().getText(), equalTo(text(5000)));
+    }
+
+    @Test
+    public void append_shouldKeepEmailsWhenEmailsCopiedForwardFillNewSegment() throws Exception {
+        long kept = outbox.append(new Email().setSubject("kept"));
+        for (int i = 0; i < 6; i++) {
+            outbox.ack(outbox.append(new Email().setText(text(100))));
+        }
+        long large = outbox.append(new Email().setText(text(850)));
+        long after = outbox.append(new Email().setSubject("after"));
+        outbox.close();
+
+        outbox = open();
+        List<Long> recovered = new ArrayList<Long>();
+        for (Outbox.Entry entry : outbox.getPending()) {
+            recovered.add(entry.getId());
+        }
+        assertThat(recovered, containsInAnyOrder(kept, large, after));
+    }
+
+    @Test
+    public void append_shouldRejectStreamAttachment() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+        outbox.append(new Email().setAttachment("file.txt", new ByteArrayInputStream(new byte[1])));
+    }
+
+    @Test
+    public void append_shouldReferenceStoredAttachments() throws Exception {
+        AttachmentStore store = AttachmentStore.create().build();
+        StoredAttachment attachment = store.put("brochure".getBytes("UTF-8"));
+        File blob = new File(new File(directory, "blobs"), attachment.getKey());
+
+        outbox.append(new Email().setAttachment("first.pdf", attachment));
+        long second = outbox.append(new Email().setAttachment("second.pdf", attachment));
+        outbox.close();
+
+        assertThat(blob.isFile(), equalTo(true));
+        AttachmentStore recoveredStore = AttachmentStore.create().build();
+        outbox = Outbox.create(directory).setSegmentSize(1024).setAttachmentStore(recoveredStore).build();
+        Email recovered = outbox.getPending().get(1).getEmail();
+        Attachment recoveredAttachment = recovered.getAttachmentSource("second.pdf");
+        assertThat(recoveredAttachment, instanceOf(StoredAttachment.class));
+        assertThat(((StoredAttachment) recoveredAttachment).getKey(), equalTo(attachment.getKey()));
+        assertThat(content(recoveredAttachment), equalTo("brochure"));
+
+        for (Outbox.Entry entry : outbox.getPending()) {
+            entry.ack();
+        }
+        outbox.compact();
+        for (int i = 0; i < 20; i++) {
+            outbox.ack(outbox.append(new Email().setText(text(200))));
+        }
+        assertThat(blob.exists(), equalTo(false));
+        assertThat(second, greaterThan(0L));
+    }
+
+    @Test
+    public void send_shouldAcknowledgeSentAndRejectedEmails() throws Exception {
+        MailSender sender = mock(MailSender.class);
+        Response response = new Response();
+        when(sender.send(any(Email.class))).thenReturn(response);
+
+        assertThat(outbox.send(new Email(), sender), sameInstance(response));
+
+        when(sender.send(any(Email.class))).thenThrow(new InvalidRequestException("bad request"));
+        try {
+            outbox.send(new Email(), sender);
+            fail("Expected InvalidRequestException");
+        } catch (InvalidRequestException e) {
+            // expected
+        }
+        assertThat(outbox.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void replay_shouldSendEmailsThatFailedToSend() throws Exception {
+        MailSender sender = mock(MailSender.class);
+        when(sender.send(any(Email.class))).thenThrow(new ApiConnectionException("connection refused"));
+        try {
+            outbox.send(new Email().setSubject("retry me"), sender);
+            fail("Expected ApiConnectionException");
+        } catch (ApiConnectionException e) {
+            // expected
+        }
+        assertThat(outbox.getPendingCount(), equalTo(1));
+        outbox.close();
+
+        outbox = open();
+        MailSender retrySender = mock(MailSender.class);
+        assertThat(outbox.replay(retrySender), equalTo(1));
+        ArgumentCaptor<Email> captor = ArgumentCaptor.forClass(Email.class);
+        verify(retrySender).send(captor.capture());
+        assertThat(captor.getValue().getSubject(), equalTo("retry me"));
+        assertThat(outbox.getPending(), empty());
+        assertThat(outbox.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void replay_shouldSendEmailsThatFailedToSendWithoutReopening() throws Exception {
+        MailSender sender = mock(MailSender.class);
+        when(sender.send(any(Email.class))).thenThrow(new ApiConnectionException("connection refused"));
+        try {
+            outbox.send(new Email().setSubject("retry me"), sender);
+            fail("Expected ApiConnectionException");
+        } catch (ApiConnectionException e) {
+            // expected
+        }
+        assertThat(outbox.getPending(), hasSize(1));
+
+        MailSender retrySender = mock(MailSender.class);
+        assertThat(outbox.replay(retrySender), equalTo(1));
+
+        ArgumentCaptor<Email> captor = ArgumentCaptor.forClass(Email.class);
+        verify(retrySender).send(captor.capture());
+        assertThat(captor.getValue().getSubject(), equalTo("retry me"));
+        assertThat(outbox.getPendingCount(), equalTo(0));
+    }
+
+    @Test
+    public void getPending_shouldSkipEmailsBeingSent() throws Exception {
+        final List<Outbox.Entry> pendingWhileSending = new ArrayList<Outbox.Entry>();
+        MailSender sender = mock(MailSender.class);
+        when(sender.send(any(Email.class))).thenAnswer(new Answer<Response>() {
+            @Override
+            public Response answer(InvocationOnMock invocation) throws Throwable {
+                pendingWhileSending.addAll(outbox.getPending());
+                return new Response();
+            }
+        });
+
+        outbox.send(new Email(), sender);
+
+        assertThat(pendingWhileSending, empty());
+    }
+
+    @Test
+    public void append_shouldFailWhenClosed() throws Exception {
+        outbox.close();
+
+        thrown.expect(IOException.class);
+        outbox.append(new Email());
+    }
+
+    private Outbox open() throws IOException {
+        return Outbox.create(directory).setSegmentSize(1024).setSyncPolicy(Outbox.SyncPolicy.ALWAYS).build();
+    }
+
+    private List<File> segmentFiles() {
+        List<File> files = new ArrayList<File>();
+        for (File file : directory.listFiles()) {
+            if (file.getName().startsWith("segment-")) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static String content(Attachment attachment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        attachment.writeTo(out);
+        return out.toString("UTF-8");
+    }
+
+    private static String text(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    private static int indexOf(byte[] content, byte[] pattern) {
+        for (int i = 0; i <= content.length - pattern.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(content, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        throw new AssertionError("pattern not found");
+    }
+}
@@ -0,0 +1,187 @@
+package com.revinate.sendgrid.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class AttachmentTest {
+
+    private static final byte[] CONTENT = "attachment content".getBytes();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fromFile_shouldBeRepeatableWithKnownLength() throws Exception {
+        Attachment attachment = Attachment.fromFile(file(CONTENT));
+
+        assertThat(attachment.getContentLength(), equalTo((long) CONTENT.length));
+        assertThat(attachment.isRepeatable(), equalTo(true));
+        assertThat(write(attachment), equalTo(CONTENT));
+        assertThat(write(attachment), equalTo(CONTENT));
+        assertThat(IOUtils.toByteArray(attachment.openStream()), equalTo(CONTENT));
+    }
+
+    @Test
+    public void fromFile_shouldRejectMissingFile() throws Exception {
+        thrown.expect(FileNotFoundException.class);
+
+        Attachment.fromFile(new File(folder.getRoot(), "missing.pdf"));
+    }
+
+    @Test
+    public void fromFile_shouldFailWhenFileBecameShorter() throws Exception {
+        File file = file(CONTENT);
+        Attachment attachment = Attachment.fromFile(file);
+        new FileOutputStream(file).close();
+
+        thrown.expect(EOFException.class);
+
+        write(attachment);
+    }
+
+    @Test
+    public void fromChannel_shouldWriteFromPositionWithoutMovingIt() throws Exception {
+        RandomAccessFile file = new RandomAccessFile(file(CONTENT), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.position(11);
+
+            Attachment attachment = Attachment.fromChannel(channel);
+
+            assertThat(attachment.getContentLength(), equalTo(7L));
+            assertThat(attachment.isRepeatable(), equalTo(true));
+            assertThat(new String(write(attachment)), equalTo("content"));
+            assertThat(new String(write(attachment)), equalTo("content"));
+            assertThat(IOUtils.toString(attachment.openStream()), equalTo("content"));
+            assertThat(channel.position(), equalTo(11L));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void fromBuffer_shouldWriteRemainingContent() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(CONTENT);
+        buffer.position(11);
+
+        Attachment attachment = Attachment.fromBuffer(buffer);
+
+        assertThat(attachment.getContentLength(), equalTo(7L));
+        assertThat(attachment.isRepeatable(), equalTo(true));
+        assertThat(new String(write(attachment)), equalTo("content"));
+        assertThat(IOUtils.toString(attachment.openStream()), equalTo("content"));
+        assertThat(buffer.position(), equalTo(11));
+    }
+
+    @Test
+    public void fromBuffer_shouldWriteDirectBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(20000);
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put((byte) i);
+        }
+        buffer.flip();
+
+        Attachment attachment = Attachment.fromBuffer(buffer);
+
+        byte[] written = write(attachment);
+        assertThat(written.length, equalTo(20000));
+        assertThat(written[12345], equalTo((byte) 12345));
+        assertThat(IOUtils.toByteArray(attachment.openStream()), equalTo(written));
+        assertThat(write(attachment), equalTo(written));
+    }
+
+    @Test
+    public void fromBytes_shouldBeRepeatableWithKnownLength() throws Exception {
+        Attachment attachment = Attachment.fromBytes(CONTENT);
+
+        assertThat(attachment.getContentLength(), equalTo((long) CONTENT.length));
+        assertThat(attachment.isRepeatable(), equalTo(true));
+        assertThat(write(attachment), equalTo(CONTENT));
+        assertThat(write(attachment), equalTo(CONTENT));
+    }
+
+    @Test
+    public void fromSupplier_shouldOpenNewStreamForEveryWrite() throws Exception {
+        CountingSupplier supplier = new CountingSupplier(CONTENT);
+        Attachment attachment = Attachment.fromSupplier(supplier, CONTENT.length);
+
+        assertThat(attachment.getContentLength(), equalTo((long) CONTENT.length));
+        assertThat(attachment.isRepeatable(), equalTo(true));
+        assertThat(write(attachment), equalTo(CONTENT));
+        assertThat(write(attachment), equalTo(CONTENT));
+        assertThat(supplier.count, equalTo(2));
+    }
+
+    @Test
+    public void fromSupplier_shouldAcceptUnknownLength() throws Exception {
+        Attachment attachment = Attachment.fromSupplier(new CountingSupplier(CONTENT), -1);
+
+        assertThat(attachment.getContentLength(), equalTo(-1L));
+        assertThat(write(attachment), equalTo(CONTENT));
+    }
+
+    @Test
+    public void fromSupplier_shouldFailOnLengthMismatch() throws Exception {
+        Attachment attachment = Attachment.fromSupplier(new CountingSupplier(CONTENT), CONTENT.length - 1);
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("longer than its declared length");
+
+        write(attachment);
+    }
+
+    @Test
+    public void fromStream_shouldBeOneShotWithUnknownLength() throws Exception {
+        Attachment attachment = Attachment.fromStream(new ByteArrayInputStream(CONTENT));
+
+        assertThat(attachment.getContentLength(), equalTo(-1L));
+        assertThat(attachment.isRepeatable(), equalTo(false));
+        assertThat(write(attachment), equalTo(CONTENT));
+    }
+
+    private static class CountingSupplier implements Attachment.StreamSupplier {
+
+        private final byte[] content;
+        int count;
+
+        CountingSupplier(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public InputStream get() {
+            count++;
+            return new ByteArrayInputStream(content);
+        }
+    }
+
+    private File file(byte[] content) throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] write(Attachment attachment) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        attachment.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -1,11 +1,20 @@
 package com.revinate.sendgrid.model;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.revinate.sendgrid.smtpapi.SmtpApiImpl;
+import com.revinate.sendgrid.util.JsonUtils;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
@@ -16,6 +25,9 @@ public class EmailTest {
     private static final String ADDRESS = "test@email.com";
     private static final String NAME = "Test User";
 
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
     Email email;
 
     @Before
@@ -47,6 +59,38 @@ public class EmailTest {
         assertThat(email.getToNames(), contains(NAME));
     }
 
+    @Test
+    public void getTos_shouldReturnCopy() {
+        email.addTo(ADDRESS);
+        email.getTos().clear();
+        assertThat(email.getTos(), contains(ADDRESS));
+    }
+
+    @Test
+    public void getTosView_shouldReflectEmail() {
+        List<String> tos = email.getTosView();
+        email.addTo(ADDRESS);
+        assertThat(tos, contains(ADDRESS));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getTosView_shouldBeUnmodifiable() {
+        email.getTosView().add(ADDRESS);
+    }
+
+    @Test
+    public void getHeadersView_shouldReflectEmail() {
+        email.setHeader("X-Test", "1");
+        assertThat(email.getHeadersView(), hasEntry("X-Test", "1"));
+        assertThat(email.getContentIdsView().isEmpty(), equalTo(true));
+        assertThat(email.getAttachmentSourcesView().isEmpty(), equalTo(true));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getAttachmentSourcesView_shouldBeUnmodifiable() {
+        email.getAttachmentSourcesView().put("file.txt", Attachment.fromBytes(new byte[1]));
+    }
+
     @Test
     public void addToName_shouldAddToName() {
         email.addToName(NAME);
@@ -138,6 +182,7 @@ public class EmailTest {
     }
 
     @Test
+    @SuppressWarnings("deprecation")
     public void setAttachment_shouldSetAttachment() throws Exception {
         File file = new File(getClass().getResource("/test.txt").getFile());
         email.setAttachment("test.txt", file);
@@ -151,6 +196,45 @@ public class EmailTest {
         assertThat(email.getAttachments(), hasKey("image.png"));
     }
 
+    @Test
+    @SuppressWarnings("deprecation")
+    public void getAttachments_shouldReturnOneStreamPerAttachment() throws Exception {
+        final int[] opened = new int[1];
+        email.setAttachment("test.txt", Attachment.fromSupplier(new Attachment.StreamSupplier() {
+            @Override
+            public InputStream get() throws IOException {
+                opened[0]++;
+                return new ByteArrayInputStream("test".getBytes("UTF-8"));
+            }
+        }, 4));
+
+        InputStream stream = email.getAttachments().get("test.txt");
+        assertThat(email.getAttachments().get("test.txt"), sameInstance(stream));
+        assertThat(email.getAttachment("test.txt"), sameInstance(stream));
+        assertThat(opened[0], equalTo(0));
+
+        assertThat(stream.read(), equalTo((int) 't'));
+        stream.close();
+        assertThat(opened[0], equalTo(1));
+
+        email.setAttachment("test.txt", "other");
+        assertThat(email.getAttachment("test.txt"), not(sameInstance(stream)));
+    }
+
+    @Test
+    public void setAttachment_shouldKeepAttachmentSources() throws Exception {
+        File file = new File(getClass().getResource("/test.txt").getFile());
+        email.setAttachment("test.txt", file);
+        email.setAttachment("inline.txt", "inline");
+        email.setAttachment("image.png", getClass().getResourceAsStream("/image.png"), "id1");
+
+        assertThat(email.getAttachmentSources().size(), equalTo(3));
+        assertThat(email.getAttachmentSource("test.txt").getContentLength(), equalTo(file.length()));
+        assertThat(email.getAttachmentSource("inline.txt").getContentLength(), equalTo(6L));
+        assertThat(email.getAttachmentSource("image.png").isRepeatable(), equalTo(false));
+        assertThat(email.getContentId("image.png"), equalTo("id1"));
+    }
+
     @Test
     public void setHeader_shouldSetHeader() throws Exception {
         email.setHeader("key", "value");
@@ -193,6 +277,169 @@ public class EmailTest {
         assertThat(email.getSmtpApiTos(), contains(ADDRESS));
     }
 
+    @Test
+    public void addSmtpApiTo_shouldAddNamedSmtpApiTo() throws Exception {
+        email.addSmtpApiTo(ADDRESS, NAME);
+        assertThat(email.getSmtpApiTos(), contains(NAME + " <" + ADDRESS + ">"));
+    }
+
+    @Test
+    public void setTos_shouldAcceptOwnView() {
+        email.addTo(ADDRESS);
+        email.setTos(email.getTosView());
+        assertThat(email.getTos(), contains(ADDRESS));
+    }
+
+    @Test
+    public void addTo_shouldKeepRecipientsOffHeap() {
+        email = new Email(RecipientList.Storage.DIRECT).addTo(ADDRESS, NAME).addSmtpApiTo(ADDRESS);
+
+        assertThat(email.getRecipientStorage(), equalTo(RecipientList.Storage.DIRECT));
+        assertThat(email.getTosView().getStorage(), equalTo(RecipientList.Storage.DIRECT));
+        assertThat(email.getTos(), contains(ADDRESS));
+        assertThat(email.getToNames(), contains(NAME));
+        assertThat(email.getSmtpApiTos(), contains(ADDRESS));
+    }
+
+    @Test
+    public void toSmtpApiHeader_shouldIncludeSmtpApiTos() throws Exception {
+        email.addSmtpApiTo(ADDRESS).addSmtpApiTo("jörg@email.com", "Jörg").addCategory("reminder");
+
+        JsonNode header = JsonUtils.readTree(email.toSmtpApiHeader());
+        assertThat(header.get("to").size(), equalTo(2));
+        assertThat(header.get("to").get(0).asText(), equalTo(ADDRESS));
+        assertThat(header.get("to").get(1).asText(), equalTo("Jörg <jörg@email.com>"));
+        assertThat(header.get("category").get(0).asText(), equalTo("reminder"));
+        assertThat(email.toSmtpApiHeader(), not(containsString("ö")));
+        assertThat(email.toRawSmtpApiHeader(), containsString("ö"));
+    }
+
+    @Test
+    public void writeSmtpApiHeader_shouldEscapeNonAscii() throws Exception {
+        email = new Email(RecipientList.Storage.DIRECT);
+        email.addSmtpApiTo("jörg@email.com", "Jörg").addSmtpApiTo(ADDRESS).setUniqueArg("key", "välue");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        email.writeSmtpApiHeader(out);
+
+        assertThat(out.toString("UTF-8"), equalTo(email.toSmtpApiHeader()));
+        assertThat(out.toString("UTF-8"), allOf(containsString("J\\u00F6rg"), containsString("v\\u00E4lue"),
+                containsString(ADDRESS)));
+    }
+
+    @Test
+    public void hasSmtpApiHeader_shouldReflectSmtpApiFields() throws Exception {
+        assertThat(email.hasSmtpApiHeader(), equalTo(false));
+        assertThat(new Email().addSmtpApiTo(ADDRESS).hasSmtpApiHeader(), equalTo(true));
+        assertThat(new Email().addValueToSubstitution(":name", NAME).hasSmtpApiHeader(), equalTo(true));
+        assertThat(new Email().setTemplateId("abc-123").hasSmtpApiHeader(), equalTo(true));
+        assertThat(new Email().setSendAt(1500000000).hasSmtpApiHeader(), equalTo(true));
+        assertThat(new Email().setCategories(Collections.<String>emptyList()).hasSmtpApiHeader(), equalTo(false));
+        assertThat(new Email().setCategories(Collections.singletonList("reminder")).hasSmtpApiHeader(),
+                equalTo(true));
+        assertThat(new Email().setUniqueArgs(Collections.singletonMap("key", "value")).hasSmtpApiHeader(),
+                equalTo(true));
+    }
+
+    @Test
+    public void toSmtpApiHeader_shouldMatchSmtpApiLibrary() throws Exception {
+        SmtpApiImpl smtpApi = new SmtpApiImpl();
+        smtpApi.addSmtpApiTo(ADDRESS)
+                .addValueToSubstitution(":name", NAME)
+                .setUniqueArg("key", "value")
+                .addCategory("reminder")
+                .setSection(":section", "text")
+                .setSettingInFilter("templates", "enable", 1)
+                .setAsmGroupId(42)
+                .setSendAt(1500000000)
+                .setIpPool("transactional");
+        email.addSmtpApiTo(ADDRESS)
+                .addValueToSubstitution(":name", NAME)
+                .setUniqueArg("key", "value")
+                .addCategory("reminder")
+                .setSection(":section", "text")
+                .setSettingInFilter("templates", "enable", 1)
+                .setAsmGroupId(42)
+                .setSendAt(1500000000)
+                .setIpPool("transactional");
+
+        assertThat(email.toSmtpApiHeader(), equalTo(smtpApi.toSmtpApiHeader()));
+        assertThat(email.toRawSmtpApiHeader(), equalTo(smtpApi.toRawSmtpApiHeader()));
+    }
+
+    @Test
+    public void writeSmtpApiHeader_shouldWriteAllFields() throws Exception {
+        email.addSmtpApiTo(ADDRESS)
+                .addValueToSubstitution(":name", NAME)
+                .setUniqueArg("key", "value")
+                .addCategory("reminder")
+                .setSection(":section", "text")
+                .setTemplateId("abc-123")
+                .setAsmGroupId(7)
+                .setSendAt(1500000000)
+                .setIpPool("transactional");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        email.writeSmtpApiHeader(out);
+
+        JsonNode header = JsonUtils.readTree(out.toString("UTF-8"));
+        assertThat(header.get("to").get(0).asText(), equalTo(ADDRESS));
+        assertThat(header.get("sub").get(":name").get(0).asText(), equalTo(NAME));
+        assertThat(header.get("unique_args").get("key").asText(), equalTo("value"));
+        assertThat(header.get("category").get(0).asText(), equalTo("reminder"));
+        assertThat(header.get("section").get(":section").asText(), equalTo("text"));
+        assertThat(header.get("filters").get("templates").get("template_id").asText(), equalTo("abc-123"));
+        assertThat(header.get("asm_group_id").asInt(), equalTo(7));
+        assertThat(header.get("send_at").asInt(), equalTo(1500000000));
+        assertThat(header.get("ip_pool").asText(), equalTo("transactional"));
+    }
+
+    @Test
+    public void writeHeaders_shouldWriteHeaders() throws Exception {
+        assertThat(email.hasHeaders(), equalTo(false));
+        email.setHeader("X-Test", "é");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        email.writeHeaders(out);
+
+        assertThat(email.hasHeaders(), equalTo(true));
+        assertThat(JsonUtils.readTree(out.toString("UTF-8")), equalTo(JsonUtils.readTree(email.toHeaders())));
+    }
+
+    @Test
+    public void setSubstitutionTable_shouldReplaceSubstitutions() throws Exception {
+        email.addValueToSubstitution(":old", "value");
+        email.addSmtpApiTo(ADDRESS).addSmtpApiTo("jörg@email.com");
+
+        email.setSubstitutionTable(new SubstitutionTable(":name").addRow(NAME).addRow("Jörg"));
+
+        assertThat(email.getSubstitutions().keySet(), contains(":name"));
+        assertThat(email.getSubstitution(":name"), contains(NAME, "Jörg"));
+        assertThat(email.hasSmtpApiHeader(), equalTo(true));
+        JsonNode header = JsonUtils.readTree(email.toSmtpApiHeader());
+        assertThat(header.get("sub").size(), equalTo(1));
+        assertThat(header.get("sub").get(":name").get(1).asText(), equalTo("Jörg"));
+        assertThat(email.toRawSmtpApiHeader(), containsString("\"sub\":{\":name\":[\"" + NAME + "\",\"Jörg\"]}"));
+    }
+
+    @Test
+    public void toSmtpApiHeader_shouldFailWhenSubstitutionTableRowsDoNotMatchRecipients() throws Exception {
+        email.addSmtpApiTo(ADDRESS).addSmtpApiTo("jörg@email.com");
+        email.setSubstitutionTable(new SubstitutionTable(":name").addRow(NAME));
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("Substitution table has 1 rows but the email has 2 SMTP API recipients");
+        email.toSmtpApiHeader();
+    }
+
+    @Test
+    public void addValueToSubstitution_shouldFailWithSubstitutionTable() throws Exception {
+        email.setSubstitutionTable(new SubstitutionTable(":name"));
+
+        thrown.expect(IllegalStateException.class);
+        email.addValueToSubstitution(":name", NAME);
+    }
+
     @Test
     public void setIpPool_shouldSetIpPool() throws Exception {
         email.setIpPool("transactional");
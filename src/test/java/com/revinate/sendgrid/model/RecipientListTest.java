@@ -0,0 +1,114 @@
+package com.revinate.sendgrid.model;
+
+import com.revinate.sendgrid.model.RecipientList.Storage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RecipientListTest {
+
+    private static final List<String> VALUES = Arrays.asList(
+            "test@email.com", null, "", "Jörg Müller", "\u674e\u5c0f\u9f99", "\ud83d\ude00 smile", "broken \ud800");
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void append_shouldKeepValuesOnHeap() throws Exception {
+        assertRoundTrip(Storage.HEAP);
+    }
+
+    @Test
+    public void append_shouldKeepValuesOffHeap() throws Exception {
+        assertRoundTrip(Storage.DIRECT);
+    }
+
+    @Test
+    public void append_shouldGrowBuffer() {
+        RecipientList list = new RecipientList(Storage.DIRECT);
+        for (int i = 0; i < 10000; i++) {
+            list.append("recipient" + i + "@example.com");
+        }
+
+        assertThat(list, hasSize(10000));
+        assertThat(list.get(0), equalTo("recipient0@example.com"));
+        assertThat(list.get(9999), equalTo("recipient9999@example.com"));
+    }
+
+    @Test
+    public void getMemoryBytes_shouldBeCompact() {
+        RecipientList list = new RecipientList(Storage.HEAP);
+        for (int i = 0; i < 100000; i++) {
+            list.append(String.format("recipient%06d@example.com", i));
+        }
+
+        // 25 bytes of address and 4 of index each, with room to grow
+        assertThat(list.getMemoryBytes(), lessThan(100000L * 29 * 2));
+    }
+
+    @Test
+    public void writeTo_shouldWriteUtf8Bytes() throws Exception {
+        RecipientList list = new RecipientList(Storage.DIRECT);
+        list.append("Jörg");
+        list.append(null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        list.writeTo(0, out);
+        list.writeTo(1, out);
+
+        assertThat(out.toByteArray(), equalTo("Jörg".getBytes("UTF-8")));
+        assertThat(list.getByteLength(0), equalTo(5));
+        assertThat(list.getByteLength(1), equalTo(-1));
+    }
+
+    @Test
+    public void reset_shouldRemoveValues() {
+        RecipientList list = new RecipientList(Storage.HEAP);
+        list.appendAll(VALUES);
+
+        list.reset();
+        list.append("test@email.com");
+
+        assertThat(list, contains("test@email.com"));
+    }
+
+    @Test
+    public void add_shouldBeUnsupported() {
+        RecipientList list = new RecipientList(Storage.HEAP);
+
+        thrown.expect(UnsupportedOperationException.class);
+        list.add("test@email.com");
+    }
+
+    @Test
+    public void get_shouldRejectIndexOutOfBounds() {
+        RecipientList list = new RecipientList(Storage.HEAP);
+        list.append("test@email.com");
+
+        thrown.expect(IndexOutOfBoundsException.class);
+        list.get(1);
+    }
+
+    private static void assertRoundTrip(Storage storage) throws Exception {
+        RecipientList list = new RecipientList(storage);
+        list.appendAll(VALUES);
+
+        assertThat(list.getStorage(), equalTo(storage));
+        assertThat(list, hasSize(VALUES.size()));
+        for (int i = 0; i < VALUES.size(); i++) {
+            String value = VALUES.get(i);
+            String expected = value == null ? null : new String(value.getBytes("UTF-8"), "UTF-8");
+            assertThat(list.get(i), equalTo(expected));
+            if (value != null) {
+                assertThat(list.getByteLength(i), equalTo(value.getBytes("UTF-8").length));
+            }
+        }
+    }
+}
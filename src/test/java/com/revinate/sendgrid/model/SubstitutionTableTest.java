@@ -0,0 +1,88 @@
+package com.revinate.sendgrid.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SubstitutionTableTest {
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+
+    SubstitutionTable table;
+
+    @Before
+    public void setUp() throws Exception {
+        table = new SubstitutionTable(":name", ":company");
+    }
+
+    @Test
+    public void addRow_shouldAddValuesPerTag() {
+        table.addRow("Alice", "Acme").addRow("Bob", null);
+
+        assertThat(table.getRowCount(), equalTo(2));
+        assertThat(table.getColumn(":name"), contains("Alice", "Bob"));
+        assertThat(table.getColumn(":company"), contains("Acme", null));
+        assertThat(table.get(1, ":name"), equalTo("Bob"));
+        assertThat(table.getColumn(":unknown"), nullValue());
+    }
+
+    @Test
+    public void addRow_shouldInternRepeatedValues() {
+        for (int i = 0; i < 1000; i++) {
+            table.addRow("Recipient " + i, "Acme");
+        }
+
+        assertThat(table.getRowCount(), equalTo(1000));
+        assertThat(table.getDistinctValueCount(), equalTo(1001));
+        assertThat(table.get(999, ":name"), equalTo("Recipient 999"));
+        assertThat(table.get(999, ":company"), equalTo("Acme"));
+    }
+
+    @Test
+    public void addRow_shouldRejectRowOfWrongSize() {
+        thrown.expect(IllegalArgumentException.class);
+        table.addRow("Alice");
+    }
+
+    @Test
+    public void addRows_shouldAddNoRowIfOneIsOfWrongSize() {
+        List<List<String>> rows = Arrays.asList(Arrays.asList("Alice", "Acme"), Arrays.asList("Bob"));
+
+        try {
+            table.addRows(rows);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertThat(table.getRowCount(), equalTo(0));
+    }
+
+    @Test
+    public void addRows_shouldAddRows() {
+        table.addRows(Arrays.asList(Arrays.asList("Alice", "Acme"), Arrays.asList("Bob", "Initech")));
+
+        assertThat(table.getColumn(":company"), contains("Acme", "Initech"));
+    }
+
+    @Test
+    public void toMap_shouldKeepTagOrder() {
+        table.addRow("Alice", "Acme");
+
+        assertThat(table.toMap().keySet(), contains(":name", ":company"));
+        assertThat(table.toMap().get(":name"), contains("Alice"));
+    }
+
+    @Test
+    public void constructor_shouldRejectDuplicateTags() {
+        thrown.expect(IllegalArgumentException.class);
+        new SubstitutionTable(":name", ":name");
+    }
+}
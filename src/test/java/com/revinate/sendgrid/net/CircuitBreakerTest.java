@@ -0,0 +1,147 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.exception.CircuitBreakerOpenException;
+import com.revinate.sendgrid.net.CircuitBreaker.State;
+import org.apache.http.client.HttpResponseException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CircuitBreakerTest {
+
+    private static final String ENDPOINT = "/v3/subusers";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() throws Exception {
+        circuitBreaker = CircuitBreaker.create()
+                .setWindowSize(4)
+                .setMinimumCalls(4)
+                .setFailureRateThreshold(50)
+                .setSlowCallRateThreshold(75)
+                .setSlowCallDurationMillis(1000)
+                .setOpenDurationMillis(5000)
+                .setHalfOpenCalls(2)
+                .build();
+    }
+
+    @Test
+    public void isFailure_shouldIgnoreClientErrors() throws Exception {
+        assertThat(CircuitBreaker.isFailure(new IOException()), equalTo(true));
+        assertThat(CircuitBreaker.isFailure(new HttpResponseException(503, "")), equalTo(true));
+        assertThat(CircuitBreaker.isFailure(new HttpResponseException(404, "")), equalTo(false));
+        assertThat(CircuitBreaker.isFailure(new HttpResponseException(429, "")), equalTo(false));
+    }
+
+    @Test
+    public void record_shouldStayClosedBelowMinimumCalls() throws Exception {
+        record(3, true, 0);
+
+        assertThat(circuitBreaker.getState(ENDPOINT, 0), equalTo(State.CLOSED));
+    }
+
+    @Test
+    public void record_shouldOpenOnFailureRate() throws Exception {
+        record(2, false, 0);
+        record(2, true, 0);
+
+        assertThat(circuitBreaker.getState(ENDPOINT, 0), equalTo(State.OPEN));
+    }
+
+    @Test
+    public void record_shouldOpenOnSlowCallRate() throws Exception {
+        record(1, false, 0);
+        record(3, false, 1000);
+
+        assertThat(circuitBreaker.getState(ENDPOINT, 0), equalTo(State.OPEN));
+    }
+
+    @Test
+    public void record_shouldOnlyConsiderSlidingWindow() throws Exception {
+        record(1, true, 0);
+        record(3, false, 0);
+        record(1, true, 0);
+
+        assertThat(circuitBreaker.getState(ENDPOINT, 0), equalTo(State.CLOSED));
+    }
+
+    @Test
+    public void acquire_shouldFailFastWhenOpen() throws Exception {
+        record(4, true, 0);
+
+        thrown.expect(CircuitBreakerOpenException.class);
+        thrown.expect(hasProperty("endpoint", equalTo(ENDPOINT)));
+
+        circuitBreaker.acquire(ENDPOINT, 4999);
+    }
+
+    @Test
+    public void acquire_shouldNotAffectOtherEndpoints() throws Exception {
+        record(4, true, 0);
+
+        circuitBreaker.acquire("/api/mail.send.json", 0);
+        assertThat(circuitBreaker.getState("/api/mail.send.json", 0), equalTo(State.CLOSED));
+    }
+
+    @Test
+    public void acquire_shouldLimitProbesWhenHalfOpen() throws Exception {
+        record(4, true, 0);
+
+        circuitBreaker.acquire(ENDPOINT, 5000);
+        circuitBreaker.acquire(ENDPOINT, 5000);
+
+        thrown.expect(CircuitBreakerOpenException.class);
+
+        circuitBreaker.acquire(ENDPOINT, 5000);
+    }
+
+    @Test
+    public void record_shouldCloseAfterSuccessfulProbes() throws Exception {
+        record(4, true, 0);
+
+        circuitBreaker.acquire(ENDPOINT, 5000);
+        circuitBreaker.acquire(ENDPOINT, 5000);
+        circuitBreaker.record(ENDPOINT, 0, false, 5000);
+        circuitBreaker.record(ENDPOINT, 0, false, 5000);
+
+        assertThat(circuitBreaker.getState(ENDPOINT, 0), equalTo(State.CLOSED));
+        circuitBreaker.acquire(ENDPOINT, 5000);
+    }
+
+    @Test
+    public void record_shouldReopenAfterFailedProbes() throws Exception {
+        record(4, true, 0);
+
+        circuitBreaker.acquire(ENDPOINT, 5000);
+        circuitBreaker.acquire(ENDPOINT, 5000);
+        circuitBreaker.record(ENDPOINT, 0, false, 5000);
+        circuitBreaker.record(ENDPOINT, 0, true, 5000);
+
+        thrown.expect(CircuitBreakerOpenException.class);
+
+        circuitBreaker.acquire(ENDPOINT, 9999);
+    }
+
+    @Test
+    public void build_shouldRejectInvalidWindow() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+
+        CircuitBreaker.create().setWindowSize(5).setMinimumCalls(10).build();
+    }
+
+    private void record(int times, boolean failed, long durationMillis) {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.record(ENDPOINT, durationMillis, failed, 0);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class CompressionPolicyTest {
+
+    private static final String ENDPOINT = "/api/mail.send.json";
+
+    @Test
+    public void compress_shouldCompressLargeEntity() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().setMinRequestSize(10).build();
+        String body = "<html>lorem ipsum dolor sit amet</html>";
+
+        HttpEntity entity = policy.compress(ENDPOINT, new StringEntity(body));
+
+        assertThat(entity.getContentEncoding().getValue(), equalTo("gzip"));
+        assertThat(entity.isRepeatable(), equalTo(true));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertThat(gunzip(out.toByteArray()), equalTo(body));
+    }
+
+    @Test
+    public void compress_shouldSkipSmallEntity() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().setMinRequestSize(1024).build();
+        HttpEntity entity = new StringEntity("small");
+
+        assertThat(policy.compress(ENDPOINT, entity), sameInstance(entity));
+    }
+
+    @Test
+    public void compress_shouldCompressEntityOfUnknownLength() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().setMinRequestSize(1024).build();
+        HttpEntity entity = new InputStreamEntity(new ByteArrayInputStream("body".getBytes("UTF-8")));
+
+        assertThat(policy.compress(ENDPOINT, entity).getContentEncoding().getValue(), equalTo("gzip"));
+    }
+
+    @Test
+    public void compress_shouldOnlyCompressConfiguredEndpoints() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().setMinRequestSize(0).addEndpoint(ENDPOINT).build();
+        HttpEntity entity = new StringEntity("body");
+
+        assertThat(policy.compress("/v3/subusers", entity), sameInstance(entity));
+        assertThat(policy.compress(ENDPOINT, entity), not(sameInstance(entity)));
+    }
+
+    @Test
+    public void compress_shouldHonorDisabledRequestCompression() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().setMinRequestSize(0).setRequestCompression(false)
+                .build();
+        HttpEntity entity = new StringEntity("body");
+
+        assertThat(policy.compress(ENDPOINT, entity), sameInstance(entity));
+        assertThat(policy.compress(ENDPOINT, null), nullValue());
+    }
+
+    @Test
+    public void decompress_shouldDecompressGzipResponse() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().build();
+        ByteArrayEntity entity = new ByteArrayEntity(gzip("{\"message\":\"success\"}"));
+        entity.setContentEncoding("gzip");
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(entity);
+
+        String body = policy.decompress(new StringResponseHandler()).handleResponse(response);
+
+        assertThat(body, equalTo("{\"message\":\"success\"}"));
+    }
+
+    @Test
+    public void decompress_shouldPassThroughIdentityResponse() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().build();
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new StringEntity("plain"));
+
+        String body = policy.decompress(new StringResponseHandler()).handleResponse(response);
+
+        assertThat(body, equalTo("plain"));
+        assertThat(policy.getAcceptEncoding(), containsString("gzip"));
+    }
+
+    @Test
+    public void decompress_shouldBeNoOpWhenDisabled() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.create().setResponseCompression(false).build();
+        ResponseHandler<String> handler = new StringResponseHandler();
+
+        assertThat(policy.decompress(handler), sameInstance(handler));
+        assertThat(policy.getAcceptEncoding(), nullValue());
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(content.getBytes("UTF-8"));
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] content) throws IOException {
+        return IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(content)), "UTF-8");
+    }
+
+    private static class StringResponseHandler implements ResponseHandler<String> {
+
+        @Override
+        public String handleResponse(HttpResponse response) throws IOException {
+            return EntityUtils.toString(response.getEntity());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.BaseSendGridTest;
+import com.revinate.sendgrid.model.ApiError;
+import com.revinate.sendgrid.model.ApiErrorsResponse;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.util.JsonUtils;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ErrorResponseTest extends BaseSendGridTest {
+
+    @Test
+    public void parse_shouldDecodeApiErrors() throws Exception {
+        String body = readFile("/responses/api-errors.json");
+
+        ErrorResponse errorResponse = ErrorResponse.parse(body);
+
+        assertThat(errorResponse.getMessage(),
+                equalTo(JsonUtils.fromJson(body, ApiErrorsResponse.class).toString()));
+        assertThat(errorResponse.getErrors(), hasSize(1));
+        ApiError error = errorResponse.getErrors().get(0);
+        assertThat(error.getField(), equalTo("name"));
+        assertThat(error.getMessage(), equalTo("missing required argument"));
+        assertThat(errorResponse.getErrors().get(0), sameInstance(error));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void parse_shouldFormatMultipleApiErrors() throws Exception {
+        String body = "{\"errors\":[{\"message\":\"a\"},{\"field\":\"f\",\"message\":\"b\"}]}";
+
+        ErrorResponse errorResponse = ErrorResponse.parse(body);
+
+        assertThat(errorResponse.getMessage(),
+                equalTo(JsonUtils.fromJson(body, ApiErrorsResponse.class).toString()));
+        assertThat(errorResponse.getErrors(), contains(
+                hasProperty("message", equalTo("a")),
+                hasProperty("field", equalTo("f"))
+        ));
+    }
+
+    @Test
+    public void parse_shouldDecodeResponseErrors() throws Exception {
+        String body = readFile("/responses/response-error.json");
+
+        ErrorResponse errorResponse = ErrorResponse.parse(body);
+
+        Response response = JsonUtils.fromJson(body, Response.class);
+        assertThat(errorResponse.getMessage(), equalTo(response.toString()));
+        assertThat(errorResponse.getErrors(), hasSize(response.getErrors().size()));
+        assertThat(errorResponse.getErrors().get(0).getMessage(), equalTo(response.getErrors().get(0)));
+    }
+
+    @Test
+    public void parse_shouldUseMessageWithoutErrors() throws Exception {
+        assertThat(ErrorResponse.parse("{\"message\":\"error\"}").getMessage(), equalTo("error"));
+        assertThat(ErrorResponse.parse("{\"message\":\"error\",\"errors\":[]}").getMessage(), equalTo("error"));
+        assertThat(ErrorResponse.parse("{\"errors\":[]}").getMessage(), equalTo("No errors"));
+    }
+
+    @Test
+    public void parse_shouldFallBackToRawBody() throws Exception {
+        assertThat(ErrorResponse.parse("not json").getMessage(), equalTo("not json"));
+        assertThat(ErrorResponse.parse("[1,2]").getMessage(), equalTo("[1,2]"));
+        assertThat(ErrorResponse.parse("{not json").getMessage(), equalTo("{not json"));
+        assertThat(ErrorResponse.parse("{\"errors\":\"x\"}").getMessage(), equalTo("{\"errors\":\"x\"}"));
+        assertThat(ErrorResponse.parse("{\"errors\":\"x\"}").getErrors(), empty());
+    }
+
+    @Test
+    public void parse_shouldHandleMissingBody() throws Exception {
+        ErrorResponse errorResponse = ErrorResponse.parse(null);
+
+        assertThat(errorResponse.getMessage(), nullValue());
+        assertThat(errorResponse.getErrors(), empty());
+    }
+}
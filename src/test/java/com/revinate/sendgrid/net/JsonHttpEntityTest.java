@@ -0,0 +1,104 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.model.ApiKey;
+import com.revinate.sendgrid.util.JsonUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JsonHttpEntityTest {
+
+    @Test
+    public void getContentLength_shouldBeKnownForSmallContent() throws Exception {
+        ApiKey apiKey = new ApiKey("test");
+        JsonHttpEntity entity = new JsonHttpEntity(apiKey);
+
+        assertThat(entity.getContentLength(), equalTo((long) JsonUtils.toJson(apiKey).getBytes("UTF-8").length));
+        assertThat(entity.getContentType().getValue(), equalTo("application/json; charset=UTF-8"));
+        assertThat(entity.isRepeatable(), equalTo(true));
+        assertThat(entity.isChunked(), equalTo(false));
+    }
+
+    @Test
+    public void getContentLength_shouldBeUnknownForLargeContent() throws Exception {
+        JsonHttpEntity entity = new JsonHttpEntity(ips(1000), 1024);
+
+        assertThat(entity.getContentLength(), equalTo(-1L));
+    }
+
+    @Test
+    public void writeTo_shouldWriteContentRepeatedly() throws Exception {
+        List<String> ips = ips(1000);
+        JsonHttpEntity entity = new JsonHttpEntity(ips, 1024);
+        entity.getContentLength();
+
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertThat(out.toString("UTF-8"), equalTo(JsonUtils.toJson(ips)));
+        }
+    }
+
+    @Test
+    public void writeTo_shouldWriteBufferedContent() throws Exception {
+        ApiKey apiKey = new ApiKey("test");
+        JsonHttpEntity entity = new JsonHttpEntity(apiKey);
+        entity.getContentLength();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+
+        assertThat(out.toString("UTF-8"), equalTo(JsonUtils.toJson(apiKey)));
+    }
+
+    @Test
+    public void writeTo_shouldNotCloseStream() throws Exception {
+        ClosureTrackingOutputStream out = new ClosureTrackingOutputStream();
+
+        new JsonHttpEntity(ips(1000), 1024).writeTo(out);
+
+        assertThat(out.closed, equalTo(false));
+        assertThat(out.size(), greaterThan(1024));
+    }
+
+    @Test
+    public void getContent_shouldReturnContent() throws Exception {
+        List<String> ips = ips(1000);
+
+        assertThat(IOUtils.toString(new JsonHttpEntity(ips, 1024).getContent(), "UTF-8"),
+                equalTo(JsonUtils.toJson(ips)));
+        assertThat(IOUtils.toString(new JsonHttpEntity(ips).getContent(), "UTF-8"),
+                equalTo(JsonUtils.toJson(ips)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_shouldRejectNullContent() throws Exception {
+        new JsonHttpEntity(null);
+    }
+
+    private static List<String> ips(int count) {
+        List<String> ips = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            ips.add("10.0." + (i / 256) + "." + (i % 256));
+        }
+        return ips;
+    }
+
+    private static class ClosureTrackingOutputStream extends ByteArrayOutputStream {
+
+        boolean closed;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.revinate.sendgrid.net;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.revinate.sendgrid.BaseSendGridTest;
+import com.revinate.sendgrid.model.ApiKey;
+import com.revinate.sendgrid.model.Subuser;
+import com.revinate.sendgrid.model.SubuserCollection;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JsonResponseHandlerTest extends BaseSendGridTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void handleResponse_shouldDecodeSuccessfulResponse() throws Exception {
+        HttpResponse response = response(200, readFile("/responses/api-key.json"));
+
+        ApiKey apiKey = new JsonResponseHandler<ApiKey>(ApiKey.class).handleResponse(response);
+
+        assertThat(apiKey, notNullValue());
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+    }
+
+    @Test
+    public void handleResponse_shouldDecodeFromStreamAndCloseIt() throws Exception {
+        ClosureTrackingInputStream content = new ClosureTrackingInputStream(
+                readFile("/responses/subusers.json").getBytes("UTF-8"));
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.setEntity(new InputStreamEntity(content));
+
+        SubuserCollection subusers = new JsonResponseHandler<SubuserCollection>(SubuserCollection.class)
+                .handleResponse(response);
+
+        assertThat(subusers, not(empty()));
+        assertThat(subusers.get(0), instanceOf(Subuser.class));
+        assertThat(content.closed, equalTo(true));
+    }
+
+    @Test
+    public void handleResponse_shouldHandleEmptyResponse() throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 204, "No Content");
+
+        ApiKey apiKey = new JsonResponseHandler<ApiKey>(ApiKey.class).handleResponse(response);
+
+        assertThat(apiKey, nullValue());
+    }
+
+    @Test
+    public void handleResponse_shouldDiscardBodyForVoid() throws Exception {
+        HttpResponse response = response(200, "{\"anything\": true}");
+
+        Void result = new JsonResponseHandler<Void>(Void.class).handleResponse(response);
+
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    public void handleResponse_shouldBufferErrorResponse() throws Exception {
+        HttpResponse response = response(404, "not found");
+
+        thrown.expect(HttpResponseException.class);
+        thrown.expectMessage("not found");
+        thrown.expect(hasProperty("statusCode", equalTo(404)));
+
+        new JsonResponseHandler<ApiKey>(ApiKey.class).handleResponse(response);
+    }
+
+    @Test
+    public void handleResponse_shouldFailOnMalformedResponse() throws Exception {
+        HttpResponse response = response(200, "not a json");
+
+        thrown.expect(JsonProcessingException.class);
+
+        new JsonResponseHandler<ApiKey>(ApiKey.class).handleResponse(response);
+    }
+
+    private HttpResponse response(int statusCode, String body) throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        response.setEntity(new StringEntity(body));
+        return response;
+    }
+
+    private static class ClosureTrackingInputStream extends ByteArrayInputStream {
+
+        boolean closed;
+
+        ClosureTrackingInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+}
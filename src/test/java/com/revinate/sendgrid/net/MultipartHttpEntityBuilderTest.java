@@ -1,7 +1,10 @@
 package com.revinate.sendgrid.net;
 
 import com.revinate.sendgrid.model.ApiKey;
+import com.revinate.sendgrid.model.Attachment;
 import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.RecipientList;
+import com.revinate.sendgrid.model.SubstitutionTable;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.net.auth.UsernamePasswordCredential;
@@ -13,14 +16,18 @@ import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import static org.hamcrest.Matchers.instanceOf;
-import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -69,6 +76,119 @@ public class MultipartHttpEntityBuilderTest {
         assertThat(entity, notNullValue());
     }
 
+    @Test
+    public void builder_shouldWriteRecipientsFromTheirBytes() throws Exception {
+        Email email = new Email(RecipientList.Storage.DIRECT);
+        email.setFrom("test1@email.com");
+        email.addTo("jörg@email.com", "Jörg");
+        email.addTo("test2@email.com");
+        email.addSmtpApiTo("test3@email.com", "Test");
+
+        HttpEntity entity = builder.setEmail(email).build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        String content = out.toString("UTF-8");
+        assertThat((long) out.size(), equalTo(entity.getContentLength()));
+        assertThat(content, allOf(containsString("name=\"to[]\""), containsString("jörg@email.com"),
+                containsString("test2@email.com"), containsString("name=\"toname[]\""), containsString("Jörg")));
+        assertThat(content, containsString(email.toSmtpApiHeader()));
+    }
+
+    @Test
+    public void builder_shouldOmitEmptyHeaderParts() throws Exception {
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+
+        String content = content(builder.setEmail(email).build());
+
+        assertThat(content, not(containsString("name=\"headers\"")));
+        assertThat(content, not(containsString("name=\"x-smtpapi\"")));
+    }
+
+    @Test
+    public void builder_shouldKeepContentLengthOfLargeSmtpApiHeader() throws Exception {
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.setHeader("X-Test", "value");
+        for (int i = 0; i < 1000; i++) {
+            email.addSmtpApiTo("recipient" + i + "@email.com");
+            email.addValueToSubstitution(":name", "Recipient " + i);
+        }
+
+        HttpEntity entity = builder.setEmail(email).build();
+
+        assertThat(email.toSmtpApiHeader().length(), greaterThan(JsonHttpEntity.DEFAULT_BUFFER_SIZE));
+        assertThat(entity.isRepeatable(), equalTo(true));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertThat(entity.getContentLength(), equalTo((long) out.size()));
+            String content = content(entity);
+            assertThat(content, containsString(email.toSmtpApiHeader()));
+            assertThat(content, containsString(email.toHeaders()));
+        }
+    }
+
+    @Test
+    public void builder_shouldBuildRepeatableEntityForAttachmentsOfKnownLength() throws Exception {
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+        email.setAttachment("test.txt", new File(getClass().getResource("/test.txt").getFile()));
+        email.setAttachment("inline.txt", ByteBuffer.wrap("inline content".getBytes("UTF-8")));
+
+        HttpEntity entity = builder.setEmail(email).build();
+
+        assertThat(entity.isRepeatable(), equalTo(true));
+        assertThat(entity.isChunked(), equalTo(false));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertThat((long) out.size(), equalTo(entity.getContentLength()));
+            assertThat(out.toString("UTF-8"), containsString("inline content"));
+        }
+    }
+
+    @Test
+    public void builder_shouldBuildRepeatableEntityForSuppliedAttachments() throws Exception {
+        final byte[] content = "supplied content".getBytes("UTF-8");
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+        email.setAttachment("bytes.txt", "byte content".getBytes("UTF-8"));
+        email.setAttachment("supplied.txt", Attachment.fromSupplier(new Attachment.StreamSupplier() {
+            @Override
+            public InputStream get() {
+                return new ByteArrayInputStream(content);
+            }
+        }, -1));
+
+        HttpEntity entity = builder.setEmail(email).build();
+
+        assertThat(entity.isRepeatable(), equalTo(true));
+        assertThat(entity.getContentLength(), equalTo(-1L));
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertThat(out.toString("UTF-8"), allOf(containsString("byte content"), containsString("supplied content")));
+        }
+    }
+
+    @Test
+    public void builder_shouldBuildEntityOfUnknownLengthForStreamAttachment() throws Exception {
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+        email.setAttachment("image.png", getClass().getResourceAsStream("/image.png"));
+
+        HttpEntity entity = builder.setEmail(email).build();
+
+        assertThat(entity.getContentLength(), equalTo(-1L));
+        assertThat(entity.isRepeatable(), equalTo(false));
+    }
+
     @Test
     public void builder_shouldAcceptMap() throws Exception {
         Map<String, Object> map = new HashMap<String, Object>();
@@ -79,6 +199,18 @@ public class MultipartHttpEntityBuilderTest {
         assertThat(entity, notNullValue());
     }
 
+    @Test
+    public void builder_shouldNotAcceptSubstitutionTableWithTooFewRows() throws Exception {
+        Email email = new Email();
+        email.addSmtpApiTo("test1@email.com").addSmtpApiTo("test2@email.com");
+        email.setSubstitutionTable(new SubstitutionTable(":name").addRow("Test"));
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Substitution table has 1 rows but the email has 2 SMTP API recipients");
+
+        builder.setEmail(email).build();
+    }
+
     @Test
     public void builder_shouldNotAcceptModel() throws Exception {
         ApiKey apiKey = new ApiKey("test");
@@ -107,4 +239,10 @@ public class MultipartHttpEntityBuilderTest {
 
         builder.build();
     }
+
+    private static String content(HttpEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toString("UTF-8");
+    }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.exception.RateLimitExceededException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RateLimiterTest {
+
+    private static final String ENDPOINT = "/v3/subusers";
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void reserve_shouldNotDelayUnknownEndpoint() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+
+        assertThat(rateLimiter.reserve(ENDPOINT, 0), equalTo(0L));
+        assertThat(rateLimiter.reserve(ENDPOINT, 0), equalTo(0L));
+    }
+
+    @Test
+    public void reserve_shouldSpreadRemainingRequestsOverWindow() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.update(ENDPOINT, response(100, 4, 10));
+
+        assertThat(rateLimiter.reserve(ENDPOINT, 2000), equalTo(0L));
+        assertThat(rateLimiter.reserve(ENDPOINT, 2000), equalTo(2000L));
+        assertThat(rateLimiter.reserve(ENDPOINT, 2000), equalTo(4000L));
+        assertThat(rateLimiter.reserve(ENDPOINT, 2000), equalTo(6000L));
+        assertThat(rateLimiter.reserve(ENDPOINT, 2000), equalTo(8000L));
+    }
+
+    @Test
+    public void reserve_shouldWaitForResetWhenExhausted() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.update(ENDPOINT, response(100, 0, 10));
+
+        assertThat(rateLimiter.reserve(ENDPOINT, 7000), equalTo(3000L));
+    }
+
+    @Test
+    public void reserve_shouldAllowRequestsAfterReset() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.update(ENDPOINT, response(100, 0, 10));
+
+        assertThat(rateLimiter.reserve(ENDPOINT, 10000), equalTo(0L));
+    }
+
+    @Test
+    public void reserve_shouldKeepEndpointsSeparate() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+        rateLimiter.update(ENDPOINT, response(100, 0, 10));
+
+        assertThat(rateLimiter.reserve("/v3/ips", 0), equalTo(0L));
+    }
+
+    @Test
+    public void reserve_shouldRejectWhenWaitExceedsMaximum() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(1000);
+        rateLimiter.update(ENDPOINT, response(100, 0, 10));
+
+        thrown.expect(RateLimitExceededException.class);
+        thrown.expect(hasProperty("statusCode", equalTo(429)));
+        thrown.expect(hasProperty("retryAfterMillis", equalTo(5000L)));
+
+        rateLimiter.reserve(ENDPOINT, 5000);
+    }
+
+    @Test
+    public void update_shouldIgnoreIncompleteHeaders() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+        HttpResponse response = response(100, 0, 10);
+        response.removeHeaders(RateLimiter.RESET_HEADER);
+
+        rateLimiter.update(ENDPOINT, response);
+
+        assertThat(rateLimiter.reserve(ENDPOINT, 0), equalTo(0L));
+    }
+
+    @Test
+    public void track_shouldLearnFromResponse() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter();
+        ResponseHandler<String> handler = rateLimiter.track(ENDPOINT, new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(HttpResponse response) {
+                return "handled";
+            }
+        });
+
+        assertThat(handler.handleResponse(response(100, 0, 10)), equalTo("handled"));
+        assertThat(rateLimiter.reserve(ENDPOINT, 9000), equalTo(1000L));
+    }
+
+    private HttpResponse response(int limit, int remaining, long resetSeconds) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        response.addHeader(RateLimiter.LIMIT_HEADER, String.valueOf(limit));
+        response.addHeader(RateLimiter.REMAINING_HEADER, String.valueOf(remaining));
+        response.addHeader(RateLimiter.RESET_HEADER, String.valueOf(resetSeconds));
+        return response;
+    }
+}
@@ -0,0 +1,160 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RequestHedgerTest {
+
+    private static final String ENDPOINT = "/v3/subusers";
+
+    @Mock
+    HttpTransport transport;
+
+    @Mock
+    ResponseHandler<String> handler;
+
+    CountDownLatch slowRequestLatch;
+
+    volatile Thread requestThread;
+
+    RequestHedger hedger;
+
+    @Before
+    public void setUp() throws Exception {
+        slowRequestLatch = new CountDownLatch(1);
+        when(transport.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        HttpUriRequest request = (HttpUriRequest) invocation.getArguments()[0];
+                        requestThread = Thread.currentThread();
+                        if (request.getURI().getPath().endsWith("slow")) {
+                            slowRequestLatch.await(5, TimeUnit.SECONDS);
+                            return "slow";
+                        }
+                        return request.getURI().getPath();
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        slowRequestLatch.countDown();
+        hedger.close();
+    }
+
+    @Test
+    public void execute_shouldNotHedgeWithoutLatencyHistory() throws Exception {
+        hedger = RequestHedger.create().setMinSamples(1).setMaxExtraLoadPercent(100).build();
+
+        String result = hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/fast"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+
+        assertThat(result, equalTo("/fast"));
+        assertThat(requestThread, sameInstance(Thread.currentThread()));
+        assertThat(hedger.getRequestCount(), equalTo(1L));
+        assertThat(hedger.getHedgedCount(), equalTo(0L));
+        verify(transport, times(1)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void execute_shouldHedgeSlowRequestAndAbortLoser() throws Exception {
+        hedger = RequestHedger.create().setMinSamples(1).setMaxExtraLoadPercent(50).build();
+        hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/fast"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+
+        HttpGet slowRequest = new HttpGet("http://sendgrid/slow");
+        String result = hedger.execute(transport, ENDPOINT, slowRequest, new HttpGet("http://sendgrid/hedge"),
+                handler);
+
+        assertThat(result, equalTo("/hedge"));
+        assertThat(slowRequest.isAborted(), equalTo(true));
+        assertThat(hedger.getRequestCount(), equalTo(2L));
+        assertThat(hedger.getHedgedCount(), equalTo(1L));
+        assertThat(hedger.getHedgeWinCount(), equalTo(1L));
+    }
+
+    @Test
+    public void execute_shouldRespectBudget() throws Exception {
+        hedger = RequestHedger.create().setMinSamples(1).setMaxExtraLoadPercent(0).setMinDelayMillis(0)
+                .build();
+        hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/fast"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+        slowRequestLatch.countDown();
+
+        String result = hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/slow"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+
+        assertThat(result, equalTo("slow"));
+        assertThat(hedger.getHedgedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void execute_shouldKeepEndpointHistoriesSeparate() throws Exception {
+        hedger = RequestHedger.create().setMinSamples(1).setMaxExtraLoadPercent(100).setMinDelayMillis(0)
+                .build();
+        hedger.execute(transport, "/v3/ips", new HttpGet("http://sendgrid/fast"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+        slowRequestLatch.countDown();
+
+        String result = hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/slow"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+
+        assertThat(result, equalTo("slow"));
+        assertThat(hedger.getHedgedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void execute_shouldSendOnCallingThreadWhenExecutorRejects() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        hedger = RequestHedger.create().setExecutor(executor).setMinSamples(1).setMaxExtraLoadPercent(100)
+                .build();
+        hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/fast"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+
+        String result = hedger.execute(transport, ENDPOINT, new HttpGet("http://sendgrid/fast"),
+                new HttpGet("http://sendgrid/hedge"), handler);
+
+        assertThat(result, equalTo("/fast"));
+        assertThat(requestThread, sameInstance(Thread.currentThread()));
+        assertThat(hedger.getHedgedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void build_shouldRejectNonPositiveMaxThreads() throws Exception {
+        hedger = RequestHedger.create().build();
+        try {
+            RequestHedger.create().setMaxThreads(0).build();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("maxThreads"));
+        }
+    }
+
+    private static <T> ResponseHandler<T> anyHandler() {
+        return Matchers.any();
+    }
+}
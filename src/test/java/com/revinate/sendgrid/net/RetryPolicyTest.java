@@ -0,0 +1,133 @@
+package com.revinate.sendgrid.net;
+
+import org.apache.http.Header;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.message.BasicHeader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class RetryPolicyTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void none_shouldNotRetry() throws Exception {
+        assertThat(RetryPolicy.NONE.getMaxAttempts(), equalTo(1));
+        assertThat(RetryPolicy.NONE.isRetryable("GET", false), equalTo(false));
+    }
+
+    @Test
+    public void isRetryable_shouldOnlyAllowIdempotentMethodsByDefault() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().build();
+
+        assertThat(policy.isRetryable("GET", false), equalTo(true));
+        assertThat(policy.isRetryable("PUT", false), equalTo(true));
+        assertThat(policy.isRetryable("DELETE", false), equalTo(true));
+        assertThat(policy.isRetryable("POST", false), equalTo(false));
+        assertThat(policy.isRetryable("POST", true), equalTo(false));
+        assertThat(policy.isRetryable("PATCH", true), equalTo(false));
+    }
+
+    @Test
+    public void isRetryable_shouldAllowReplayableRequestsWhenEnabled() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().setRetryNonIdempotent(true).build();
+
+        assertThat(policy.isRetryable("POST", true), equalTo(true));
+        assertThat(policy.isRetryable("POST", false), equalTo(false));
+    }
+
+    @Test
+    public void isRetryable_shouldClassifyFailures() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().removeRetryableStatusCode(500).build();
+
+        assertThat(policy.isRetryable(error(503)), equalTo(true));
+        assertThat(policy.isRetryable(error(429)), equalTo(true));
+        assertThat(policy.isRetryable(error(500)), equalTo(false));
+        assertThat(policy.isRetryable(error(400)), equalTo(false));
+        assertThat(policy.isRetryable(new SocketTimeoutException()), equalTo(true));
+        assertThat(policy.isRetryable(new ClientProtocolException()), equalTo(false));
+    }
+
+    @Test
+    public void isRetryable_shouldHonorConnectionErrorSetting() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().setRetryConnectionErrors(false).build();
+
+        assertThat(policy.isRetryable(new IOException()), equalTo(false));
+    }
+
+    @Test
+    public void nextDelayMillis_shouldUseDecorrelatedJitterWithinBounds() throws Exception {
+        RetryPolicy policy = RetryPolicy.create()
+                .setBaseDelayMillis(100)
+                .setMaxDelayMillis(1000)
+                .setRandom(new Random(42))
+                .build();
+
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            long previous = delay;
+            delay = policy.nextDelayMillis(previous, new IOException());
+            assertThat(delay, greaterThanOrEqualTo(100L));
+            assertThat(delay, lessThanOrEqualTo(Math.min(1000L, Math.max(100L, previous * 3))));
+        }
+    }
+
+    @Test
+    public void nextDelayMillis_shouldHonorRetryAfterSeconds() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().setBaseDelayMillis(10).setMaxDelayMillis(5000).build();
+
+        long delay = policy.nextDelayMillis(0, error(429, new BasicHeader("Retry-After", "2")));
+
+        assertThat(delay, equalTo(2000L));
+    }
+
+    @Test
+    public void nextDelayMillis_shouldHonorRetryAfterDate() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().setBaseDelayMillis(10).setMaxDelayMillis(10000).build();
+        String date = DateUtils.formatDate(new Date(System.currentTimeMillis() + 5000));
+
+        long delay = policy.nextDelayMillis(0, error(503, new BasicHeader("Retry-After", date)));
+
+        assertThat(delay, allOf(greaterThan(3000L), lessThanOrEqualTo(5000L)));
+    }
+
+    @Test
+    public void nextDelayMillis_shouldGiveUpWhenRetryAfterExceedsMaxDelay() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().setMaxDelayMillis(1000).build();
+
+        long delay = policy.nextDelayMillis(0, error(429, new BasicHeader("Retry-After", "60")));
+
+        assertThat(delay, equalTo(-1L));
+    }
+
+    @Test
+    public void nextDelayMillis_shouldIgnoreRetryAfterOnOtherStatusCodes() throws Exception {
+        RetryPolicy policy = RetryPolicy.create().setBaseDelayMillis(10).setMaxDelayMillis(10).build();
+
+        long delay = policy.nextDelayMillis(0, error(500, new BasicHeader("Retry-After", "60")));
+
+        assertThat(delay, equalTo(10L));
+    }
+
+    @Test
+    public void build_shouldRejectInvalidDelays() throws Exception {
+        thrown.expect(IllegalArgumentException.class);
+
+        RetryPolicy.create().setBaseDelayMillis(100).setMaxDelayMillis(10).build();
+    }
+
+    private HttpErrorResponseException error(int statusCode, Header... headers) {
+        return new HttpErrorResponseException(statusCode, "error", headers);
+    }
+}
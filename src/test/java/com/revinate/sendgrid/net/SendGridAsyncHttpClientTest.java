@@ -0,0 +1,277 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.BaseSendGridTest;
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.exception.ResourceNotFoundException;
+import com.revinate.sendgrid.model.ApiKey;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
+import com.revinate.sendgrid.net.auth.ApiKeyCredential;
+import com.revinate.sendgrid.util.JsonUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SendGridAsyncHttpClientTest extends BaseSendGridTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Mock
+    CloseableHttpAsyncClient httpClient;
+
+    @Mock
+    Future<HttpResponse> httpFuture;
+
+    SendGridAsyncHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        client = new SendGridAsyncHttpClient(httpClient);
+        when(httpClient.execute(any(HttpUriRequest.class), anyCallback())).thenReturn(httpFuture);
+    }
+
+    @Test
+    public void get_shouldStartClientAndMakeRequest() throws Exception {
+        Future<ApiKey> future = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        verify(httpClient).start();
+
+        ArgumentCaptor<HttpUriRequest> captor = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(httpClient).execute(captor.capture(), anyCallback());
+
+        HttpUriRequest httpRequest = captor.getValue();
+
+        assertThat(future.isDone(), equalTo(false));
+        assertThat(httpRequest.getMethod(), equalTo("GET"));
+        assertThat(httpRequest.getURI(), hasToString("http://sendgrid"));
+        assertThat(httpRequest.getAllHeaders(), hasItemInArray(
+                hasProperty("name", equalTo("Authorization"))
+        ));
+    }
+
+    @Test
+    public void get_shouldCompleteWithResponse() throws Exception {
+        Future<ApiKey> future = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        captureCallback().completed(response(200, readFile("/responses/api-key.json")));
+
+        ApiKey apiKey = future.get();
+        assertThat(apiKey, notNullValue());
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+        assertThat(apiKey.getApiKeyId(), equalTo("sdaspfgada5hahsrs5hSHF"));
+    }
+
+    @Test
+    public void getWithParameters_shouldMakeRequest() throws Exception {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("limit", 10);
+        client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"), parameters);
+
+        ArgumentCaptor<HttpUriRequest> captor = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(httpClient).execute(captor.capture(), anyCallback());
+
+        assertThat(captor.getValue().getURI(), hasToString("http://sendgrid?limit=10"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void get_shouldInvokeCallback() throws Exception {
+        FutureCallback<ApiKey> callback = mock(FutureCallback.class);
+        client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"), callback);
+
+        captureCallback().completed(response(200, readFile("/responses/api-key.json")));
+
+        ArgumentCaptor<ApiKey> captor = ArgumentCaptor.forClass(ApiKey.class);
+        verify(callback).completed(captor.capture());
+        assertThat(captor.getValue().getName(), equalTo("1st API key"));
+    }
+
+    @Test
+    public void get_shouldFailWithErrorResponse() throws Exception {
+        Future<ApiKey> future = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        captureCallback().completed(response(404, readFile("/responses/api-errors.json")));
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectCause(Matchers.<Throwable>instanceOf(ResourceNotFoundException.class));
+
+        future.get();
+    }
+
+    @Test
+    public void get_shouldWrapConnectionIOException() throws Exception {
+        Future<ApiKey> future = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        captureCallback().failed(new IOException("Unit test"));
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectCause(Matchers.<Throwable>instanceOf(ApiConnectionException.class));
+        thrown.expectCause(Matchers.<Throwable>hasProperty("message",
+                equalTo("I/O error while making API request to SendGrid")));
+
+        future.get();
+    }
+
+    @Test
+    public void get_shouldWrapMappingIOException() throws Exception {
+        Future<ApiKey> future = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        captureCallback().completed(response(200, "not a json"));
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectCause(Matchers.<Throwable>instanceOf(ApiConnectionException.class));
+        thrown.expectCause(Matchers.<Throwable>hasProperty("message", equalTo("Error while mapping response")));
+
+        future.get();
+    }
+
+    @Test
+    public void get_shouldPropagateCancellation() throws Exception {
+        Future<ApiKey> future = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        future.cancel(true);
+
+        assertThat(future.isCancelled(), equalTo(true));
+        verify(httpFuture).cancel(true);
+    }
+
+    @Test
+    public void post_shouldMakeRequest() throws Exception {
+        ApiKey apiKey = new ApiKey("1st API key");
+        String request = JsonUtils.toJson(apiKey);
+
+        client.post("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"), apiKey, RequestType.JSON);
+
+        ArgumentCaptor<HttpEntityEnclosingRequestBase> captor = ArgumentCaptor
+                .forClass(HttpEntityEnclosingRequestBase.class);
+        verify(httpClient).execute(captor.capture(), anyCallback());
+
+        HttpEntityEnclosingRequestBase httpRequest = captor.getValue();
+
+        assertThat(httpRequest.getMethod(), equalTo("POST"));
+        assertThat(EntityUtils.toString(httpRequest.getEntity()), equalTo(request));
+    }
+
+    @Test
+    public void post_shouldFailOnEmptyRequest() throws Exception {
+        Future<ApiKey> future = client.post("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"),
+                null, RequestType.JSON);
+
+        verify(httpClient, never()).execute(any(HttpUriRequest.class), anyCallback());
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectCause(Matchers.<Throwable>instanceOf(InvalidRequestException.class));
+
+        future.get();
+    }
+
+    @Test
+    public void delete_shouldCompleteWithoutContent() throws Exception {
+        Future<Void> future = client.delete("http://sendgrid", new ApiKeyCredential("token"));
+
+        ArgumentCaptor<HttpUriRequest> captor = ArgumentCaptor.forClass(HttpUriRequest.class);
+        verify(httpClient).execute(captor.capture(), anyCallback());
+        assertThat(captor.getValue().getMethod(), equalTo("DELETE"));
+
+        captureCallback().completed(new BasicHttpResponse(HttpVersion.HTTP_1_1, 204, "No Content"));
+
+        assertThat(future.get(), nullValue());
+    }
+
+    @Test
+    public void post_shouldSendMultipartEmailToServer() throws Exception {
+        final List<String> bodies = new ArrayList<String>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                bodies.add(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+                byte[] response = "{\"message\":\"success\"}".getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, response.length);
+                exchange.getResponseBody().write(response);
+                exchange.close();
+            }
+        });
+        server.start();
+        SendGridAsyncHttpClient realClient = new SendGridAsyncHttpClient("unit-test", 2);
+        try {
+            Email email = new Email()
+                    .setFrom("test1@email.com")
+                    .addTo("test2@email.com")
+                    .setText("test")
+                    .setAttachment("test.txt", "attached".getBytes("UTF-8"));
+
+            Future<Response> future = realClient.post("http://127.0.0.1:" + server.getAddress().getPort() + "/api/mail.send.json",
+                    Response.class, new ApiKeyCredential("token"), email, RequestType.MULTIPART);
+
+            assertThat(future.get(10, TimeUnit.SECONDS).getMessage(), equalTo("success"));
+            assertThat(bodies, hasSize(1));
+            assertThat(bodies.get(0), allOf(containsString("test2@email.com"), containsString("attached")));
+        } finally {
+            realClient.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void close_shouldCloseUnderlyingClient() throws Exception {
+        client.close();
+        verify(httpClient).close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private FutureCallback<HttpResponse> captureCallback() {
+        ArgumentCaptor<FutureCallback> captor = ArgumentCaptor.forClass(FutureCallback.class);
+        verify(httpClient).execute(any(HttpUriRequest.class), captor.capture());
+        return captor.getValue();
+    }
+
+    private static FutureCallback<HttpResponse> anyCallback() {
+        return any();
+    }
+
+    private HttpResponse response(int statusCode, String body) throws Exception {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        response.setEntity(new StringEntity(body));
+        return response;
+    }
+}
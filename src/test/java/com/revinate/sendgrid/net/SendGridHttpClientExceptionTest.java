@@ -29,6 +29,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+@SuppressWarnings("deprecation")
 @RunWith(Parameterized.class)
 public class SendGridHttpClientExceptionTest extends BaseSendGridTest {
 
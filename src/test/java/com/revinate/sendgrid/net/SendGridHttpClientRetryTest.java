@@ -0,0 +1,258 @@
+package com.revinate.sendgrid.net;
+
+import com.revinate.sendgrid.BaseSendGridTest;
+import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.ApiException;
+import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.model.ApiKey;
+import com.revinate.sendgrid.model.Email;
+import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
+import com.revinate.sendgrid.net.auth.ApiKeyCredential;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.net.SocketTimeoutException;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SendGridHttpClientRetryTest extends BaseSendGridTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Mock
+    CloseableHttpClient httpClient;
+
+    @Mock
+    SendGridAsyncHttpClient asyncClient;
+
+    SendGridHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRetryPolicy(RetryPolicy.create()
+                        .setMaxAttempts(3)
+                        .setBaseDelayMillis(0)
+                        .setMaxDelayMillis(0)
+                        .build())
+                .build();
+    }
+
+    @Test
+    public void get_shouldRetryOnRetryableStatusCode() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(503, "unavailable"))
+                .thenAnswer(new ResponseAnswer(200, readFile("/responses/api-key.json")));
+
+        ApiKey apiKey = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void get_shouldRetryOnConnectionError() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenThrow(new SocketTimeoutException())
+                .thenAnswer(new ResponseAnswer(200, readFile("/responses/api-key.json")));
+
+        ApiKey apiKey = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+    }
+
+    @Test
+    public void get_shouldGiveUpAfterMaxAttempts() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(503, "unavailable"));
+
+        try {
+            client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+            fail("Expected exception");
+        } catch (ApiException e) {
+            assertThat(e.getStatusCode(), equalTo(503));
+        }
+
+        verify(httpClient, times(3)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void get_shouldNotRetryClientError() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(400, "bad request"));
+
+        try {
+            client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+            fail("Expected exception");
+        } catch (InvalidRequestException e) {
+            // expected
+        }
+
+        verify(httpClient, times(1)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void get_shouldNotRetryPastDeadline() throws Exception {
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRetryPolicy(RetryPolicy.create()
+                        .setMaxAttempts(5)
+                        .setBaseDelayMillis(1000)
+                        .setMaxDelayMillis(1000)
+                        .setDeadlineMillis(500)
+                        .build())
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenThrow(new SocketTimeoutException());
+
+        try {
+            client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+            fail("Expected exception");
+        } catch (ApiConnectionException e) {
+            // expected
+        }
+
+        verify(httpClient, times(1)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void post_shouldNotRetryByDefault() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(503, "unavailable"));
+
+        try {
+            client.post("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"), new ApiKey("key"),
+                    RequestType.JSON, true);
+            fail("Expected exception");
+        } catch (ApiException e) {
+            // expected
+        }
+
+        verify(httpClient, times(1)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void post_shouldRetryReplayableRequestWhenEnabled() throws Exception {
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRetryPolicy(RetryPolicy.create()
+                        .setBaseDelayMillis(0)
+                        .setMaxDelayMillis(0)
+                        .setRetryNonIdempotent(true)
+                        .build())
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(503, "unavailable"))
+                .thenAnswer(new ResponseAnswer(200, readFile("/responses/api-key.json")));
+
+        ApiKey apiKey = client.post("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"),
+                new ApiKey("key"), RequestType.JSON, true);
+
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void post_shouldRetryEmailWithRepeatableAttachments() throws Exception {
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRetryPolicy(RetryPolicy.create()
+                        .setBaseDelayMillis(0)
+                        .setMaxDelayMillis(0)
+                        .setRetryNonIdempotent(true)
+                        .build())
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(503, "unavailable"))
+                .thenAnswer(new ResponseAnswer(200, readFile("/responses/response.json")));
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+        email.setAttachment("test.txt", "contents".getBytes("UTF-8"));
+
+        Response response = client.post("http://sendgrid", Response.class, new ApiKeyCredential("token"),
+                email, RequestType.MULTIPART, true);
+
+        assertThat(response, notNullValue());
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void post_shouldNotRetryEmailWithStreamAttachment() throws Exception {
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRetryPolicy(RetryPolicy.create()
+                        .setBaseDelayMillis(0)
+                        .setMaxDelayMillis(0)
+                        .setRetryNonIdempotent(true)
+                        .build())
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(503, "unavailable"));
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+        email.setAttachment("test.txt", new ByteArrayInputStream("contents".getBytes("UTF-8")));
+
+        try {
+            client.post("http://sendgrid", Response.class, new ApiKeyCredential("token"), email,
+                    RequestType.MULTIPART, true);
+            fail("Expected exception");
+        } catch (ApiException e) {
+            // expected
+        }
+
+        verify(httpClient, times(1)).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    private static <T> ResponseHandler<T> anyHandler() {
+        return Matchers.any();
+    }
+
+    private static class ResponseAnswer implements Answer<Object> {
+
+        private final int statusCode;
+        private final String body;
+
+        ResponseAnswer(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+            response.setEntity(new StringEntity(body));
+            return ((ResponseHandler<?>) invocation.getArguments()[1]).handleResponse(response);
+        }
+    }
+}
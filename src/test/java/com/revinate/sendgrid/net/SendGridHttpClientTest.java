@@ -2,7 +2,9 @@ package com.revinate.sendgrid.net;
 
 import com.revinate.sendgrid.BaseSendGridTest;
 import com.revinate.sendgrid.exception.ApiConnectionException;
+import com.revinate.sendgrid.exception.CircuitBreakerOpenException;
 import com.revinate.sendgrid.exception.InvalidRequestException;
+import com.revinate.sendgrid.exception.RateLimitExceededException;
 import com.revinate.sendgrid.model.ApiKey;
 import com.revinate.sendgrid.model.Email;
 import com.revinate.sendgrid.model.Response;
@@ -11,11 +13,16 @@ import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.ApiKeyCredential;
 import com.revinate.sendgrid.util.JsonUtils;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.util.EntityUtils;
 import org.junit.Before;
 import org.junit.Rule;
@@ -23,8 +30,11 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -34,11 +44,15 @@ import java.util.Map;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+// StringResponseHandler is tested on purpose, as the handler the client used to read responses with
+@SuppressWarnings("deprecation")
 @RunWith(MockitoJUnitRunner.class)
 public class SendGridHttpClientTest extends BaseSendGridTest {
 
@@ -51,6 +65,9 @@ public class SendGridHttpClientTest extends BaseSendGridTest {
     @Mock
     StringResponseHandler handler;
 
+    @Mock
+    SendGridAsyncHttpClient asyncClient;
+
     SendGridHttpClient client;
 
     @Before
@@ -378,4 +395,179 @@ public class SendGridHttpClientTest extends BaseSendGridTest {
         client.close();
         verify(httpClient).close();
     }
+
+    @Test
+    public void get_shouldDecodeResponseFromStream() throws Exception {
+        client = new SendGridHttpClient(httpClient, asyncClient);
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(readFile("/responses/api-key.json")));
+
+        ApiKey apiKey = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+        assertThat(apiKey.getApiKeyId(), equalTo("sdaspfgada5hahsrs5hSHF"));
+        verify(httpClient).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void get_shouldWrapMappingIOExceptionFromStream() throws Exception {
+        client = new SendGridHttpClient(httpClient, asyncClient);
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer("not a json"));
+
+        thrown.expect(ApiConnectionException.class);
+        thrown.expectMessage("Error while mapping response");
+
+        client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+    }
+
+    @Test
+    public void endpointKey_shouldReduceUrlToEndpoint() throws Exception {
+        assertThat(SendGridHttpClient.endpointKey("https://api.sendgrid.com/v3/subusers"),
+                equalTo("/v3/subusers"));
+        assertThat(SendGridHttpClient.endpointKey("https://api.sendgrid.com/v3/subusers/foo/ips?limit=1"),
+                equalTo("/v3/subusers"));
+        assertThat(SendGridHttpClient.endpointKey("https://api.sendgrid.com/api/mail.send.json"),
+                equalTo("/api/mail.send.json"));
+        assertThat(SendGridHttpClient.endpointKey("http://sendgrid"), equalTo("/"));
+    }
+
+    @Test
+    public void get_shouldRejectWhenRateLimited() throws Exception {
+        RateLimiter rateLimiter = new RateLimiter(0);
+        rateLimiter.update("/v3/subusers", rateLimitedResponse());
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRateLimiter(rateLimiter)
+                .build();
+
+        try {
+            client.get("https://api.sendgrid.com/v3/subusers", Subuser.class, new ApiKeyCredential("token"));
+            fail("Expected exception");
+        } catch (RateLimitExceededException e) {
+            assertThat(e.getStatusCode(), equalTo(429));
+        }
+
+        verify(httpClient, never()).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void get_shouldFailFastWhenCircuitIsOpen() throws Exception {
+        CircuitBreaker circuitBreaker = CircuitBreaker.create()
+                .setWindowSize(1).setMinimumCalls(1).setHalfOpenCalls(1).build();
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setCircuitBreaker(circuitBreaker)
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenThrow(new IOException("Unit test"));
+
+        try {
+            client.get("https://api.sendgrid.com/v3/subusers", Subuser.class, new ApiKeyCredential("token"));
+            fail("Expected exception");
+        } catch (ApiConnectionException e) {
+            assertThat(e, not(instanceOf(CircuitBreakerOpenException.class)));
+        }
+
+        try {
+            client.get("https://api.sendgrid.com/v3/subusers/foo", Subuser.class, new ApiKeyCredential("token"));
+            fail("Expected exception");
+        } catch (CircuitBreakerOpenException e) {
+            assertThat(e.getEndpoint(), equalTo("/v3/subusers"));
+        }
+
+        verify(httpClient).execute(any(HttpUriRequest.class), anyHandler());
+    }
+
+    @Test
+    public void get_shouldGoThroughRequestHedger() throws Exception {
+        RequestHedger requestHedger = RequestHedger.create().build();
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setRequestHedger(requestHedger)
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(readFile("/responses/api-key.json")));
+
+        ApiKey apiKey = client.get("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"));
+        client.close();
+
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+        assertThat(requestHedger.getRequestCount(), equalTo(1L));
+    }
+
+    @Test
+    public void post_shouldCompressRequestAndAcceptCompressedResponse() throws Exception {
+        client = SendGridHttpClient.create()
+                .setHttpClient(httpClient)
+                .setAsyncClient(asyncClient)
+                .setCompressionPolicy(CompressionPolicy.create().setMinRequestSize(0).build())
+                .build();
+        when(httpClient.execute(any(HttpUriRequest.class), anyHandler()))
+                .thenAnswer(new ResponseAnswer(readFile("/responses/api-key.json")));
+
+        client.post("http://sendgrid", ApiKey.class, new ApiKeyCredential("token"), new ApiKey("1st API key"),
+                RequestType.JSON);
+
+        ArgumentCaptor<HttpEntityEnclosingRequestBase> captor = ArgumentCaptor
+                .forClass(HttpEntityEnclosingRequestBase.class);
+        verify(httpClient).execute(captor.capture(), anyHandler());
+
+        HttpEntityEnclosingRequestBase httpRequest = captor.getValue();
+
+        assertThat(httpRequest.getEntity().getContentEncoding().getValue(), equalTo("gzip"));
+        assertThat(httpRequest.getFirstHeader("Accept-Encoding").getValue(), containsString("gzip"));
+    }
+
+    @Test
+    public void getAsyncClient_shouldFailForExistingHttpClient() throws Exception {
+        client = new SendGridHttpClient(httpClient);
+
+        thrown.expect(IllegalStateException.class);
+        thrown.expectMessage("setAsyncHttpClient");
+        client.getAsyncClient();
+    }
+
+    @Test
+    public void getAsyncClient_shouldBuildDefaultAsyncClientOnFirstUse() throws Exception {
+        client = SendGridHttpClient.create().setUserAgent("unit-test").build();
+
+        SendGridAsyncHttpClient defaultAsyncClient = client.getAsyncClient();
+        client.close();
+
+        assertThat(defaultAsyncClient, notNullValue());
+        assertThat(client.getAsyncClient(), sameInstance(defaultAsyncClient));
+    }
+
+    private static <T> ResponseHandler<T> anyHandler() {
+        return Matchers.any();
+    }
+
+    private HttpResponse rateLimitedResponse() {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+        response.addHeader(RateLimiter.LIMIT_HEADER, "100");
+        response.addHeader(RateLimiter.REMAINING_HEADER, "0");
+        response.addHeader(RateLimiter.RESET_HEADER,
+                String.valueOf(System.currentTimeMillis() / 1000 + 60));
+        return response;
+    }
+
+    private static class ResponseAnswer implements Answer<Object> {
+
+        private final String body;
+
+        ResponseAnswer(String body) {
+            this.body = body;
+        }
+
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            response.setEntity(new StringEntity(body));
+            return ((ResponseHandler<?>) invocation.getArguments()[1]).handleResponse(response);
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package com.revinate.sendgrid.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class UrlConnectionHttpTransportTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    HttpServer server;
+    String baseUrl;
+    UrlConnectionHttpTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new EchoHandler());
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        transport = new UrlConnectionHttpTransport("unit-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void execute_shouldSendRequestAndReadResponse() throws Exception {
+        HttpGet request = new HttpGet(baseUrl + "/v3/subusers?limit=1");
+        request.setHeader("Authorization", "Bearer token");
+
+        HttpResponse response = transport.execute(request, new BufferingHandler());
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(200));
+        assertThat(response.getFirstHeader("X-Method").getValue(), equalTo("GET"));
+        assertThat(response.getFirstHeader("X-Authorization").getValue(), equalTo("Bearer token"));
+        assertThat(response.getFirstHeader("X-User-Agent").getValue(), equalTo("unit-test"));
+        assertThat(EntityUtils.toString(response.getEntity()), equalTo("/v3/subusers?limit=1"));
+    }
+
+    @Test
+    public void execute_shouldWriteRequestEntity() throws Exception {
+        HttpPost request = new HttpPost(baseUrl + "/v3/api_keys");
+        request.setEntity(new StringEntity("{\"name\":\"key\"}", ContentType.APPLICATION_JSON));
+
+        HttpResponse response = transport.execute(request, new BufferingHandler());
+
+        assertThat(response.getFirstHeader("X-Content-Type").getValue(), startsWith("application/json"));
+        assertThat(EntityUtils.toString(response.getEntity()), equalTo("{\"name\":\"key\"}"));
+    }
+
+    @Test
+    public void execute_shouldReadErrorResponse() throws Exception {
+        HttpResponse response = transport.execute(new HttpGet(baseUrl + "/error"), new BufferingHandler());
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(404));
+        assertThat(EntityUtils.toString(response.getEntity()), equalTo("/error"));
+    }
+
+    @Test
+    public void execute_shouldRejectPatch() throws Exception {
+        thrown.expect(ClientProtocolException.class);
+        thrown.expectMessage("PATCH is not supported by UrlConnectionHttpTransport");
+
+        transport.execute(new HttpPatch(baseUrl + "/v3/subusers/foo"), new BufferingHandler());
+    }
+
+    private static class BufferingHandler implements ResponseHandler<HttpResponse> {
+
+        @Override
+        public HttpResponse handleResponse(HttpResponse response) throws IOException {
+            if (response.getEntity() != null) {
+                response.setEntity(new StringEntity(EntityUtils.toString(response.getEntity())));
+            }
+            return response;
+        }
+    }
+
+    private static class EchoHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] body;
+            if ("POST".equals(exchange.getRequestMethod())) {
+                body = IOUtils.toByteArray(exchange.getRequestBody());
+                exchange.getResponseHeaders().add("X-Content-Type",
+                        exchange.getRequestHeaders().getFirst("Content-Type"));
+            } else {
+                body = exchange.getRequestURI().toString().getBytes("UTF-8");
+            }
+
+            exchange.getResponseHeaders().add("X-Method", exchange.getRequestMethod());
+            exchange.getResponseHeaders().add("X-User-Agent", exchange.getRequestHeaders().getFirst("User-Agent"));
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization != null) {
+                exchange.getResponseHeaders().add("X-Authorization", authorization);
+            }
+
+            int statusCode = exchange.getRequestURI().getPath().equals("/error") ? 404 : 200;
+            exchange.sendResponseHeaders(statusCode, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
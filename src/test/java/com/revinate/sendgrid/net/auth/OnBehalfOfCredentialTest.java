@@ -12,7 +12,7 @@ import java.util.List;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
 public class OnBehalfOfCredentialTest {
@@ -39,4 +39,14 @@ public class OnBehalfOfCredentialTest {
                 )
         ));
     }
+
+    @Test
+    public void toHttpHeaders_shouldBuildHeadersOnce() throws Exception {
+        when(baseCredential.toHttpHeaders()).thenReturn(Collections.<Header>emptyList());
+
+        OnBehalfOfCredential credential = new OnBehalfOfCredential(baseCredential, "username");
+
+        assertThat(credential.toHttpHeaders(), sameInstance(credential.toHttpHeaders()));
+        verify(baseCredential, times(1)).toHttpHeaders();
+    }
 }
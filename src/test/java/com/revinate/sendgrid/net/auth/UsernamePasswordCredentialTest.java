@@ -24,4 +24,11 @@ public class UsernamePasswordCredentialTest {
                 hasProperty("value", equalTo("Basic " + base64Credentials))
         )));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void toHttpHeaders_shouldBuildHeadersOnce() throws Exception {
+        UsernamePasswordCredential credential = new UsernamePasswordCredential("username", "password");
+
+        assertThat(credential.toHttpHeaders(), sameInstance(credential.toHttpHeaders()));
+    }
+}
@@ -3,10 +3,13 @@ package com.revinate.sendgrid.resource;
 import com.revinate.sendgrid.BaseSendGridTest;
 import com.revinate.sendgrid.model.Email;
 import com.revinate.sendgrid.model.Response;
+import com.revinate.sendgrid.net.SendGridAsyncHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.util.JsonUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -16,6 +19,8 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import java.util.concurrent.Future;
+
 import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Mockito.when;
 
@@ -28,6 +33,9 @@ public class MailResourceTest extends BaseSendGridTest {
     @Mock
     SendGridHttpClient client;
 
+    @Mock
+    SendGridAsyncHttpClient asyncClient;
+
     @Mock
     Credential credential;
 
@@ -46,10 +54,26 @@ public class MailResourceTest extends BaseSendGridTest {
         email.addTo("test1@email.com");
 
         when(client.post("https://api.sendgrid.com/api/mail.send.json", Response.class,
-                credential, email, RequestType.MULTIPART)).thenReturn(response);
+                credential, email, RequestType.MULTIPART, true)).thenReturn(response);
 
         Response response1 = resource.send(email);
 
         Assert.assertThat(response1, sameInstance(response));
     }
+
+    @Test
+    public void sendAsync_shouldPostEmailAndReturnResponse() throws Exception {
+        BasicFuture<Response> response = new BasicFuture<Response>(null);
+        Email email = new Email();
+        email.setFrom("test1@email.com");
+        email.addTo("test1@email.com");
+
+        when(client.getAsyncClient()).thenReturn(asyncClient);
+        when(asyncClient.post("https://api.sendgrid.com/api/mail.send.json", Response.class,
+                credential, email, RequestType.MULTIPART, (FutureCallback<Response>) null)).thenReturn(response);
+
+        Future<Response> response1 = resource.sendAsync(email);
+
+        Assert.assertThat(response1, sameInstance((Future<Response>) response));
+    }
 }
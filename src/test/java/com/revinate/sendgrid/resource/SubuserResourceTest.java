@@ -3,10 +3,14 @@ package com.revinate.sendgrid.resource;
 import com.revinate.sendgrid.BaseSendGridTest;
 import com.revinate.sendgrid.exception.InvalidRequestException;
 import com.revinate.sendgrid.model.Subuser;
+import com.revinate.sendgrid.net.SendGridAsyncHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.util.JsonUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -19,6 +23,8 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -38,6 +44,9 @@ public class SubuserResourceTest extends BaseSendGridTest {
     @Mock
     SendGridHttpClient client;
 
+    @Mock
+    SendGridAsyncHttpClient asyncClient;
+
     @Mock
     Credential credential;
 
@@ -93,6 +102,32 @@ public class SubuserResourceTest extends BaseSendGridTest {
         resource.retrieve();
     }
 
+    @Test
+    public void retrieveAsync_shouldReturnSubuser() throws Exception {
+        BasicFuture<Subuser> response = new BasicFuture<Subuser>(null);
+
+        when(client.getAsyncClient()).thenReturn(asyncClient);
+        when(asyncClient.get("https://api.sendgrid.com/v3/subusers/" + USERNAME,
+                Subuser.class, credential, (FutureCallback<Subuser>) null)).thenReturn(response);
+
+        Future<Subuser> subuser = resource.retrieveAsync();
+
+        assertThat(subuser, sameInstance((Future<Subuser>) response));
+    }
+
+    @Test
+    public void retrieveAsync_shouldHandleMissingId() throws Exception {
+        Subuser subuser = new Subuser();
+        subuser.setEmail("test1@email.com");
+        resource = new SubuserResource("https://api.sendgrid.com/v3/subusers", client, credential, subuser);
+
+        thrown.expect(ExecutionException.class);
+        thrown.expectCause(Matchers.<Throwable>instanceOf(InvalidRequestException.class));
+        thrown.expectCause(Matchers.<Throwable>hasProperty("message", equalTo("Missing entity identifier")));
+
+        resource.retrieveAsync().get();
+    }
+
     @Test
     @SuppressWarnings("unchecked")
     public void update_shouldPutIpsAndReturnSubuser() throws Exception {
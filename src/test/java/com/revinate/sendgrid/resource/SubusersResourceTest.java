@@ -3,24 +3,32 @@ package com.revinate.sendgrid.resource;
 import com.revinate.sendgrid.BaseSendGridTest;
 import com.revinate.sendgrid.model.Subuser;
 import com.revinate.sendgrid.model.SubuserCollection;
+import com.revinate.sendgrid.net.SendGridAsyncHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient;
 import com.revinate.sendgrid.net.SendGridHttpClient.RequestType;
 import com.revinate.sendgrid.net.auth.Credential;
 import com.revinate.sendgrid.util.JsonUtils;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -32,6 +40,9 @@ public class SubusersResourceTest extends BaseSendGridTest {
     @Mock
     SendGridHttpClient client;
 
+    @Mock
+    SendGridAsyncHttpClient asyncClient;
+
     @Mock
     Credential credential;
 
@@ -84,6 +95,42 @@ public class SubusersResourceTest extends BaseSendGridTest {
         assertThat(subusers, sameInstance(response.getData()));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void listAsync_shouldReturnSubusers() throws Exception {
+        SubuserCollection response = JsonUtils.fromJson(readFile("/responses/subusers.json"),
+                SubuserCollection.class);
+        BasicFuture<SubuserCollection> responseFuture = new BasicFuture<SubuserCollection>(null);
+
+        when(client.getAsyncClient()).thenReturn(asyncClient);
+        when(asyncClient.get(eq("https://api.sendgrid.com/v3/subusers"), eq(SubuserCollection.class),
+                eq(credential), any(FutureCallback.class))).thenReturn(responseFuture);
+
+        Future<List<Subuser>> subusers = resource.listAsync();
+
+        ArgumentCaptor<FutureCallback> captor = ArgumentCaptor.forClass(FutureCallback.class);
+        verify(asyncClient).get(eq("https://api.sendgrid.com/v3/subusers"), eq(SubuserCollection.class),
+                eq(credential), captor.capture());
+        captor.getValue().completed(response);
+
+        assertThat(subusers.get(), sameInstance(response.getData()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void listAsync_shouldPropagateCancellation() throws Exception {
+        BasicFuture<SubuserCollection> responseFuture = new BasicFuture<SubuserCollection>(null);
+
+        when(client.getAsyncClient()).thenReturn(asyncClient);
+        when(asyncClient.get(eq("https://api.sendgrid.com/v3/subusers"), eq(SubuserCollection.class),
+                eq(credential), any(FutureCallback.class))).thenReturn(responseFuture);
+
+        Future<List<Subuser>> subusers = resource.listAsync();
+        subusers.cancel(true);
+
+        assertThat(responseFuture.isCancelled(), equalTo(true));
+    }
+
     @Test
     public void create_shouldPostAndReturnSubuser() throws Exception {
         Subuser response = JsonUtils.fromJson(readFile("/responses/subuser.json"), Subuser.class);
@@ -0,0 +1,170 @@
+package com.revinate.sendgrid.util;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.revinate.sendgrid.BaseSendGridTest;
+import com.revinate.sendgrid.model.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class JsonUtilsTest extends BaseSendGridTest {
+
+    // same configuration as JsonUtils, without the streaming codecs
+    private static final ObjectMapper BEAN_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .setVisibility(PropertyAccessor.CREATOR, Visibility.NONE)
+            .setPropertyNamingStrategy(PropertyNamingStrategy.CAMEL_CASE_TO_LOWER_CASE_WITH_UNDERSCORES)
+            .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void fromJson_shouldDecodeLikeBeanMapping() throws Exception {
+        assertDecodesLikeBeanMapping("/responses/response.json", Response.class);
+        assertDecodesLikeBeanMapping("/responses/response-error.json", Response.class);
+        assertDecodesLikeBeanMapping("/responses/api-errors.json", ApiErrorsResponse.class);
+        assertDecodesLikeBeanMapping("/responses/subuser.json", Subuser.class);
+        assertDecodesLikeBeanMapping("/responses/subusers.json", SubuserCollection.class);
+        assertDecodesLikeBeanMapping("/responses/ip.json", Ip.class);
+        assertDecodesLikeBeanMapping("/responses/ips.json", IpCollection.class);
+        assertDecodesLikeBeanMapping("/responses/api-key.json", ApiKey.class);
+        assertDecodesLikeBeanMapping("/responses/api-keys.json", ApiKeysResponse.class);
+        assertDecodesLikeBeanMapping("/responses/mail-setting.json", MailSetting.class);
+        assertDecodesLikeBeanMapping("/responses/mail-settings.json", MailSettingsResponse.class);
+    }
+
+    @Test
+    public void fromJson_shouldDecodeFromStream() throws Exception {
+        ApiKey apiKey = JsonUtils.fromJson(
+                new ByteArrayInputStream(readFile("/responses/api-key.json").getBytes("UTF-8")), ApiKey.class);
+
+        assertThat(apiKey.getName(), equalTo("1st API key"));
+    }
+
+    @Test
+    public void fromJson_shouldSkipUnknownProperties() throws Exception {
+        String json = "{\"unknown\":{\"nested\":[1,{\"a\":2}]},\"name\":\"key\",\"other\":[],\"scopes\":[\"mail.send\"]}";
+
+        ApiKey apiKey = JsonUtils.fromJson(json, ApiKey.class);
+
+        assertThat(apiKey.getName(), equalTo("key"));
+        assertThat(apiKey.getScopes(), contains("mail.send"));
+    }
+
+    @Test
+    public void fromJson_shouldCoerceScalarsLikeBeanMapping() throws Exception {
+        String json = "{\"user_id\":\"42\",\"username\":7,\"disabled\":\"true\",\"ips\":[\"1.1.1.1\",null]," +
+                "\"credit_allocation\":{\"type\":\"unlimited\"}}";
+
+        Subuser subuser = JsonUtils.fromJson(json, Subuser.class);
+
+        assertThat(subuser.getId(), equalTo(42));
+        assertThat(subuser.getUsername(), equalTo("7"));
+        assertThat(subuser.getDisabled(), equalTo(true));
+        assertThat(subuser.getIps(), contains("1.1.1.1", null));
+        assertThat(subuser.getCreditAllocation().getType(), equalTo("unlimited"));
+        assertThat(BEAN_MAPPER.writeValueAsString(subuser),
+                equalTo(BEAN_MAPPER.writeValueAsString(BEAN_MAPPER.readValue(json, Subuser.class))));
+    }
+
+    @Test
+    public void fromJson_shouldDecodeDates() throws Exception {
+        Ip ip = JsonUtils.fromJson("{\"start_date\":1000}", Ip.class);
+        Ip other = JsonUtils.fromJson("{\"start_date\":\"1970-01-01T00:00:01.000+0000\"}", Ip.class);
+
+        assertThat(ip.getStartDate(), equalTo(new Date(1000)));
+        assertThat(other.getStartDate(), equalTo(new Date(1000)));
+    }
+
+    @Test
+    public void fromJson_shouldDecodeNullToNull() throws Exception {
+        assertThat(JsonUtils.fromJson("null", Subuser.class), nullValue());
+    }
+
+    @Test
+    public void fromJson_shouldRejectNonObject() throws Exception {
+        thrown.expect(JsonMappingException.class);
+
+        JsonUtils.fromJson("\"name\"", MailSetting.class);
+    }
+
+    @Test
+    public void fromJson_shouldRejectMismatchedProperty() throws Exception {
+        thrown.expect(JsonMappingException.class);
+
+        JsonUtils.fromJson("{\"scopes\":{\"a\":1}}", ApiKey.class);
+    }
+
+    @Test
+    public void toJson_shouldEncodeLikeBeanMapping() throws Exception {
+        Subuser subuser = new Subuser("test1", "test1@example.com", "password");
+        subuser.setId(1);
+        subuser.setDisabled(false);
+        subuser.setCreditAllocation(new CreditAllocation());
+        subuser.setIps(Collections.<String>emptyList());
+        assertEncodesLikeBeanMapping(subuser);
+        assertEncodesLikeBeanMapping(new Subuser("test1"));
+
+        Ip ip = new Ip("127.0.0.1");
+        ip.setStartDate(new Date(1000));
+        ip.setSubusers(Arrays.asList("test1", null));
+        ip.setWarmup(true);
+        assertEncodesLikeBeanMapping(ip);
+
+        ApiKey apiKey = new ApiKey("key");
+        apiKey.addScope("mail.send");
+        assertEncodesLikeBeanMapping(apiKey);
+
+        assertEncodesLikeBeanMapping(new MailSetting("bcc", true, "bcc@example.com"));
+
+        Response response = new Response();
+        response.setMessage("error");
+        response.setErrors(Arrays.asList("first", "second"));
+        assertEncodesLikeBeanMapping(response);
+
+        ApiErrorsResponse apiErrorsResponse = new ApiErrorsResponse();
+        apiErrorsResponse.setErrors(Arrays.asList(new ApiError("first"), null));
+        assertEncodesLikeBeanMapping(apiErrorsResponse);
+    }
+
+    @Test
+    public void toJson_shouldEncodeNull() throws Exception {
+        assertThat(JsonUtils.toJson(null), equalTo("null"));
+    }
+
+    @Test
+    public void reader_shouldBeCachedPerType() throws Exception {
+        assertThat(JsonUtils.reader(Subuser.class), sameInstance(JsonUtils.reader(Subuser.class)));
+        assertThat(JsonUtils.writer(Subuser.class), sameInstance(JsonUtils.writer(Subuser.class)));
+    }
+
+    private <T> void assertDecodesLikeBeanMapping(String path, Class<T> type) throws Exception {
+        String json = readFile(path);
+
+        T decoded = JsonUtils.fromJson(json, type);
+
+        T expected = BEAN_MAPPER.readValue(json, type);
+        assertThat(path, BEAN_MAPPER.valueToTree(decoded), equalTo(BEAN_MAPPER.valueToTree(expected)));
+    }
+
+    private void assertEncodesLikeBeanMapping(Object value) throws Exception {
+        assertThat(JsonUtils.toJson(value), equalTo(BEAN_MAPPER.writeValueAsString(value)));
+    }
+}
@@ -0,0 +1,22 @@
+package com.revinate.sendgrid.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class LruCacheTest {
+
+    @Test
+    public void put_shouldEvictLeastRecentlyUsedEntry() throws Exception {
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+
+        cache.put("c", 3);
+
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.keySet(), contains("a", "c"));
+    }
+}